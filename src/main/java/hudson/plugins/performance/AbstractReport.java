@@ -4,15 +4,47 @@ import org.kohsuke.stapler.Stapler;
 
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
 
 /**
- * Abstract class for classes with size, error, mean, average, 90 line, min and max attributes
+ * Abstract class for classes with size, error, mean, average, percentiles, min and max attributes
  */
 public abstract class AbstractReport {
 
   private NumberFormat percentFormat;
   private NumberFormat dataFormat;
+  private NumberFormat rateFormat;
+
+  /**
+   * Percentiles computed together, replaced as a whole so that concurrent
+   * readers never mix the keys of one computation with the values of
+   * another.
+   */
+  private static final class Percentiles {
+
+    /**
+     * The median, the 90% line and the configured percentiles, sorted.
+     */
+    final double[] keys;
+
+    final long[] values;
+
+    /**
+     * Number of samples in the histogram when the values were computed.
+     */
+    final long count;
+
+    Percentiles(double[] keys, long[] values, long count) {
+      this.keys = keys;
+      this.values = values;
+      this.count = count;
+    }
+  }
+
+  private transient volatile Percentiles percentiles;
 
   abstract public int countErrors();
 
@@ -24,6 +56,7 @@ public abstract class AbstractReport {
     }
     percentFormat = new DecimalFormat("0.0");
     dataFormat = new DecimalFormat("#,###");
+    rateFormat = new DecimalFormat("#,##0.0");
   }
 
   public String errorPercentFormated() {
@@ -49,6 +82,99 @@ public abstract class AbstractReport {
     return dataFormat.format(get90Line());
   }
 
+  /**
+   * Distribution of the sample durations of this report.
+   */
+  abstract public LatencyHistogram getHistogram();
+
+  /**
+   * Percentiles configured on the {@link PerformancePublisher}, see
+   * {@link PerformancePublisher#getPercentileValues()}.
+   */
+  abstract public double[] getConfiguredPercentiles();
+
+  /**
+   * Value at the given percentile. The median, the 90% line and the
+   * configured percentiles are all computed together, in a single walk of
+   * the histogram, and kept until samples are added.
+   */
+  public long getPercentile(double percentile) {
+    LatencyHistogram histogram = getHistogram();
+    Percentiles computed = percentiles;
+    if (computed == null || computed.count != histogram.getTotalCount()) {
+      double[] configured = getConfiguredPercentiles();
+      double[] keys = Arrays.copyOf(configured, configured.length + 2);
+      keys[configured.length] = 50;
+      keys[configured.length + 1] = 90;
+      Arrays.sort(keys);
+      long count = histogram.getTotalCount();
+      computed = new Percentiles(keys, histogram.getValuesAtPercentiles(keys), count);
+      percentiles = computed;
+    }
+    int index = Arrays.binarySearch(computed.keys, percentile);
+    if (index >= 0) {
+      return computed.values[index];
+    }
+    return histogram.getValueAtPercentile(percentile);
+  }
+
+  /**
+   * Configured percentiles other than the median and the 90% line, which
+   * have their own columns, formatted for display.
+   */
+  public List<String> getExtraPercentiles() {
+    List<String> names = new ArrayList<String>();
+    for (double percentile : getConfiguredPercentiles()) {
+      if (percentile != 50 && percentile != 90) {
+        names.add(PerformancePublisher.formatPercentile(percentile));
+      }
+    }
+    return names;
+  }
+
+  /**
+   * Values of the percentiles listed by {@link #getExtraPercentiles()}, in
+   * the same order.
+   */
+  public List<Long> getExtraPercentileValues() {
+    List<Long> values = new ArrayList<Long>();
+    for (double percentile : getConfiguredPercentiles()) {
+      if (percentile != 50 && percentile != 90) {
+        values.add(getPercentile(percentile));
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Aggregates of the samples of this report, see {@link ReportSummary}.
+   */
+  abstract public ReportSummary getSummary();
+
+  /**
+   * Requests per second, from the start of the first sample to the end of
+   * the last one.
+   */
+  public double getThroughput() {
+    return getSummary().getThroughput();
+  }
+
+  public String getThroughputFormated() {
+    return rateFormat.format(getThroughput());
+  }
+
+  /**
+   * Response bytes per second, over the same time window as
+   * {@link #getThroughput()}.
+   */
+  public double getBytesPerSecond() {
+    return getSummary().getBytesPerSecond();
+  }
+
+  public String getKbPerSecondFormated() {
+    return rateFormat.format(getBytesPerSecond() / 1024d);
+  }
+
   abstract public long getMax();
 
   public String getMaxFormated() {
@@ -0,0 +1,201 @@
+package hudson.plugins.performance;
+
+import java.util.Arrays;
+
+/**
+ * Finds where the mean of a series shifts, with the Pruned Exact Linear Time
+ * (PELT) method of Killick, Fearnhead and Eckley: the segmentation minimizing
+ * the sum of squared deviations from the segment means, in units of the noise
+ * variance, plus a penalty per change.
+ *
+ * Values are added one at a time and the optimal cost of each prefix is kept,
+ * so adding a value only evaluates the segment starts PELT did not prune,
+ * usually a handful. The noise variance is estimated as half the mean squared
+ * difference of successive values, which mean shifts hardly move; the costs
+ * are computed again only when that estimate drifts by more than
+ * {@value #VARIANCE_DRIFT} times.
+ *
+ * Segments are at least {@value #MIN_SEGMENT} values long, so that a shift
+ * is not made of one or two values. Isolated outliers should still be
+ * filtered out first, as the model has no room for them.
+ */
+public final class ChangePointDetector {
+
+  /**
+   * Penalty of a change, in units of the noise variance: the BIC penalty of
+   * three parameters for a thousand values. A shift of three standard
+   * deviations lasting three values, or of 1.5 lasting ten, is found.
+   */
+  static final double DEFAULT_PENALTY = 3 * Math.log(1000);
+
+  static final int MIN_SEGMENT = 3;
+
+  static final double VARIANCE_DRIFT = 1.5;
+
+  /**
+   * Smallest noise variance, for series of nearly constant integers.
+   */
+  private static final double MIN_VARIANCE = 1;
+
+  private final double penalty;
+
+  private int size;
+
+  /**
+   * Prefix sums of the values and of their squares, {@code sums[t]} being
+   * the sum of the first t values.
+   */
+  private double[] sums = new double[16];
+
+  private double[] squares = new double[16];
+
+  /**
+   * Optimal cost of the first t values, infinite below
+   * {@link #MIN_SEGMENT}.
+   */
+  private double[] costs = new double[16];
+
+  /**
+   * Start of the last segment of the optimal segmentation of the first t
+   * values.
+   */
+  private int[] lastChange = new int[16];
+
+  /**
+   * Segment starts not pruned yet.
+   */
+  private int[] candidates = new int[16];
+
+  private int candidateCount;
+
+  private double last;
+
+  private double squaredSteps;
+
+  /**
+   * Noise variance the costs were computed with.
+   */
+  private double variance;
+
+  public ChangePointDetector() {
+    this(DEFAULT_PENALTY);
+  }
+
+  public ChangePointDetector(double penalty) {
+    this.penalty = penalty;
+  }
+
+  /**
+   * Appends a value to the series.
+   */
+  public void add(double value) {
+    if (size > 0) {
+      squaredSteps += (value - last) * (value - last);
+    }
+    last = value;
+    ensureCapacity(size + 2);
+    sums[size + 1] = sums[size] + value;
+    squares[size + 1] = squares[size] + value * value;
+    size++;
+
+    double estimate = size < 2 ? MIN_VARIANCE
+        : Math.max(MIN_VARIANCE, squaredSteps / (2 * (size - 1)));
+    if (variance == 0 || estimate > variance * VARIANCE_DRIFT
+        || estimate * VARIANCE_DRIFT < variance) {
+      variance = estimate;
+      costs[0] = -penalty;
+      candidates[0] = 0;
+      candidateCount = 1;
+      for (int t = 1; t <= size; t++) {
+        step(t);
+      }
+    } else {
+      step(size);
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Indexes of the values starting a new segment, in ascending order.
+   */
+  public int[] getChangePoints() {
+    if (size < MIN_SEGMENT) {
+      return new int[0];
+    }
+    int count = 0;
+    for (int t = lastChange[size]; t > 0; t = lastChange[t]) {
+      count++;
+    }
+    int[] changes = new int[count];
+    for (int t = lastChange[size]; t > 0; t = lastChange[t]) {
+      changes[--count] = t;
+    }
+    return changes;
+  }
+
+  /**
+   * Mean of the values from {@code from} included to {@code to} excluded.
+   */
+  public double getMean(int from, int to) {
+    return (sums[to] - sums[from]) / (to - from);
+  }
+
+  /**
+   * Computes the optimal cost of the first t values from the candidate
+   * starts of their last segment, then prunes the starts that can no longer
+   * be optimal.
+   */
+  private void step(int t) {
+    double best = Double.POSITIVE_INFINITY;
+    int bestStart = 0;
+    for (int i = 0; i < candidateCount; i++) {
+      int s = candidates[i];
+      if (t - s >= MIN_SEGMENT) {
+        double cost = costs[s] + cost(s, t) + penalty;
+        if (cost < best) {
+          best = cost;
+          bestStart = s;
+        }
+      }
+    }
+    costs[t] = best;
+    lastChange[t] = bestStart;
+
+    int kept = 0;
+    for (int i = 0; i < candidateCount; i++) {
+      int s = candidates[i];
+      if (t - s < MIN_SEGMENT || costs[s] + cost(s, t) <= best) {
+        candidates[kept++] = s;
+      }
+    }
+    candidateCount = kept;
+    if (best != Double.POSITIVE_INFINITY) {
+      candidates[candidateCount++] = t;
+    }
+  }
+
+  /**
+   * Squared deviations of the values of a segment from their mean, in units
+   * of the noise variance.
+   */
+  private double cost(int from, int to) {
+    double sum = sums[to] - sums[from];
+    double deviations = squares[to] - squares[from] - sum * sum / (to - from);
+    return Math.max(0, deviations) / variance;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity <= sums.length) {
+      return;
+    }
+    int newCapacity = Math.max(capacity, sums.length * 2);
+    sums = Arrays.copyOf(sums, newCapacity);
+    squares = Arrays.copyOf(squares, newCapacity);
+    costs = Arrays.copyOf(costs, newCapacity);
+    lastChange = Arrays.copyOf(lastChange, newCapacity);
+    candidates = Arrays.copyOf(candidates, newCapacity);
+  }
+}
@@ -0,0 +1,176 @@
+package hudson.plugins.performance;
+
+import java.nio.charset.Charset;
+
+/**
+ * Single pass splitter of CSV records held in a byte buffer.
+ *
+ * Fields are separated by a configurable delimiter and may be enclosed in
+ * double quotes, in which case they can hold delimiters and line breaks and a
+ * doubled quote stands for one quote. Quoted fields are unescaped in place,
+ * so a field is just a start and end offset into the record buffer and no
+ * String is built unless asked for.
+ *
+ * Instances are reused from one record to the next and are not thread safe.
+ */
+class CsvTokenizer {
+
+  private final byte[] delimiter;
+
+  private final int maxFields;
+
+  private final int[] starts;
+
+  private final int[] ends;
+
+  private byte[] record;
+
+  private int fieldCount;
+
+  /**
+   * @param delimiter
+   *            encoded field delimiter, at least one byte
+   * @param maxFields
+   *            number of leading fields to split, the rest of a record is
+   *            ignored
+   */
+  CsvTokenizer(byte[] delimiter, int maxFields) {
+    if (delimiter.length == 0) {
+      throw new IllegalArgumentException("Empty delimiter");
+    }
+    this.delimiter = delimiter;
+    this.maxFields = maxFields;
+    this.starts = new int[maxFields];
+    this.ends = new int[maxFields];
+  }
+
+  /**
+   * Splits the bytes of a record, which are modified if it has quoted
+   * fields.
+   *
+   * @return the number of fields found, at most {@code maxFields}
+   */
+  int tokenize(byte[] record, int start, int end) {
+    this.record = record;
+    fieldCount = 0;
+    int read = start;
+    while (fieldCount < maxFields) {
+      int write = read;
+      starts[fieldCount] = write;
+      boolean quoted = false;
+      while (read < end) {
+        byte b = record[read];
+        if (b == '"') {
+          if (quoted && read + 1 < end && record[read + 1] == '"') {
+            record[write++] = '"';
+            read += 2;
+          } else {
+            quoted = !quoted;
+            read++;
+          }
+        } else if (!quoted && isDelimiterAt(read, end)) {
+          break;
+        } else {
+          record[write++] = b;
+          read++;
+        }
+      }
+      ends[fieldCount++] = write;
+      if (read >= end) {
+        break;
+      }
+      read += delimiter.length;
+    }
+    return fieldCount;
+  }
+
+  int getFieldCount() {
+    return fieldCount;
+  }
+
+  int getStart(int field) {
+    return starts[checkField(field)];
+  }
+
+  int getEnd(int field) {
+    return ends[checkField(field)];
+  }
+
+  /**
+   * Same as {@link Long#parseLong(String)} on the field, without decoding it
+   * when it only holds digits.
+   */
+  long getLong(int field, Charset charset) {
+    int start = getStart(field);
+    int end = ends[field];
+    int i = start;
+    boolean negative = false;
+    if (i < end && (record[i] == '-' || record[i] == '+')) {
+      negative = record[i] == '-';
+      i++;
+    }
+    if (i == end || end - i > 18) {
+      return Long.parseLong(getString(field, charset));
+    }
+    long value = 0;
+    for (; i < end; i++) {
+      int digit = record[i] - '0';
+      if (digit < 0 || digit > 9) {
+        return Long.parseLong(getString(field, charset));
+      }
+      value = value * 10 + digit;
+    }
+    return negative ? -value : value;
+  }
+
+  /**
+   * Same as {@link Boolean#valueOf(String)} on the field: true only for a
+   * case insensitive "true".
+   */
+  boolean isTrue(int field) {
+    int start = getStart(field);
+    return ends[field] - start == 4
+        && (record[start] | 0x20) == 't' && (record[start + 1] | 0x20) == 'r'
+        && (record[start + 2] | 0x20) == 'u' && (record[start + 3] | 0x20) == 'e';
+  }
+
+  String getString(int field, Charset charset) {
+    int start = getStart(field);
+    return new String(record, start, ends[field] - start, charset);
+  }
+
+  /**
+   * The field as a String, decoded only the first time its bytes are seen by
+   * the given table.
+   */
+  String intern(int field, JtlReader.InternTable table, Charset charset) {
+    int start = getStart(field);
+    int end = ends[field];
+    String value = table.get(record, start, end);
+    if (value == null) {
+      value = new String(record, start, end - start, charset);
+      table.put(record, start, end, value);
+    }
+    return value;
+  }
+
+  private boolean isDelimiterAt(int index, int end) {
+    if (record[index] != delimiter[0] || end - index < delimiter.length) {
+      return false;
+    }
+    for (int i = 1; i < delimiter.length; i++) {
+      if (record[index + i] != delimiter[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int checkField(int field) {
+    if (field < 0 || field >= fieldCount) {
+      throw new IndexOutOfBoundsException("Field " + field + " of a record with "
+          + fieldCount + " fields");
+    }
+    return field;
+  }
+}
@@ -0,0 +1,211 @@
+package hudson.plugins.performance;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.jfree.chart.ChartUtilities;
+import org.jfree.chart.JFreeChart;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+/**
+ * Cache of the rendered graphs, in memory and in the project directory, so
+ * that dashboards polling the graph URLs do not render the same chart over
+ * and over.
+ *
+ * <p>
+ * An image is keyed by the project, the graph, its parameters (report,
+ * range of builds...) and size, the last completed build and the last
+ * change of the {@link TrendIndex}. It is sent with an ETag derived from
+ * the key, so that a browser already holding it gets a 304 response, and
+ * must be revalidated on every request as the key depends on cookies. The
+ * files of a project are deleted when a build records new performance
+ * data, see {@link #invalidate(AbstractProject)}.
+ */
+public final class GraphCache {
+
+  static final String DIRECTORY = "performance-graphs";
+
+  private static final long MAX_MEMORY = 16L * 1024 * 1024;
+
+  /**
+   * Images written to the directory of a project between two builds, after
+   * which new ones are only kept in memory.
+   */
+  private static final int MAX_FILES = 500;
+
+  private static final Logger LOGGER = Logger.getLogger(GraphCache.class.getName());
+
+  private static final Cache<String, byte[]> images = CacheBuilder.newBuilder()
+      .maximumWeight(MAX_MEMORY).weigher(new Weigher<String, byte[]>() {
+        public int weigh(String key, byte[] image) {
+          return image.length;
+        }
+      }).build();
+
+  /**
+   * Builds the chart of a graph, only called when the image is not cached.
+   */
+  public interface Renderer {
+    JFreeChart createChart() throws IOException;
+  }
+
+  private GraphCache() {
+  }
+
+  /**
+   * Sends the image of a graph, as {@link hudson.util.ChartUtil#generateGraph}
+   * would, from the cache when possible.
+   *
+   * @param graph
+   *            identifies the graph and all the parameters it is drawn from,
+   *            other than the size
+   */
+  public static void generateGraph(StaplerRequest request, StaplerResponse response,
+      AbstractProject<?, ?> project, String graph, Renderer renderer,
+      int defaultWidth, int defaultHeight) throws IOException {
+    int width = getSize(request, "width", defaultWidth);
+    int height = getSize(request, "height", defaultHeight);
+    long lastModified = TrendIndex.forProject(project).lastModified();
+    AbstractBuild<?, ?> lastBuild = project.getLastCompletedBuild();
+    String key = project.getFullName() + '|' + graph + '|' + width + 'x' + height
+        + '|' + (lastBuild == null ? 0 : lastBuild.getNumber()) + '|' + lastModified;
+    String digest = digest(key);
+    String etag = '"' + digest + '"';
+
+    // no Last-Modified: the graph settings come from a cookie, so only the
+    // whole key tells whether the image changed
+    response.setHeader("ETag", etag);
+    response.setHeader("Cache-Control", "no-cache");
+    String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch != null && ifNoneMatch.contains(etag)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    byte[] image = images.getIfPresent(key);
+    if (image == null) {
+      File dir = new File(project.getRootDir(), DIRECTORY);
+      File file = new File(dir, digest + ".png");
+      image = read(file);
+      if (image == null) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ChartUtilities.writeChartAsPNG(bytes, renderer.createChart(), width, height);
+        image = bytes.toByteArray();
+        write(dir, file, image);
+      }
+      images.put(key, image);
+    }
+
+    response.setContentType("image/png");
+    response.setContentLength(image.length);
+    OutputStream out = response.getOutputStream();
+    out.write(image);
+    out.close();
+  }
+
+  /**
+   * Drops the images of a project, whose performance data changed.
+   */
+  public static void invalidate(AbstractProject<?, ?> project) {
+    String prefix = project.getFullName() + '|';
+    for (String key : images.asMap().keySet()) {
+      if (key.startsWith(prefix)) {
+        images.invalidate(key);
+      }
+    }
+    File[] files = new File(project.getRootDir(), DIRECTORY).listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+  }
+
+  private static int getSize(StaplerRequest request, String name, int defaultSize) {
+    String value = request.getParameter(name);
+    if (value == null) {
+      return defaultSize;
+    }
+    try {
+      int size = Integer.parseInt(value);
+      return size > 0 && size <= 4096 ? size : defaultSize;
+    } catch (NumberFormatException e) {
+      return defaultSize;
+    }
+  }
+
+  private static byte[] read(File file) {
+    if (!file.exists()) {
+      return null;
+    }
+    try {
+      InputStream in = new FileInputStream(file);
+      try {
+        return IOUtils.toByteArray(in);
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      LOGGER.warning("Reading " + file + " failed. " + e);
+      return null;
+    }
+  }
+
+  private static void write(File dir, File file, byte[] image) {
+    dir.mkdirs();
+    String[] existing = dir.list();
+    if (existing == null || existing.length >= MAX_FILES) {
+      return;
+    }
+    try {
+      File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+      OutputStream out = new FileOutputStream(tmp);
+      try {
+        out.write(image);
+      } finally {
+        out.close();
+      }
+      if (!tmp.renameTo(file)) {
+        tmp.delete();
+      }
+    } catch (IOException e) {
+      LOGGER.warning("Writing " + file + " failed. " + e);
+    }
+  }
+
+  static String digest(String key) {
+    try {
+      byte[] hash = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+      StringBuilder hex = new StringBuilder(hash.length * 2);
+      for (byte b : hash) {
+        hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+        hex.append(Character.forDigit(b & 0xf, 16));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
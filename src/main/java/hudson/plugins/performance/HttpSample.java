@@ -134,4 +134,37 @@ public class HttpSample implements Serializable, Comparable<HttpSample> {
 	public boolean isErrorObtained() {
 		return errorObtained;
 	}
+
+	/**
+	 * Samples are compared by value, since {@link UriReport} hands out a new
+	 * instance every time a stored sample is read.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof HttpSample)) {
+			return false;
+		}
+		HttpSample other = (HttpSample) obj;
+		return duration == other.duration && successful == other.successful
+				&& errorObtained == other.errorObtained
+				&& Double.compare(sizeInKb, other.sizeInKb) == 0
+				&& summarizerMin == other.summarizerMin
+				&& summarizerMax == other.summarizerMax
+				&& Float.compare(summarizerErrors, other.summarizerErrors) == 0
+				&& summarizerSamples == other.summarizerSamples
+				&& (date == null ? other.date == null : date.equals(other.date))
+				&& (uri == null ? other.uri == null : uri.equals(other.uri))
+				&& (httpCode == null ? other.httpCode == null : httpCode.equals(other.httpCode));
+	}
+
+	@Override
+	public int hashCode() {
+		int result = (int) (duration ^ (duration >>> 32));
+		result = 31 * result + (date == null ? 0 : date.hashCode());
+		result = 31 * result + (uri == null ? 0 : uri.hashCode());
+		return result;
+	}
 }
@@ -0,0 +1,528 @@
+package hudson.plugins.performance;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Growable, column oriented storage for the samples of a {@link UriReport}.
+ *
+ * Each sample is spread over primitive arrays (timestamp, duration, packed
+ * success/error bits and an interned response code id) instead of being kept
+ * as an {@link HttpSample} object. {@link HttpSample}s are only built on
+ * demand, as read-only views, through {@link #get(int, String)} and
+ * {@link #asList(String)}.
+ *
+ * This object belongs under {@link UriReport}.
+ */
+public class HttpSampleStore implements Serializable {
+
+  private static final long serialVersionUID = 3172591847760253721L;
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  /**
+   * Timestamp stored for samples without a date.
+   */
+  private static final long NO_DATE = Long.MIN_VALUE;
+
+  private int size;
+
+  private long[] timestamps = new long[INITIAL_CAPACITY];
+
+  private int[] durations = new int[INITIAL_CAPACITY];
+
+  /**
+   * One bit per sample, set when the sample was successful.
+   */
+  private long[] successBits = new long[bitWords(INITIAL_CAPACITY)];
+
+  /**
+   * One bit per sample, set when an error was obtained for the sample.
+   */
+  private long[] errorBits = new long[bitWords(INITIAL_CAPACITY)];
+
+  /**
+   * Index of each sample's response code in {@link #codeTable}. Switches to
+   * {@link #wideCodeIds} in the unlikely case of more than 65535 distinct codes.
+   */
+  private char[] codeIds = new char[INITIAL_CAPACITY];
+
+  private int[] wideCodeIds;
+
+  /**
+   * Distinct response codes, in the order they were first seen.
+   */
+  private final List<String> codeTable = new ArrayList<String>(2);
+
+  private transient Map<String, Integer> codeIndex = new HashMap<String, Integer>();
+
+  /**
+   * Response sizes in bytes, only allocated once a sample has a size.
+   */
+  private int[] sizes;
+
+  // Summarizer columns, only allocated by the JMeter summarizer parser
+  private long[] summarizerSamples;
+
+  private long[] summarizerMins;
+
+  private long[] summarizerMaxs;
+
+  private float[] summarizerErrors;
+
+  /**
+   * Appends the values of the given sample. The sample itself is not retained.
+   */
+  public void add(HttpSample sample) {
+    Date date = sample.getDate();
+    int index = add(date == null ? NO_DATE : date.getTime(),
+        sample.getDuration(), sample.isSuccessful(), sample.hasError(),
+        sample.getHttpCode(), sample.getSizeInKb());
+
+    if (sample.getSummarizerSamples() != 0 || sample.getSummarizerMin() != 0
+        || sample.getSummarizerMax() != 0 || sample.getSummarizerErrors() != 0) {
+      if (summarizerSamples == null) {
+        int capacity = timestamps.length;
+        summarizerSamples = new long[capacity];
+        summarizerMins = new long[capacity];
+        summarizerMaxs = new long[capacity];
+        summarizerErrors = new float[capacity];
+      }
+      summarizerSamples[index] = sample.getSummarizerSamples();
+      summarizerMins[index] = sample.getSummarizerMin();
+      summarizerMaxs[index] = sample.getSummarizerMax();
+      summarizerErrors[index] = sample.getSummarizerErrors();
+    }
+  }
+
+  /**
+   * Appends a sample given as primitive values.
+   *
+   * @return the index of the new sample
+   */
+  public int add(long timestamp, long duration, boolean successful,
+      boolean errorObtained, String httpCode, double sizeInKb) {
+    ensureCapacity(size + 1);
+    int index = size++;
+    timestamps[index] = timestamp;
+    durations[index] = (int) Math.max(Integer.MIN_VALUE,
+        Math.min(Integer.MAX_VALUE, duration));
+    if (successful) {
+      successBits[index >>> 6] |= 1L << index;
+    }
+    if (errorObtained) {
+      errorBits[index >>> 6] |= 1L << index;
+    }
+    setCodeId(index, internCode(httpCode == null ? "" : httpCode));
+    if (sizeInKb != 0) {
+      if (sizes == null) {
+        sizes = new int[timestamps.length];
+      }
+      sizes[index] = (int) Math.round(sizeInKb * 1024d);
+    }
+    return index;
+  }
+
+  /**
+   * Appends all the samples of another store, in their order.
+   */
+  public void addAll(HttpSampleStore other) {
+    ensureCapacity(size + other.size);
+    for (int i = 0; i < other.size; i++) {
+      int index = add(other.timestamps[i], other.durations[i],
+          other.isSuccessful(i), other.hasError(i), other.getHttpCode(i),
+          other.getSizeInKb(i));
+      if (other.summarizerSamples != null) {
+        if (summarizerSamples == null) {
+          int capacity = timestamps.length;
+          summarizerSamples = new long[capacity];
+          summarizerMins = new long[capacity];
+          summarizerMaxs = new long[capacity];
+          summarizerErrors = new float[capacity];
+        }
+        summarizerSamples[index] = other.summarizerSamples[i];
+        summarizerMins[index] = other.summarizerMins[i];
+        summarizerMaxs[index] = other.summarizerMaxs[i];
+        summarizerErrors[index] = other.summarizerErrors[i];
+      }
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Removes all the samples. The response codes seen so far are kept.
+   */
+  public void clear() {
+    size = 0;
+    sizes = null;
+    summarizerSamples = null;
+    summarizerMins = null;
+    summarizerMaxs = null;
+    summarizerErrors = null;
+    resize(0);
+  }
+
+  /**
+   * Removes all the samples but one, which becomes the first and only
+   * sample. The response codes seen so far are kept.
+   */
+  public void retain(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+    boolean successful = isSuccessful(index);
+    boolean errorObtained = hasError(index);
+    timestamps[0] = timestamps[index];
+    durations[0] = durations[index];
+    setCodeId(0, getCodeId(index));
+    if (sizes != null) {
+      sizes[0] = sizes[index];
+    }
+    if (summarizerSamples != null) {
+      summarizerSamples[0] = summarizerSamples[index];
+      summarizerMins[0] = summarizerMins[index];
+      summarizerMaxs[0] = summarizerMaxs[index];
+      summarizerErrors[0] = summarizerErrors[index];
+    }
+    size = 1;
+    resize(1);
+    successBits[0] = successful ? 1L : 0L;
+    errorBits[0] = errorObtained ? 1L : 0L;
+  }
+
+  /**
+   * Adds response codes to {@link #getHttpCodes()} without adding samples,
+   * for a store restored without its samples.
+   */
+  void addHttpCodes(List<String> httpCodes) {
+    for (String httpCode : httpCodes) {
+      internCode(httpCode);
+    }
+  }
+
+  /**
+   * Whether some samples carry summarizer values.
+   */
+  public boolean hasSummarizerValues() {
+    return summarizerSamples != null;
+  }
+
+  public long getDuration(int index) {
+    return durations[index];
+  }
+
+  /**
+   * @return the sample timestamp, or {@link Long#MIN_VALUE} if it has no date
+   */
+  public long getTimestamp(int index) {
+    return timestamps[index];
+  }
+
+  public boolean isSuccessful(int index) {
+    return (successBits[index >>> 6] & (1L << index)) != 0;
+  }
+
+  public boolean hasError(int index) {
+    return (errorBits[index >>> 6] & (1L << index)) != 0;
+  }
+
+  public String getHttpCode(int index) {
+    return codeTable.get(getCodeId(index));
+  }
+
+  public double getSizeInKb(int index) {
+    return sizes == null ? 0d : sizes[index] / 1024d;
+  }
+
+  public long getSummarizerSamples(int index) {
+    return summarizerSamples == null ? 0 : summarizerSamples[index];
+  }
+
+  public long getSummarizerMin(int index) {
+    return summarizerMins == null ? 0 : summarizerMins[index];
+  }
+
+  public long getSummarizerMax(int index) {
+    return summarizerMaxs == null ? 0 : summarizerMaxs[index];
+  }
+
+  public float getSummarizerErrors(int index) {
+    return summarizerErrors == null ? 0 : summarizerErrors[index];
+  }
+
+  /**
+   * Distinct response codes of the stored samples, in the order they were
+   * first seen.
+   */
+  public List<String> getHttpCodes() {
+    return codeTable;
+  }
+
+  /**
+   * Number of samples that were not successful.
+   */
+  public int countFailures() {
+    int successes = 0;
+    for (int i = 0; i < bitWords(size); i++) {
+      successes += Long.bitCount(successBits[i]);
+    }
+    return size - successes;
+  }
+
+  /**
+   * Index of the slowest sample, the last one added in case of ties, or -1
+   * when the store is empty.
+   */
+  public int indexOfSlowest() {
+    int slowest = -1;
+    for (int i = 0; i < size; i++) {
+      if (slowest < 0 || durations[i] >= durations[slowest]) {
+        slowest = i;
+      }
+    }
+    return slowest;
+  }
+
+  /**
+   * Builds a detached {@link HttpSample} holding the values of one sample.
+   *
+   * @param uri
+   *            the URI of the sample, which is shared by the whole store
+   */
+  public HttpSample get(int index, String uri) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+    HttpSample sample = new HttpSample();
+    long timestamp = timestamps[index];
+    sample.setDate(timestamp == NO_DATE ? null : new Date(timestamp));
+    sample.setDuration(durations[index]);
+    sample.setSuccessful(isSuccessful(index));
+    sample.setErrorObtained(hasError(index));
+    sample.setUri(uri);
+    sample.setHttpCode(getHttpCode(index));
+    sample.setSizeInKb(getSizeInKb(index));
+    if (summarizerSamples != null) {
+      sample.setSummarizerSamples(summarizerSamples[index]);
+      sample.setSummarizerMin(summarizerMins[index]);
+      sample.setSummarizerMax(summarizerMaxs[index]);
+      sample.setSummarizerErrors(summarizerErrors[index]);
+    }
+    return sample;
+  }
+
+  /**
+   * A read-only list view over the stored samples. Elements are created on
+   * each access and are not backed by the store.
+   */
+  public List<HttpSample> asList(final String uri) {
+    return new AbstractList<HttpSample>() {
+      @Override
+      public HttpSample get(int index) {
+        return HttpSampleStore.this.get(index, uri);
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  /**
+   * Releases the unused capacity of the columns.
+   */
+  public void trimToSize() {
+    if (timestamps.length == size) {
+      return;
+    }
+    resize(size);
+  }
+
+  private void ensureCapacity(int minCapacity) {
+    if (minCapacity > timestamps.length) {
+      int capacity = Math.max(minCapacity, timestamps.length + (timestamps.length >> 1));
+      resize(Math.max(capacity, INITIAL_CAPACITY));
+    }
+  }
+
+  private void resize(int capacity) {
+    timestamps = Arrays.copyOf(timestamps, capacity);
+    durations = Arrays.copyOf(durations, capacity);
+    successBits = Arrays.copyOf(successBits, bitWords(capacity));
+    errorBits = Arrays.copyOf(errorBits, bitWords(capacity));
+    if (wideCodeIds != null) {
+      wideCodeIds = Arrays.copyOf(wideCodeIds, capacity);
+    } else {
+      codeIds = Arrays.copyOf(codeIds, capacity);
+    }
+    if (sizes != null) {
+      sizes = Arrays.copyOf(sizes, capacity);
+    }
+    if (summarizerSamples != null) {
+      summarizerSamples = Arrays.copyOf(summarizerSamples, capacity);
+      summarizerMins = Arrays.copyOf(summarizerMins, capacity);
+      summarizerMaxs = Arrays.copyOf(summarizerMaxs, capacity);
+      summarizerErrors = Arrays.copyOf(summarizerErrors, capacity);
+    }
+  }
+
+  private int internCode(String httpCode) {
+    Integer id = codeIndex.get(httpCode);
+    if (id == null) {
+      id = codeTable.size();
+      codeTable.add(httpCode);
+      codeIndex.put(httpCode, id);
+    }
+    return id;
+  }
+
+  private int getCodeId(int index) {
+    return wideCodeIds != null ? wideCodeIds[index] : codeIds[index];
+  }
+
+  private void setCodeId(int index, int id) {
+    if (wideCodeIds == null && id > Character.MAX_VALUE) {
+      wideCodeIds = new int[codeIds.length];
+      for (int i = 0; i < codeIds.length; i++) {
+        wideCodeIds[i] = codeIds[i];
+      }
+      codeIds = null;
+    }
+    if (wideCodeIds != null) {
+      wideCodeIds[index] = id;
+    } else {
+      codeIds[index] = (char) id;
+    }
+  }
+
+  private static int bitWords(int capacity) {
+    return (capacity + 63) >>> 6;
+  }
+
+  /**
+   * Writes the columns, for {@link ReportCache}. Timestamps are written as
+   * differences to the previous one, which compress better. The response
+   * codes of {@link #getHttpCodes()} are written separately.
+   */
+  void writeColumns(DataOutput out) throws IOException {
+    out.writeInt(size);
+    long previous = 0;
+    for (int i = 0; i < size; i++) {
+      out.writeLong(timestamps[i] - previous);
+      previous = timestamps[i];
+    }
+    for (int i = 0; i < size; i++) {
+      out.writeInt(durations[i]);
+    }
+    for (int i = 0; i < bitWords(size); i++) {
+      out.writeLong(successBits[i]);
+      out.writeLong(errorBits[i]);
+    }
+    out.writeBoolean(wideCodeIds != null);
+    for (int i = 0; i < size; i++) {
+      if (wideCodeIds != null) {
+        out.writeInt(wideCodeIds[i]);
+      } else {
+        out.writeChar(codeIds[i]);
+      }
+    }
+    out.writeBoolean(sizes != null);
+    if (sizes != null) {
+      for (int i = 0; i < size; i++) {
+        out.writeInt(sizes[i]);
+      }
+    }
+    out.writeBoolean(summarizerSamples != null);
+    if (summarizerSamples != null) {
+      for (int i = 0; i < size; i++) {
+        out.writeLong(summarizerSamples[i]);
+        out.writeLong(summarizerMins[i]);
+        out.writeLong(summarizerMaxs[i]);
+        out.writeFloat(summarizerErrors[i]);
+      }
+    }
+  }
+
+  /**
+   * Reads columns written by {@link #writeColumns(DataOutput)}.
+   *
+   * @param httpCodes
+   *            the response codes of the store that was written
+   */
+  static HttpSampleStore readColumns(DataInput in, List<String> httpCodes)
+      throws IOException {
+    HttpSampleStore store = new HttpSampleStore();
+    store.addHttpCodes(httpCodes);
+    int size = in.readInt();
+    store.resize(size);
+    store.size = size;
+    long previous = 0;
+    for (int i = 0; i < size; i++) {
+      previous += in.readLong();
+      store.timestamps[i] = previous;
+    }
+    for (int i = 0; i < size; i++) {
+      store.durations[i] = in.readInt();
+    }
+    for (int i = 0; i < bitWords(size); i++) {
+      store.successBits[i] = in.readLong();
+      store.errorBits[i] = in.readLong();
+    }
+    boolean wide = in.readBoolean();
+    for (int i = 0; i < size; i++) {
+      int id = wide ? in.readInt() : in.readChar();
+      if (id < 0 || id >= httpCodes.size()) {
+        throw new IOException("Invalid response code id " + id);
+      }
+      store.setCodeId(i, id);
+    }
+    if (in.readBoolean()) {
+      store.sizes = new int[size];
+      for (int i = 0; i < size; i++) {
+        store.sizes[i] = in.readInt();
+      }
+    }
+    if (in.readBoolean()) {
+      store.summarizerSamples = new long[size];
+      store.summarizerMins = new long[size];
+      store.summarizerMaxs = new long[size];
+      store.summarizerErrors = new float[size];
+      for (int i = 0; i < size; i++) {
+        store.summarizerSamples[i] = in.readLong();
+        store.summarizerMins[i] = in.readLong();
+        store.summarizerMaxs[i] = in.readLong();
+        store.summarizerErrors[i] = in.readFloat();
+      }
+    }
+    return store;
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    trimToSize();
+    out.defaultWriteObject();
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException,
+      ClassNotFoundException {
+    in.defaultReadObject();
+    codeIndex = new HashMap<String, Integer>();
+    for (int i = 0; i < codeTable.size(); i++) {
+      codeIndex.put(codeTable.get(i), i);
+    }
+  }
+}
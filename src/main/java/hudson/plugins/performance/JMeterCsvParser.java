@@ -5,17 +5,19 @@ import hudson.model.TaskListener;
 import hudson.model.AbstractBuild;
 import hudson.util.FormValidation;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
@@ -23,6 +25,20 @@ import org.xml.sax.SAXException;
 
 public class JMeterCsvParser extends PerformanceReportParser {
 
+    /**
+     * Files from this size on are split into chunks parsed in parallel.
+     */
+    static final long CHUNKED_PARSING_THRESHOLD = 64L * 1024 * 1024;
+
+    static final long MIN_CHUNK_SIZE = 16L * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Encoding of the result files, the platform one as with a FileReader.
+     */
+    private static final Charset CHARSET = Charset.defaultCharset();
+
     public final boolean skipFirstLine;
     public final String delimiter;
     public int timestampIdx = -1;
@@ -106,62 +122,243 @@ public class JMeterCsvParser extends PerformanceReportParser {
     public String getDefaultGlobPattern() {
         return "**/*.csv";
     }
+
+    @Override
+    protected String getConfigurationFingerprint() {
+        return pattern + '|' + delimiter + '|' + skipFirstLine;
+    }
     
     //This may be unneccesary. I tried many things getting the pattern to show up correctly in the UI and this was one of them.
     public String getDefaultPattern() {
         return "timestamp,elapsed,responseCode,threadName,success,failureMessage,grpThreads,allThreads,URL,Latency,SampleCount,ErrorCount";
     }
 
+    @Override
+    protected PerformanceReport parseReport(AbstractBuild<?, ?> build, File f,
+            TaskListener listener) throws IOException {
+        PrintStream logger = listener.getLogger();
+        PerformanceReport r = new PerformanceReport();
+        r.setReportFileName(f.getName());
+        logger.println("Performance: Parsing JMeter report file " + f.getName());
+        if(skipFirstLine) {
+            logger.println("Performance: Skipping first line");
+        }
+        parseRange(f, 0, f.length(), skipFirstLine, r);
+        return r;
+    }
+
+    /**
+     * Parses large files in chunks on several threads, see
+     * {@link #parseChunked(File, TaskListener, int)}, and smaller ones as
+     * usual.
+     */
     @Override
     public Collection<PerformanceReport> parse(AbstractBuild<?, ?> build,
-            Collection<File> reports, TaskListener listener) throws IOException {
+            Collection<File> reports, TaskListener listener, int threads,
+            long memoryBudget) throws IOException {
+        if(threads <= 1) {
+            return parse(build, reports, listener);
+        }
         List<PerformanceReport> result = new ArrayList<PerformanceReport>();
+        List<File> smallFiles = new ArrayList<File>();
+        for (File f : reports) {
+            if(f.length() < CHUNKED_PARSING_THRESHOLD) {
+                smallFiles.add(f);
+                continue;
+            }
+            result.addAll(super.parse(build, smallFiles, listener, threads, memoryBudget));
+            smallFiles.clear();
+            PerformanceReport r = getCachedReport(f);
+            if(r == null) {
+                r = parseChunked(f, listener, threads);
+                cacheReport(f, r);
+            }
+            result.add(r);
+        }
+        result.addAll(super.parse(build, smallFiles, listener, threads, memoryBudget));
+        return result;
+    }
 
+    /**
+     * Splits a file into byte ranges that end on record boundaries, parses
+     * each range into its own partial report on a pool of {@code threads}
+     * threads, then merges the partial reports in file order.
+     */
+    PerformanceReport parseChunked(final File f, TaskListener listener,
+            int threads) throws IOException {
         PrintStream logger = listener.getLogger();
-        for (File f : reports) {
-            final PerformanceReport r = new PerformanceReport();
-            r.setReportFileName(f.getName());
-            logger.println("Performance: Parsing JMeter report file " + f.getName());
-            BufferedReader reader = new BufferedReader(new FileReader(f));
-            try {
-                String line = reader.readLine();
-                if(line != null && skipFirstLine) {
-                    logger.println("Performance: Skipping first line");
-                    line = reader.readLine();
+        int chunks = (int) Math.max(1, Math.min(threads, f.length() / MIN_CHUNK_SIZE));
+        final long[] boundaries = findChunkBoundaries(f, chunks);
+        logger.println("Performance: Parsing JMeter report file " + f.getName()
+                + " in " + (boundaries.length - 1) + " chunks");
+        if(skipFirstLine) {
+            logger.println("Performance: Skipping first line");
+        }
+
+        List<Callable<PerformanceReport>> tasks = new ArrayList<Callable<PerformanceReport>>();
+        for (int i = 0; i + 1 < boundaries.length; i++) {
+            final int chunk = i;
+            tasks.add(new Callable<PerformanceReport>() {
+                public PerformanceReport call() throws IOException {
+                    PerformanceReport partial = new PerformanceReport();
+                    parseRange(f, boundaries[chunk], boundaries[chunk + 1],
+                            chunk == 0 && skipFirstLine, partial);
+                    return partial;
                 }
-                while(line != null) {
-                    HttpSample sample = getSample(line);
-                    if(sample != null) {
-                        try {
-                            r.addSample(sample);
-                        } catch (SAXException e) {
-                            throw new RuntimeException("Unnable to add sample for line " + line, e);
+            });
+        }
+
+        PerformanceReport r = new PerformanceReport();
+        r.setReportFileName(f.getName());
+        for (PerformanceReport partial : invokeAll(tasks, threads)) {
+            r.merge(partial);
+        }
+        return r;
+    }
+
+    /**
+     * Offsets splitting the file into about {@code chunks} ranges of the same
+     * size, each one starting at the beginning of a record. A line break
+     * inside a quoted field is not a record boundary, so the quotes are
+     * counted from the start of the file.
+     *
+     * @return the start of each range followed by the file length
+     */
+    static long[] findChunkBoundaries(File f, int chunks) throws IOException {
+        long length = f.length();
+        List<Long> boundaries = new ArrayList<Long>();
+        boundaries.add(0L);
+        InputStream in = new FileInputStream(f);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            boolean quoted = false;
+            long offset = 0;
+            long target = length / chunks;
+            int read;
+            while(boundaries.size() < chunks && (read = in.read(buffer)) > 0) {
+                for (int i = 0; i < read; i++) {
+                    byte b = buffer[i];
+                    if(b == '"') {
+                        quoted = !quoted;
+                    } else if(b == '\n' && !quoted && offset + i + 1 >= target
+                            && offset + i + 1 < length) {
+                        boundaries.add(offset + i + 1);
+                        target = length * boundaries.size() / chunks;
+                        if(boundaries.size() == chunks) {
+                            break;
                         }
                     }
-                    line = reader.readLine();
                 }
-            } finally {
-                if(reader != null) reader.close();
+                offset += read;
             }
-            result.add(r);
+        } finally {
+            in.close();
+        }
+        boundaries.add(length);
+
+        long[] result = new long[boundaries.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = boundaries.get(i);
         }
         return result;
     }
 
     /**
-     * @param line file line with the provided pattern
-     * @return
+     * Parses the records between two offsets of the file, the first one being
+     * the start of a record. Records end with a line break outside of quotes.
      */
-    private HttpSample getSample(String line) {
-        HttpSample sample = new HttpSample();
-        final String commasNotInsideQuotes = ",(?=([^\"]*\"[^\"]*\")*[^\"]*$)";
-        String[] values = line.split(commasNotInsideQuotes);
-        sample.setDate(new Date(Long.valueOf(values[timestampIdx])));
-        sample.setDuration(Long.valueOf(values[elapsedIdx]));
-        sample.setHttpCode(values[responseCodeIdx]);
-        sample.setSuccessful(Boolean.valueOf(values[successIdx]));
-        sample.setUri(values[urlIdx]);
-        return sample;
+    void parseRange(File f, long start, long end, boolean skipFirstRecord,
+            PerformanceReport r) throws IOException {
+        CsvTokenizer tokenizer = new CsvTokenizer(getDelimiterBytes(), getMaxFields());
+        JtlReader.InternTable uris = new JtlReader.InternTable();
+        JtlReader.InternTable codes = new JtlReader.InternTable();
+        FileInputStream in = new FileInputStream(f);
+        try {
+            in.getChannel().position(start);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            byte[] record = new byte[256];
+            int recordLength = 0;
+            boolean quoted = false;
+            boolean skip = skipFirstRecord;
+            long remaining = end - start;
+            while(remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if(read < 0) {
+                    break;
+                }
+                remaining -= read;
+                for (int i = 0; i < read; i++) {
+                    byte b = buffer[i];
+                    if(b == '\n' && !quoted) {
+                        if(!skip) {
+                            addRecord(record, recordLength, tokenizer, uris, codes, r);
+                        }
+                        skip = false;
+                        recordLength = 0;
+                        continue;
+                    }
+                    if(b == '"') {
+                        quoted = !quoted;
+                    }
+                    if(recordLength == record.length) {
+                        record = Arrays.copyOf(record, record.length * 2);
+                    }
+                    record[recordLength++] = b;
+                }
+            }
+            if(!skip) {
+                addRecord(record, recordLength, tokenizer, uris, codes, r);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void addRecord(byte[] record, int length, CsvTokenizer tokenizer,
+            JtlReader.InternTable uris, JtlReader.InternTable codes,
+            PerformanceReport r) {
+        if(length > 0 && record[length - 1] == '\r') {
+            length--;
+        }
+        if(length == 0) {
+            return;
+        }
+        if(tokenizer.tokenize(record, 0, length) < getMaxFields()) {
+            throw new IllegalArgumentException("Missing columns in line "
+                    + new String(record, 0, length, CHARSET));
+        }
+        try {
+            r.addSample(tokenizer.intern(urlIdx, uris, CHARSET),
+                    tokenizer.getLong(timestampIdx, CHARSET),
+                    tokenizer.getLong(elapsedIdx, CHARSET),
+                    tokenizer.isTrue(successIdx), false,
+                    tokenizer.intern(responseCodeIdx, codes, CHARSET), 0);
+        } catch (SAXException e) {
+            throw new RuntimeException("Unnable to add sample for line "
+                    + new String(record, 0, length, CHARSET), e);
+        }
+    }
+
+    /**
+     * Number of leading columns to split, up to the last one read.
+     */
+    private int getMaxFields() {
+        return Math.max(Math.max(timestampIdx, elapsedIdx),
+                Math.max(Math.max(responseCodeIdx, successIdx), urlIdx)) + 1;
+    }
+
+    /**
+     * The configured delimiter, where "\\t" stands for a tab. Defaults to a
+     * comma.
+     */
+    private byte[] getDelimiterBytes() {
+        if(delimiter == null || delimiter.length() == 0) {
+            return new byte[] { ',' };
+        }
+        if("\\t".equals(delimiter)) {
+            return new byte[] { '\t' };
+        }
+        return delimiter.getBytes(CHARSET);
     }
 
 }
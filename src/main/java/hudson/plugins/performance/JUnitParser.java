@@ -13,10 +13,7 @@ import org.xml.sax.helpers.DefaultHandler;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Date;
-import java.util.List;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
@@ -48,16 +45,13 @@ public class JUnitParser extends JMeterParser {
   }
 
   @Override
-  public Collection<PerformanceReport> parse(AbstractBuild<?, ?> build,
-      Collection<File> reports, TaskListener listener) throws IOException {
-    List<PerformanceReport> result = new ArrayList<PerformanceReport>();
-
+  protected PerformanceReport parseReport(AbstractBuild<?, ?> build, File f,
+      TaskListener listener) throws IOException {
     SAXParserFactory factory = SAXParserFactory.newInstance();
     factory.setValidating(false);
     factory.setNamespaceAware(false);
     PrintStream logger = listener.getLogger();
 
-    for (File f : reports) {
       try {
                 SAXParser parser = factory.newSAXParser();
                 final PerformanceReport r = new PerformanceReport();
@@ -109,16 +103,14 @@ public class JUnitParser extends JMeterParser {
             
           }
         });
-        result.add(r);
+        return r;
       } catch (ParserConfigurationException e) {
         throw new IOException2("Failed to create parser ", e);
       } catch (SAXException e) {
         logger.println("Performance: Failed to parse " + f + ": "
             + e.getMessage());
+        return null;
       }
-    }
-
-    return result;
   }
   
   /**
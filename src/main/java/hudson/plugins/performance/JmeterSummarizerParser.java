@@ -45,17 +45,20 @@ public class JmeterSummarizerParser extends PerformanceReportParser{
     return "**/*.log";
   }
 
+  @Override
+  protected String getConfigurationFingerprint() {
+    return logDateFormat;
+  }
+
   public String getDefaultDatePattern() {
     return "yyyy/mm/dd HH:mm:ss";
   }
 
    @Override
-   public Collection<PerformanceReport> parse(AbstractBuild<?, ?> build,
-     Collection<File> reports, TaskListener listener)  {
-     List<PerformanceReport> result = new ArrayList<PerformanceReport>();
+   protected PerformanceReport parseReport(AbstractBuild<?, ?> build, File f,
+     TaskListener listener)  {
      PrintStream logger = listener.getLogger();
 
-     for (File f : reports) {
          try {
                  final PerformanceReport r = new PerformanceReport();
                  r.setReportFileName(f.getName());
@@ -94,7 +97,7 @@ public class JmeterSummarizerParser extends PerformanceReportParser{
                          r.addSample(sample);
                      }
                  }
-                result.add(r); 
+                return r;
          } catch (FileNotFoundException e) {
              logger.println("File not found" + e.getMessage());
          } catch (SAXException e) {
@@ -104,8 +107,7 @@ public class JmeterSummarizerParser extends PerformanceReportParser{
          } catch (IOException e){
              logger.println(e.getMessage());
          }
-   }
-   return result;
+   return null;
   }
 
 }
\ No newline at end of file
@@ -0,0 +1,240 @@
+package hudson.plugins.performance;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Writes JSON as it goes, without building the document in memory, for the
+ * data endpoints used to draw the charts in the browser.
+ *
+ * Fields written with the {@code field} methods can be restricted to those
+ * listed in the {@code fields} request parameter; structural names (build
+ * numbers, URIs...) are always written.
+ *
+ * Not thread safe.
+ */
+class JsonWriter {
+
+  private final Writer out;
+
+  /**
+   * Selected fields, null for all.
+   */
+  private final Set<String> fields;
+
+  /**
+   * Whether the current object or array already has a member, one entry per
+   * nesting level.
+   */
+  private boolean[] hasMember = new boolean[8];
+
+  private int depth;
+
+  /**
+   * Whether a name was just written, so the next value follows it.
+   */
+  private boolean afterName;
+
+  JsonWriter(Writer out, Set<String> fields) {
+    this.out = out;
+    this.fields = fields;
+  }
+
+  /**
+   * Starts a JSON response, honouring the {@code fields} parameter, a comma
+   * separated list of field names.
+   */
+  static JsonWriter forResponse(StaplerRequest request, StaplerResponse response)
+      throws IOException {
+    response.setContentType("application/json;charset=UTF-8");
+    Set<String> fields = null;
+    String selection = request.getParameter("fields");
+    if (selection != null && selection.trim().length() > 0) {
+      fields = new HashSet<String>(Arrays.asList(selection.trim().split("\\s*,\\s*")));
+    }
+    return new JsonWriter(new BufferedWriter(new OutputStreamWriter(
+        response.getOutputStream(), "UTF-8")), fields);
+  }
+
+  /**
+   * A numeric request parameter, or the given default when it is missing or
+   * not a number.
+   */
+  static long getParameter(StaplerRequest request, String name, long defaultValue) {
+    String value = request.getParameter(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  boolean isSelected(String name) {
+    return fields == null || fields.contains(name);
+  }
+
+  JsonWriter beginObject() throws IOException {
+    return open('{');
+  }
+
+  JsonWriter endObject() throws IOException {
+    return close('}');
+  }
+
+  JsonWriter beginArray() throws IOException {
+    return open('[');
+  }
+
+  JsonWriter endArray() throws IOException {
+    return close(']');
+  }
+
+  JsonWriter name(String name) throws IOException {
+    separate();
+    string(name);
+    out.write(':');
+    afterName = true;
+    return this;
+  }
+
+  JsonWriter value(String value) throws IOException {
+    separate();
+    if (value == null) {
+      out.write("null");
+    } else {
+      string(value);
+    }
+    return this;
+  }
+
+  JsonWriter value(long value) throws IOException {
+    separate();
+    out.write(Long.toString(value));
+    return this;
+  }
+
+  /**
+   * Writes a number, or null for NaN and infinities which JSON lacks.
+   */
+  JsonWriter value(double value) throws IOException {
+    separate();
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      out.write("null");
+    } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+      out.write(Long.toString((long) value));
+    } else {
+      out.write(Double.toString(value));
+    }
+    return this;
+  }
+
+  JsonWriter value(boolean value) throws IOException {
+    separate();
+    out.write(value ? "true" : "false");
+    return this;
+  }
+
+  /**
+   * Writes a member if it is selected.
+   */
+  JsonWriter field(String name, long value) throws IOException {
+    if (isSelected(name)) {
+      name(name).value(value);
+    }
+    return this;
+  }
+
+  JsonWriter field(String name, double value) throws IOException {
+    if (isSelected(name)) {
+      name(name).value(value);
+    }
+    return this;
+  }
+
+  JsonWriter field(String name, String value) throws IOException {
+    if (isSelected(name)) {
+      name(name).value(value);
+    }
+    return this;
+  }
+
+  void close() throws IOException {
+    out.close();
+  }
+
+  private JsonWriter open(char bracket) throws IOException {
+    separate();
+    out.write(bracket);
+    if (++depth == hasMember.length) {
+      hasMember = Arrays.copyOf(hasMember, depth * 2);
+    }
+    hasMember[depth] = false;
+    return this;
+  }
+
+  private JsonWriter close(char bracket) throws IOException {
+    if (depth == 0) {
+      throw new IllegalStateException("Nothing to close");
+    }
+    depth--;
+    out.write(bracket);
+    return this;
+  }
+
+  /**
+   * Writes the comma before a member, unless it follows a name or is the
+   * first of its object or array.
+   */
+  private void separate() throws IOException {
+    if (afterName) {
+      afterName = false;
+      return;
+    }
+    if (hasMember[depth]) {
+      out.write(',');
+    }
+    hasMember[depth] = true;
+  }
+
+  private void string(String value) throws IOException {
+    out.write('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+      case '"':
+        out.write("\\\"");
+        break;
+      case '\\':
+        out.write("\\\\");
+        break;
+      case '\n':
+        out.write("\\n");
+        break;
+      case '\r':
+        out.write("\\r");
+        break;
+      case '\t':
+        out.write("\\t");
+        break;
+      default:
+        if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+          out.write(String.format("\\u%04x", (int) c));
+        } else {
+          out.write(c);
+        }
+      }
+    }
+    out.write('"');
+  }
+}
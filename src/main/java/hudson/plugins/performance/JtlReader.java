@@ -0,0 +1,616 @@
+package hudson.plugins.performance;
+
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Streaming reader for JMeter XML result files.
+ *
+ * Performance XML log format is in
+ * http://jakarta.apache.org/jmeter/usermanual/listeners.html
+ *
+ * There are two different tags which delimit jmeter samples: httpSample for
+ * http samples sample for non http samples. Only the top level ones are
+ * recorded, nested sub samples are skipped.
+ *
+ * There are also two different XML formats which we have to handle: v2.0 =
+ * "label", "timeStamp", "time", "success" v2.1 = "lb", "ts", "t", "s"
+ *
+ * The file is scanned byte by byte instead of going through a SAX parser:
+ * attributes are read in place from the tag bytes, numbers are parsed without
+ * intermediate Strings, and labels and response codes are interned, so samples
+ * are added to the {@link PerformanceReport} without allocating an object per
+ * sample.
+ */
+public class JtlReader {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final byte[] SAMPLE = ascii("sample");
+
+  private static final byte[] HTTP_SAMPLE = ascii("httpSample");
+
+  // Attributes of a sample, indexes in ATTRIBUTE_NAMES
+  private static final int TS = 0, TIME_STAMP = 1, T = 2, TIME = 3, S = 4,
+      SUCCESS = 5, LB = 6, LABEL = 7, RC = 8, BY = 9;
+
+  private static final byte[][] ATTRIBUTE_NAMES = { ascii("ts"),
+      ascii("timeStamp"), ascii("t"), ascii("time"), ascii("s"),
+      ascii("success"), ascii("lb"), ascii("label"), ascii("rc"), ascii("by") };
+
+  private final InputStream in;
+
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+
+  private int position;
+
+  private int limit;
+
+  /**
+   * Content of the current tag, between the '<' and the '>'.
+   */
+  private byte[] tag = new byte[512];
+
+  private int tagLength;
+
+  /**
+   * Start and end offsets in {@link #tag} of the sample attribute values, -1
+   * for missing attributes.
+   */
+  private final int[] valueStarts = new int[ATTRIBUTE_NAMES.length];
+
+  private final int[] valueEnds = new int[ATTRIBUTE_NAMES.length];
+
+  private Charset charset = UTF_8;
+
+  private final InternTable labels = new InternTable();
+
+  private final InternTable httpCodes = new InternTable();
+
+  // The top level sample waiting for its end tag
+  private String label;
+
+  private long timestamp;
+
+  private long duration;
+
+  private boolean successful;
+
+  private String httpCode;
+
+  private double sizeInKb;
+
+  public JtlReader(InputStream in) {
+    this.in = in;
+  }
+
+  /**
+   * Reads all the samples of the stream into the given report.
+   *
+   * @throws SAXException
+   *             if the stream is not a well formed result file
+   */
+  public void read(PerformanceReport report) throws IOException, SAXException {
+    int depth = 0;
+    int c;
+    while ((c = next()) >= 0) {
+      if (c != '<') {
+        continue;
+      }
+      c = next();
+      if (c == '!') {
+        skipDeclaration();
+        continue;
+      }
+      if (c == '?') {
+        readProcessingInstruction();
+        continue;
+      }
+      readTag(c);
+
+      if (tag[0] == '/') {
+        if (isSample(1, nameEnd(1))) {
+          depth--;
+          if (depth < 0) {
+            throw new SAXException("Unexpected end of sample");
+          }
+          if (depth == 0) {
+            addSample(report);
+          }
+        }
+        continue;
+      }
+
+      int nameEnd = nameEnd(0);
+      if (isSample(0, nameEnd)) {
+        if (depth == 0) {
+          readSample(nameEnd);
+        }
+        if (tag[tagLength - 1] == '/') {
+          if (depth == 0) {
+            addSample(report);
+          }
+        } else {
+          depth++;
+        }
+      }
+    }
+    if (depth != 0) {
+      throw new SAXException("Unexpected end of file in a sample");
+    }
+  }
+
+  private void addSample(PerformanceReport report) throws SAXException {
+    report.addSample(label, timestamp, duration, successful, false,
+        httpCode, sizeInKb);
+  }
+
+  /**
+   * Reads the attributes of a top level sample from the current tag.
+   */
+  private void readSample(int offset) throws SAXException {
+    Arrays.fill(valueStarts, -1);
+    int i = offset;
+    int end = tagLength;
+    while (i < end) {
+      byte b = tag[i];
+      if (isWhitespace(b) || b == '/') {
+        i++;
+        continue;
+      }
+      int nameStart = i;
+      while (i < end && tag[i] != '=' && !isWhitespace(tag[i])) {
+        i++;
+      }
+      int nameEnd = i;
+      while (i < end && isWhitespace(tag[i])) {
+        i++;
+      }
+      if (i >= end || tag[i] != '=') {
+        throw new SAXException("Attribute without value in sample");
+      }
+      i++;
+      while (i < end && isWhitespace(tag[i])) {
+        i++;
+      }
+      if (i >= end || (tag[i] != '"' && tag[i] != '\'')) {
+        throw new SAXException("Attribute value not quoted in sample");
+      }
+      byte quote = tag[i++];
+      int valueStart = i;
+      while (i < end && tag[i] != quote) {
+        i++;
+      }
+      if (i >= end) {
+        throw new SAXException("Unterminated attribute value in sample");
+      }
+      int attribute = attributeIndex(nameStart, nameEnd);
+      if (attribute >= 0) {
+        valueStarts[attribute] = valueStart;
+        valueEnds[attribute] = i;
+      }
+      i++;
+    }
+
+    timestamp = parseLong(valueStarts[TS] >= 0 ? TS : TIME_STAMP);
+    duration = parseLong(valueStarts[T] >= 0 ? T : TIME);
+    int s = valueStarts[S] >= 0 ? S : SUCCESS;
+    successful = isTrue(valueStarts[s], valueEnds[s]);
+    int lb = valueStarts[LB] >= 0 ? LB : LABEL;
+    label = valueStarts[lb] >= 0 ? intern(labels, valueStarts[lb], valueEnds[lb], false) : null;
+    httpCode = valueStarts[RC] >= 0 ? intern(httpCodes, valueStarts[RC], valueEnds[RC], true) : "0";
+    sizeInKb = valueStarts[BY] >= 0 ? parseDouble(BY) / 1024d : 0d;
+  }
+
+  private int attributeIndex(int start, int end) {
+    int length = end - start;
+    for (int a = 0; a < ATTRIBUTE_NAMES.length; a++) {
+      byte[] name = ATTRIBUTE_NAMES[a];
+      if (name.length != length) {
+        continue;
+      }
+      int j = 0;
+      while (j < length && tag[start + j] == name[j]) {
+        j++;
+      }
+      if (j == length) {
+        return a;
+      }
+    }
+    return -1;
+  }
+
+  private long parseLong(int attribute) throws SAXException {
+    int start = valueStarts[attribute];
+    int end = valueEnds[attribute];
+    if (start < 0) {
+      throw new SAXException("Missing " + new String(ATTRIBUTE_NAMES[attribute], UTF_8)
+          + " attribute in sample");
+    }
+    int i = start;
+    boolean negative = false;
+    if (i < end && (tag[i] == '-' || tag[i] == '+')) {
+      negative = tag[i] == '-';
+      i++;
+    }
+    long value = 0;
+    if (i == end || end - i > 18) {
+      return parseLongSlowly(start, end);
+    }
+    for (; i < end; i++) {
+      int digit = tag[i] - '0';
+      if (digit < 0 || digit > 9) {
+        return parseLongSlowly(start, end);
+      }
+      value = value * 10 + digit;
+    }
+    return negative ? -value : value;
+  }
+
+  private long parseLongSlowly(int start, int end) throws SAXException {
+    String value = new String(tag, start, end - start, charset);
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      throw new SAXException("Invalid number in sample: " + value);
+    }
+  }
+
+  private double parseDouble(int attribute) throws SAXException {
+    int start = valueStarts[attribute];
+    int end = valueEnds[attribute];
+    for (int i = start; i < end; i++) {
+      if (tag[i] < '0' || tag[i] > '9') {
+        String value = new String(tag, start, end - start, charset);
+        try {
+          return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+          throw new SAXException("Invalid number in sample: " + value);
+        }
+      }
+    }
+    return parseLong(attribute);
+  }
+
+  /**
+   * Same as {@link Boolean#valueOf(String)}: true only for a case insensitive
+   * "true".
+   */
+  private boolean isTrue(int start, int end) {
+    return start >= 0 && end - start == 4
+        && (tag[start] | 0x20) == 't' && (tag[start + 1] | 0x20) == 'r'
+        && (tag[start + 2] | 0x20) == 'u' && (tag[start + 3] | 0x20) == 'e';
+  }
+
+  /**
+   * Looks up the String for the raw attribute bytes, only decoding them the
+   * first time they are seen.
+   *
+   * @param httpCode
+   *            if the value is a response code: codes longer than 3
+   *            characters are replaced by "0"
+   */
+  private String intern(InternTable table, int start, int end, boolean httpCode) {
+    String value = table.get(tag, start, end);
+    if (value == null) {
+      value = decodeAttribute(tag, start, end, charset);
+      if (httpCode && value.length() > 3) {
+        value = "0";
+      }
+      table.put(tag, start, end, value);
+    }
+    return value;
+  }
+
+  /**
+   * Decodes an attribute value the way an XML parser would: line breaks and
+   * tabs become spaces and character references are replaced.
+   */
+  static String decodeAttribute(byte[] bytes, int start, int end, Charset charset) {
+    String raw = new String(bytes, start, end - start, charset);
+    StringBuilder value = null;
+    for (int i = 0; i < raw.length(); i++) {
+      char c = raw.charAt(i);
+      if (c != '&' && c != '\r' && c != '\n' && c != '\t') {
+        if (value != null) {
+          value.append(c);
+        }
+        continue;
+      }
+      if (value == null) {
+        value = new StringBuilder(raw.length());
+        value.append(raw, 0, i);
+      }
+      if (c == '\r') {
+        if (i + 1 < raw.length() && raw.charAt(i + 1) == '\n') {
+          i++;
+        }
+        value.append(' ');
+      } else if (c != '&') {
+        value.append(' ');
+      } else {
+        int semicolon = raw.indexOf(';', i);
+        String entity = semicolon < 0 ? "" : raw.substring(i + 1, semicolon);
+        if (entity.equals("amp")) {
+          value.append('&');
+        } else if (entity.equals("lt")) {
+          value.append('<');
+        } else if (entity.equals("gt")) {
+          value.append('>');
+        } else if (entity.equals("quot")) {
+          value.append('"');
+        } else if (entity.equals("apos")) {
+          value.append('\'');
+        } else if (entity.startsWith("#")) {
+          try {
+            int codePoint = entity.startsWith("#x") ? Integer.parseInt(entity.substring(2), 16)
+                : Integer.parseInt(entity.substring(1));
+            value.appendCodePoint(codePoint);
+          } catch (IllegalArgumentException e) {
+            value.append('&');
+            continue;
+          }
+        } else {
+          value.append('&');
+          continue;
+        }
+        i = semicolon;
+      }
+    }
+    return value == null ? raw : value.toString();
+  }
+
+  private boolean isSample(int start, int end) {
+    return equalsIgnoreCase(start, end, SAMPLE)
+        || equalsIgnoreCase(start, end, HTTP_SAMPLE);
+  }
+
+  private boolean equalsIgnoreCase(int start, int end, byte[] name) {
+    if (end - start != name.length) {
+      return false;
+    }
+    for (int i = 0; i < name.length; i++) {
+      if ((tag[start + i] | 0x20) != (name[i] | 0x20)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int nameEnd(int start) {
+    int i = start;
+    while (i < tagLength && !isWhitespace(tag[i]) && tag[i] != '/') {
+      i++;
+    }
+    return i;
+  }
+
+  /**
+   * Reads an element tag, up to the '>' that is not inside a quoted
+   * attribute value.
+   */
+  private void readTag(int first) throws IOException, SAXException {
+    tagLength = 0;
+    int c = first;
+    byte quote = 0;
+    while (true) {
+      if (c < 0) {
+        throw new SAXException("Unexpected end of file in a tag");
+      }
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      } else if (c == '"' || c == '\'') {
+        quote = (byte) c;
+      } else if (c == '>') {
+        break;
+      }
+      append(c);
+      c = next();
+    }
+    if (tagLength == 0) {
+      throw new SAXException("Empty tag");
+    }
+  }
+
+  /**
+   * Skips a comment, a CDATA section or a DOCTYPE declaration, the '<!'
+   * being already read.
+   */
+  private void skipDeclaration() throws IOException, SAXException {
+    int c = next();
+    if (c == '-') {
+      next();
+      skipUntil("-->");
+    } else if (c == '[') {
+      skipUntil("]]>");
+    } else {
+      int brackets = 0;
+      byte quote = 0;
+      while (c != '>' || quote != 0 || brackets > 0) {
+        if (c < 0) {
+          throw new SAXException("Unexpected end of file in a declaration");
+        }
+        if (quote != 0) {
+          if (c == quote) {
+            quote = 0;
+          }
+        } else if (c == '"' || c == '\'') {
+          quote = (byte) c;
+        } else if (c == '[') {
+          brackets++;
+        } else if (c == ']') {
+          brackets--;
+        }
+        c = next();
+      }
+    }
+  }
+
+  /**
+   * Skips past the given terminator, which is two identical characters
+   * followed by a third one ("-->" or "]]>").
+   */
+  private void skipUntil(String end) throws IOException, SAXException {
+    int matched = 0;
+    while (matched < end.length()) {
+      int c = next();
+      if (c < 0) {
+        throw new SAXException("Unexpected end of file, expected " + end);
+      }
+      if (c == end.charAt(matched)) {
+        matched++;
+      } else if (c != end.charAt(0)) {
+        matched = 0;
+      }
+      // else "--->" or "]]]>": still two characters matched
+    }
+  }
+
+  /**
+   * Reads a processing instruction, the '<?' being already read, and picks
+   * the encoding from the XML declaration.
+   */
+  private void readProcessingInstruction() throws IOException, SAXException {
+    tagLength = 0;
+    int previous = 0;
+    int c;
+    while ((c = next()) != '>' || previous != '?') {
+      if (c < 0) {
+        throw new SAXException("Unexpected end of file in a processing instruction");
+      }
+      append(c);
+      previous = c;
+    }
+    String instruction = new String(tag, 0, tagLength, UTF_8);
+    if (instruction.startsWith("xml")) {
+      int encoding = instruction.indexOf("encoding");
+      if (encoding >= 0) {
+        int start = encoding + "encoding".length();
+        while (start < instruction.length() && "= \t\r\n\"'".indexOf(instruction.charAt(start)) >= 0) {
+          start++;
+        }
+        int end = start;
+        while (end < instruction.length() && "\"' \t\r\n?".indexOf(instruction.charAt(end)) < 0) {
+          end++;
+        }
+        String name = instruction.substring(start, end);
+        if (name.toUpperCase().startsWith("UTF-16")) {
+          throw new SAXException("Unsupported encoding: " + name);
+        }
+        try {
+          charset = Charset.forName(name);
+        } catch (IllegalArgumentException e) {
+          charset = UTF_8;
+        }
+      }
+    }
+  }
+
+  private void append(int c) {
+    if (tagLength == tag.length) {
+      tag = Arrays.copyOf(tag, tag.length * 2);
+    }
+    tag[tagLength++] = (byte) c;
+  }
+
+  private int next() throws IOException {
+    if (position == limit) {
+      limit = in.read(buffer, 0, buffer.length);
+      position = 0;
+      if (limit <= 0) {
+        limit = 0;
+        return -1;
+      }
+    }
+    return buffer[position++] & 0xFF;
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+  }
+
+  private static byte[] ascii(String value) {
+    return value.getBytes(UTF_8);
+  }
+
+  /**
+   * Open addressing map from byte sequences to the Strings they decode to,
+   * looked up straight from a slice of a byte array.
+   */
+  static final class InternTable {
+
+    private byte[][] keys = new byte[64][];
+
+    private String[] values = new String[64];
+
+    private int size;
+
+    String get(byte[] bytes, int start, int end) {
+      int mask = keys.length - 1;
+      for (int i = hash(bytes, start, end) & mask; keys[i] != null; i = (i + 1) & mask) {
+        if (matches(keys[i], bytes, start, end)) {
+          return values[i];
+        }
+      }
+      return null;
+    }
+
+    void put(byte[] bytes, int start, int end, String value) {
+      if (size * 2 >= keys.length) {
+        rehash();
+      }
+      insert(Arrays.copyOfRange(bytes, start, end), value);
+      size++;
+    }
+
+    private void insert(byte[] key, String value) {
+      int mask = keys.length - 1;
+      int i = hash(key, 0, key.length) & mask;
+      while (keys[i] != null) {
+        i = (i + 1) & mask;
+      }
+      keys[i] = key;
+      values[i] = value;
+    }
+
+    private void rehash() {
+      byte[][] oldKeys = keys;
+      String[] oldValues = values;
+      keys = new byte[oldKeys.length * 2][];
+      values = new String[oldValues.length * 2];
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != null) {
+          insert(oldKeys[i], oldValues[i]);
+        }
+      }
+    }
+
+    private static boolean matches(byte[] key, byte[] bytes, int start, int end) {
+      if (key.length != end - start) {
+        return false;
+      }
+      for (int i = 0; i < key.length; i++) {
+        if (key[i] != bytes[start + i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static int hash(byte[] bytes, int start, int end) {
+      int h = 1;
+      for (int i = start; i < end; i++) {
+        h = 31 * h + bytes[i];
+      }
+      return h ^ (h >>> 16);
+    }
+  }
+}
@@ -0,0 +1,243 @@
+package hudson.plugins.performance;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Mergeable histogram of response times used to answer percentile queries
+ * without keeping or sorting the samples.
+ *
+ * Buckets are log-linear: durations below {@value #SUB_BUCKET_COUNT} ms get
+ * one bucket per millisecond and are exact, larger durations share buckets
+ * whose width is at most 1/{@value #HALF_SUB_BUCKET_COUNT} of their value.
+ * The bucket array only grows up to the largest recorded duration.
+ */
+public class LatencyHistogram implements Serializable {
+
+  private static final long serialVersionUID = -3407145036618396274L;
+
+  private static final int SUB_BUCKET_BITS = 10;
+
+  static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+  static final int HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT >> 1;
+
+  private int[] counts = new int[0];
+
+  private long totalCount;
+
+  private long minValue = Long.MAX_VALUE;
+
+  private long maxValue = Long.MIN_VALUE;
+
+  /**
+   * Records one duration. Negative durations are recorded as 0.
+   */
+  public void recordValue(long value) {
+    long v = Math.max(0, value);
+    int index = indexFor(v);
+    if (index >= counts.length) {
+      counts = Arrays.copyOf(counts, Math.max(index + 1, counts.length + (counts.length >> 1)));
+    }
+    counts[index]++;
+    totalCount++;
+    minValue = Math.min(minValue, v);
+    maxValue = Math.max(maxValue, v);
+  }
+
+  /**
+   * Adds all the values recorded by another histogram to this one.
+   */
+  public void add(LatencyHistogram other) {
+    if (other.totalCount == 0) {
+      return;
+    }
+    if (other.counts.length > counts.length) {
+      counts = Arrays.copyOf(counts, other.counts.length);
+    }
+    for (int i = 0; i < other.counts.length; i++) {
+      counts[i] += other.counts[i];
+    }
+    totalCount += other.totalCount;
+    minValue = Math.min(minValue, other.minValue);
+    maxValue = Math.max(maxValue, other.maxValue);
+  }
+
+  public long getTotalCount() {
+    return totalCount;
+  }
+
+  /**
+   * @return the smallest recorded value, or 0 if nothing was recorded
+   */
+  public long getMinValue() {
+    return totalCount == 0 ? 0 : minValue;
+  }
+
+  /**
+   * @return the largest recorded value, or 0 if nothing was recorded
+   */
+  public long getMaxValue() {
+    return totalCount == 0 ? 0 : maxValue;
+  }
+
+  /**
+   * Value at the given percentile, using the same rank as a sorted list of
+   * the samples would: the element at index {@code (int) (count * percentile / 100)}.
+   *
+   * @param percentile
+   *            between 0 and 100
+   * @return the value, or 0 if nothing was recorded
+   */
+  public long getValueAtPercentile(double percentile) {
+    return getValuesAtPercentiles(new double[] { percentile })[0];
+  }
+
+  /**
+   * Values at several percentiles, answered with a single walk over the
+   * buckets whatever the number of percentiles.
+   *
+   * @param percentiles
+   *            between 0 and 100, in any order
+   * @return the values, in the order of {@code percentiles}; all 0 if nothing
+   *         was recorded
+   */
+  public long[] getValuesAtPercentiles(double[] percentiles) {
+    long[] values = new long[percentiles.length];
+    if (totalCount == 0) {
+      return values;
+    }
+    long[] ranks = new long[percentiles.length];
+    Integer[] order = new Integer[percentiles.length];
+    for (int i = 0; i < percentiles.length; i++) {
+      ranks[i] = Math.max(0, Math.min(totalCount - 1,
+          (long) (totalCount * (percentiles[i] / 100d))));
+      order[i] = i;
+    }
+    final long[] sortKeys = ranks;
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return sortKeys[a] < sortKeys[b] ? -1 : (sortKeys[a] == sortKeys[b] ? 0 : 1);
+      }
+    });
+
+    int next = 0;
+    long cumulative = 0;
+    for (int i = 0; i < counts.length && next < order.length; i++) {
+      cumulative += counts[i];
+      while (next < order.length && cumulative > ranks[order[next]]) {
+        values[order[next++]] = representativeValue(i);
+      }
+    }
+    while (next < order.length) {
+      values[order[next++]] = maxValue;
+    }
+    return values;
+  }
+
+  /**
+   * Number of buckets that may hold values, see {@link #getCountAtIndex(int)}.
+   */
+  public int getBucketCount() {
+    return counts.length;
+  }
+
+  public long getCountAtIndex(int index) {
+    return index < counts.length ? counts[index] : 0;
+  }
+
+  /**
+   * A value standing for all the values recorded in a bucket: the middle of
+   * the bucket, bounded by the smallest and largest recorded values.
+   */
+  public long representativeValue(int index) {
+    long value = lowestValueAt(index) + (bucketWidthAt(index) - 1) / 2;
+    return Math.max(minValue, Math.min(maxValue, value));
+  }
+
+  static int indexFor(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+    return SUB_BUCKET_COUNT + (shift - 1) * HALF_SUB_BUCKET_COUNT
+        + (int) ((value >> shift) - HALF_SUB_BUCKET_COUNT);
+  }
+
+  static long lowestValueAt(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int offset = index - SUB_BUCKET_COUNT;
+    int shift = offset / HALF_SUB_BUCKET_COUNT + 1;
+    return ((long) (offset % HALF_SUB_BUCKET_COUNT + HALF_SUB_BUCKET_COUNT)) << shift;
+  }
+
+  static long bucketWidthAt(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return 1;
+    }
+    return 1L << ((index - SUB_BUCKET_COUNT) / HALF_SUB_BUCKET_COUNT + 1);
+  }
+
+  /**
+   * Writes the non empty buckets, for {@link ReportCache}.
+   */
+  void writeTo(DataOutput out) throws IOException {
+    int buckets = 0;
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] != 0) {
+        buckets++;
+      }
+    }
+    out.writeLong(totalCount);
+    out.writeLong(minValue);
+    out.writeLong(maxValue);
+    out.writeInt(buckets);
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] != 0) {
+        out.writeInt(i);
+        out.writeInt(counts[i]);
+      }
+    }
+  }
+
+  /**
+   * Reads a histogram written by {@link #writeTo(DataOutput)}.
+   */
+  static LatencyHistogram readFrom(DataInput in) throws IOException {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.totalCount = in.readLong();
+    histogram.minValue = in.readLong();
+    histogram.maxValue = in.readLong();
+    int buckets = in.readInt();
+    for (int i = 0; i < buckets; i++) {
+      int index = in.readInt();
+      if (index < 0) {
+        throw new IOException("Invalid histogram bucket " + index);
+      }
+      if (index >= histogram.counts.length) {
+        histogram.counts = Arrays.copyOf(histogram.counts,
+            Math.max(index + 1, histogram.counts.length * 2));
+      }
+      histogram.counts[index] = in.readInt();
+    }
+    return histogram;
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    int length = counts.length;
+    while (length > 0 && counts[length - 1] == 0) {
+      length--;
+    }
+    if (length != counts.length) {
+      counts = Arrays.copyOf(counts, length);
+    }
+    out.defaultWriteObject();
+  }
+}
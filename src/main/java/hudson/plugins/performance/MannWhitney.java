@@ -0,0 +1,138 @@
+package hudson.plugins.performance;
+
+/**
+ * Mann-Whitney U test between the response times of a URI in two builds,
+ * computed from their {@link LatencyHistogram}s, for the relative thresholds
+ * of {@link PerformancePublisher}.
+ *
+ * Values of a histogram bucket are taken as ties, so ranks are computed in
+ * one walk over the buckets without the samples, and the p-values come from
+ * the normal approximation with the tie and continuity corrections. Buckets
+ * below {@value LatencyHistogram#SUB_BUCKET_COUNT} ms are one millisecond
+ * wide, so this only merges values that differ by less than 1/512 of
+ * themselves.
+ */
+public final class MannWhitney {
+
+  private final long baselineCount;
+
+  private final long currentCount;
+
+  /**
+   * U statistic of the current build: the number of (baseline, current)
+   * pairs where the current value is the larger, ties counting half.
+   */
+  private final double u;
+
+  private final double pSlower;
+
+  private final double pFaster;
+
+  private MannWhitney(long baselineCount, long currentCount, double u,
+      double pSlower, double pFaster) {
+    this.baselineCount = baselineCount;
+    this.currentCount = currentCount;
+    this.u = u;
+    this.pSlower = pSlower;
+    this.pFaster = pFaster;
+  }
+
+  /**
+   * Tests whether the current response times are stochastically larger or
+   * smaller than the baseline ones.
+   *
+   * @return the result, or null if a histogram has less than two values
+   */
+  public static MannWhitney compare(LatencyHistogram baseline,
+      LatencyHistogram current) {
+    long n1 = baseline.getTotalCount();
+    long n2 = current.getTotalCount();
+    if (n1 < 2 || n2 < 2) {
+      return null;
+    }
+
+    double u = 0;
+    double ties = 0;
+    long baselineBelow = 0;
+    int buckets = Math.max(baseline.getBucketCount(), current.getBucketCount());
+    for (int i = 0; i < buckets; i++) {
+      long a = baseline.getCountAtIndex(i);
+      long b = current.getCountAtIndex(i);
+      if (a == 0 && b == 0) {
+        continue;
+      }
+      u += b * (baselineBelow + a / 2d);
+      double t = a + b;
+      ties += t * t * t - t;
+      baselineBelow += a;
+    }
+
+    double n = n1 + n2;
+    double mean = (double) n1 * n2 / 2;
+    double variance = (double) n1 * n2 / 12 * ((n + 1) - ties / (n * (n - 1)));
+    if (variance <= 0) {
+      // all the values in the same bucket
+      return new MannWhitney(n1, n2, u, 1, 1);
+    }
+    double sd = Math.sqrt(variance);
+    double pSlower = 1 - normalCdf((u - mean - 0.5) / sd);
+    double pFaster = normalCdf((u - mean + 0.5) / sd);
+    return new MannWhitney(n1, n2, u, Math.min(1, pSlower), Math.min(1, pFaster));
+  }
+
+  public long getBaselineCount() {
+    return baselineCount;
+  }
+
+  public long getCurrentCount() {
+    return currentCount;
+  }
+
+  public double getU() {
+    return u;
+  }
+
+  /**
+   * Probability that a current response time is larger than a baseline one,
+   * ties counting half: 0.5 when nothing changed.
+   */
+  public double getEffectSize() {
+    return u / ((double) baselineCount * currentCount);
+  }
+
+  /**
+   * One-sided p-value of the current build being slower than the baseline.
+   */
+  public double getPValueSlower() {
+    return pSlower;
+  }
+
+  /**
+   * One-sided p-value of the current build being faster than the baseline.
+   */
+  public double getPValueFaster() {
+    return pFaster;
+  }
+
+  /**
+   * The p-value of a change in the given direction.
+   *
+   * @param slower
+   *            true for an increase of the response times
+   */
+  public double getPValue(boolean slower) {
+    return slower ? pSlower : pFaster;
+  }
+
+  /**
+   * Standard normal distribution function, from the approximation 7.1.26 of
+   * the error function by Abramowitz and Stegun, accurate to about 1e-7.
+   */
+  static double normalCdf(double z) {
+    double x = Math.abs(z) / Math.sqrt(2);
+    double t = 1 / (1 + 0.3275911 * x);
+    double erf = 1 - t * (0.254829592 + t * (-0.284496736 + t * (1.421413741
+        + t * (-1.453152027 + t * 1.061405429)))) * Math.exp(-x * x);
+    return z >= 0 ? (1 + erf) / 2 : (1 - erf) / 2;
+  }
+}
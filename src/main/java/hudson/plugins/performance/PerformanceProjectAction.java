@@ -18,6 +18,8 @@ import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.servlet.http.HttpServletResponse;
+
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.JFreeChart;
 import org.jfree.chart.axis.*;
@@ -29,6 +31,10 @@ import org.jfree.chart.renderer.category.BarRenderer;
 import org.jfree.chart.renderer.xy.XYItemRenderer;
 import org.jfree.chart.title.LegendTitle;
 import org.jfree.data.category.CategoryDataset;
+import org.jfree.data.time.FixedMillisecond;
+import org.jfree.data.time.RegularTimePeriod;
+import org.jfree.data.time.TimeSeries;
+import org.jfree.data.time.TimeSeriesCollection;
 import org.jfree.data.xy.XYDataset;
 import org.jfree.ui.RectangleEdge;
 import org.jfree.ui.RectangleInsets;
@@ -124,6 +130,51 @@ public final class PerformanceProjectAction implements Action {
     return chart;
   }
 
+  private JFreeChart createThroughputChart(CategoryDataset dataset) {
+
+    final JFreeChart chart = ChartFactory.createLineChart(
+        Messages.ProjectAction_Throughput(), // chart title
+        null, // unused
+        "req/s", // range axis label
+        dataset, // data
+        PlotOrientation.VERTICAL, // orientation
+        true, // include legend
+        true, // tooltips
+        false // urls
+    );
+
+    final LegendTitle legend = chart.getLegend();
+    legend.setPosition(RectangleEdge.BOTTOM);
+
+    chart.setBackgroundPaint(Color.white);
+
+    final CategoryPlot plot = chart.getCategoryPlot();
+
+    plot.setBackgroundPaint(Color.WHITE);
+    plot.setOutlinePaint(null);
+    plot.setRangeGridlinesVisible(true);
+    plot.setRangeGridlinePaint(Color.black);
+
+    CategoryAxis domainAxis = new ShiftedCategoryAxis(null);
+    plot.setDomainAxis(domainAxis);
+    domainAxis.setCategoryLabelPositions(CategoryLabelPositions.UP_90);
+    domainAxis.setLowerMargin(0.0);
+    domainAxis.setUpperMargin(0.0);
+    domainAxis.setCategoryMargin(0.0);
+
+    final NumberAxis rangeAxis = (NumberAxis) plot.getRangeAxis();
+    rangeAxis.setLowerBound(0);
+
+    final LineAndShapeRenderer renderer = (LineAndShapeRenderer) plot.getRenderer();
+    renderer.setBaseStroke(new BasicStroke(4.0f));
+    ColorPalette.apply(renderer);
+
+    // crop extra space around the graph
+    plot.setInsets(new RectangleInsets(5.0, 0, 0, 5.0));
+
+    return chart;
+  }
+
   protected static JFreeChart createRespondingTimeChart(CategoryDataset dataset) {
 
     final JFreeChart chart = ChartFactory.createLineChart(
@@ -209,6 +260,68 @@ public final class PerformanceProjectAction implements Action {
     }
 
 
+  /**
+   * Chart of a report or URI over the time of its test, from its
+   * {@link TimeBuckets}: the average and 90% line, or with
+   * {@code throughput} the requests and errors per second. Buckets are
+   * downsampled with {@link SampleSeries#lttb} beyond
+   * {@link UriReport#MAX_GRAPH_POINTS}.
+   */
+  static JFreeChart createOverTimeChart(TimeBuckets buckets, boolean throughput) {
+    long[] starts = new long[buckets.size()];
+    double[] values = new double[buckets.size()];
+    for (int i = 0; i < starts.length; i++) {
+      starts[i] = buckets.getStart(i);
+      values[i] = throughput ? buckets.getThroughput(i) : buckets.getAverage(i);
+    }
+    TimeSeries first = new TimeSeries(throughput ? Messages.ProjectAction_Throughput()
+        : Messages.ProjectAction_Average(), FixedMillisecond.class);
+    TimeSeries second = new TimeSeries(throughput ? Messages.ProjectAction_ErrorsPerSecond()
+        : Messages.ProjectAction_Line90(), FixedMillisecond.class);
+    for (int i : SampleSeries.lttb(starts, values, starts.length, UriReport.MAX_GRAPH_POINTS)) {
+      RegularTimePeriod period = new FixedMillisecond(starts[i]);
+      first.add(period, values[i]);
+      second.add(period, throughput ? buckets.getErrorRate(i) : buckets.getPercentile(i, 90));
+    }
+    TimeSeriesCollection dataset = new TimeSeriesCollection();
+    dataset.addSeries(first);
+    dataset.addSeries(second);
+
+    final JFreeChart chart = ChartFactory.createTimeSeriesChart(
+        throughput ? Messages.ProjectAction_ThroughputOverTime()
+            : Messages.ProjectAction_ResponseTimeOverTime(), // chart title
+        null, // unused
+        throughput ? "req/s" : "ms", // range axis label
+        dataset, // data
+        true, // include legend
+        true, // tooltips
+        false // urls
+    );
+
+    final LegendTitle legend = chart.getLegend();
+    legend.setPosition(RectangleEdge.BOTTOM);
+
+    chart.setBackgroundPaint(Color.white);
+
+    final XYPlot plot = chart.getXYPlot();
+    plot.setBackgroundPaint(Color.WHITE);
+    plot.setOutlinePaint(null);
+    plot.setRangeGridlinesVisible(true);
+    plot.setRangeGridlinePaint(Color.black);
+
+    final DateAxis axis = (DateAxis) plot.getDomainAxis();
+    axis.setDateFormatOverride(new SimpleDateFormat("HH:mm:ss"));
+
+    final XYItemRenderer renderer = plot.getRenderer();
+    renderer.setSeriesPaint(0, ColorPalette.BLUE);
+    renderer.setSeriesPaint(1, ColorPalette.RED);
+
+    // crop extra space around the graph
+    plot.setInsets(new RectangleInsets(5.0, 0, 0, 5.0));
+
+    return chart;
+  }
+
   protected static JFreeChart createSummarizerTrend (ArrayList<XYDataset> dataset, String uri) {
 
       final JFreeChart chart = ChartFactory.createTimeSeriesChart(
@@ -267,36 +380,95 @@ public final class PerformanceProjectAction implements Action {
       response.sendRedirect2(request.getContextPath() + "/images/headless.png");
       return;
     }
-    DataSetBuilder<String, NumberOnlyBuildLabel> dataSetBuilderErrors = new DataSetBuilder<String, NumberOnlyBuildLabel>();
-    List<? extends AbstractBuild<?, ?>> builds = getProject().getBuilds();
-    Range buildsLimits = getFirstAndLastBuild(request, builds);
+    final TrendIndex trendIndex = TrendIndex.forProject(getProject());
+    final List<? extends AbstractBuild<?, ?>> builds = getProject().getBuilds();
+    final Range buildsLimits = getFirstAndLastBuild(request, builds);
+    final String reportName = performanceReportNameFile;
+    GraphCache.generateGraph(request, response, getProject(),
+        getGraphKey("errorsGraph", reportName, buildsLimits), new GraphCache.Renderer() {
+      public JFreeChart createChart() {
+        DataSetBuilder<String, NumberOnlyBuildLabel> dataSetBuilderErrors = new DataSetBuilder<String, NumberOnlyBuildLabel>();
 
-    int nbBuildsToAnalyze = builds.size();
-    for (AbstractBuild<?, ?> currentBuild :builds) {
-      if (buildsLimits.in(nbBuildsToAnalyze)) {
+        int nbBuildsToAnalyze = builds.size();
+        for (AbstractBuild<?, ?> currentBuild :builds) {
+          if (buildsLimits.in(nbBuildsToAnalyze)) {
     	
-    	if (!buildsLimits.includedByStep(currentBuild.number)){
-    		continue;
-    	}  
+        	if (!buildsLimits.includedByStep(currentBuild.number)){
+        		continue;
+        	}  
     	  
-        NumberOnlyBuildLabel label = new NumberOnlyBuildLabel(currentBuild);
-        PerformanceBuildAction performanceBuildAction = currentBuild.getAction(PerformanceBuildAction.class);
-        if (performanceBuildAction == null) {
-          continue;
-        }
-        PerformanceReport performanceReport = performanceBuildAction.getPerformanceReportMap().getPerformanceReport(
-            performanceReportNameFile);
-        if (performanceReport == null) {
+            NumberOnlyBuildLabel label = new NumberOnlyBuildLabel(currentBuild);
+            PerformanceBuildAction performanceBuildAction = currentBuild.getAction(PerformanceBuildAction.class);
+            if (performanceBuildAction == null) {
+              continue;
+            }
+            TrendIndex.ReportEntry performanceReport = trendIndex.getReport(currentBuild,
+                reportName);
+            if (performanceReport == null) {
+              nbBuildsToAnalyze--;
+              continue;
+            }
+            dataSetBuilderErrors.add(performanceReport.errorPercent(),
+                Messages.ProjectAction_Errors(), label);
+          }
           nbBuildsToAnalyze--;
-          continue;
         }
-        dataSetBuilderErrors.add(performanceReport.errorPercent(),
-            Messages.ProjectAction_Errors(), label);
+        return createErrorsChart(dataSetBuilderErrors.build());
+      }
+    }, 400, 200);
+  }
+
+  /**
+   * Requests per second of a report in each build, from the
+   * {@link TrendIndex}.
+   */
+  public void doThroughputGraph(StaplerRequest request, StaplerResponse response)
+      throws IOException {
+    PerformanceReportPosition performanceReportPosition = new PerformanceReportPosition();
+    request.bindParameters(performanceReportPosition);
+    String performanceReportNameFile = performanceReportPosition.getPerformanceReportPosition();
+    if (performanceReportNameFile == null) {
+      if (getPerformanceReportList().size() == 1) {
+        performanceReportNameFile = getPerformanceReportList().get(0);
+      } else {
+        return;
       }
-      nbBuildsToAnalyze--;
     }
-    ChartUtil.generateGraph(request, response,
-        createErrorsChart(dataSetBuilderErrors.build()), 400, 200);
+    if (ChartUtil.awtProblemCause != null) {
+      // not available. send out error message
+      response.sendRedirect2(request.getContextPath() + "/images/headless.png");
+      return;
+    }
+    final TrendIndex trendIndex = TrendIndex.forProject(getProject());
+    final List<? extends AbstractBuild<?, ?>> builds = getProject().getBuilds();
+    final Range buildsLimits = getFirstAndLastBuild(request, builds);
+    final String reportName = performanceReportNameFile;
+    GraphCache.generateGraph(request, response, getProject(),
+        getGraphKey("throughputGraph", reportName, buildsLimits), new GraphCache.Renderer() {
+      public JFreeChart createChart() {
+        DataSetBuilder<String, NumberOnlyBuildLabel> dataSetBuilderThroughput = new DataSetBuilder<String, NumberOnlyBuildLabel>();
+
+        int nbBuildsToAnalyze = builds.size();
+        for (AbstractBuild<?, ?> currentBuild : builds) {
+          if (buildsLimits.in(nbBuildsToAnalyze)) {
+            if (!buildsLimits.includedByStep(currentBuild.number)) {
+              continue;
+            }
+            NumberOnlyBuildLabel label = new NumberOnlyBuildLabel(currentBuild);
+            TrendIndex.ReportEntry performanceReport = trendIndex.getReport(currentBuild,
+                reportName);
+            if (performanceReport == null) {
+              nbBuildsToAnalyze--;
+              continue;
+            }
+            dataSetBuilderThroughput.add(performanceReport.getThroughput(),
+                Messages.ProjectAction_Throughput(), label);
+          }
+          nbBuildsToAnalyze--;
+        }
+        return createThroughputChart(dataSetBuilderThroughput.build());
+      }
+    }, 400, 200);
   }
 
   	public void doRespondingTimeGraphPerTestCaseMode(StaplerRequest request,
@@ -316,53 +488,57 @@ public final class PerformanceProjectAction implements Action {
   	      response.sendRedirect2(request.getContextPath() + "/images/headless.png");
   	      return;
   	    }
-  	    DataSetBuilder<String, NumberOnlyBuildLabel> dataSetBuilderAverage = new DataSetBuilder<String, NumberOnlyBuildLabel>();
-  	    List<? extends AbstractBuild<?, ?>> builds = getProject().getBuilds();
-  	    Range buildsLimits = getFirstAndLastBuild(request, builds);
-  	    
+  	    final TrendIndex trendIndex = TrendIndex.forProject(getProject());
+  	    final List<? extends AbstractBuild<?, ?>> builds = getProject().getBuilds();
+  	    final Range buildsLimits = getFirstAndLastBuild(request, builds);
+  	    final String reportName = performanceReportNameFile;
+  	    GraphCache.generateGraph(request, response, getProject(),
+  	        getGraphKey("respondingTimeGraphPerTestCaseMode", reportName, buildsLimits), new GraphCache.Renderer() {
+  	      public JFreeChart createChart() {
+  	        DataSetBuilder<String, NumberOnlyBuildLabel> dataSetBuilderAverage = new DataSetBuilder<String, NumberOnlyBuildLabel>();
+
+  	        int nbBuildsToAnalyze = builds.size();
   	    
-  	    int nbBuildsToAnalyze = builds.size();
-  	    
-  	    for (AbstractBuild<?, ?> build : builds) {
-  	       if (buildsLimits.in(nbBuildsToAnalyze)) {
-  	        NumberOnlyBuildLabel label = new NumberOnlyBuildLabel(build);
+  	        for (AbstractBuild<?, ?> build : builds) {
+  	           if (buildsLimits.in(nbBuildsToAnalyze)) {
+  	            NumberOnlyBuildLabel label = new NumberOnlyBuildLabel(build);
   	        
-  	        if (!buildsLimits.includedByStep(build.number)){
-  	        	continue;
-  	        }
-  	        PerformanceBuildAction performanceBuildAction = build.getAction(PerformanceBuildAction.class);
-  	        if (performanceBuildAction == null) {
-  	          continue;
-  	        }
-  	        PerformanceReport performanceReport = performanceBuildAction.getPerformanceReportMap().getPerformanceReport(
-  	            performanceReportNameFile);
-  	        if (performanceReport == null) {
-  	          nbBuildsToAnalyze--;
-  	          continue;
-  	        }
+  	            if (!buildsLimits.includedByStep(build.number)){
+  	            	continue;
+  	            }
+  	            PerformanceBuildAction performanceBuildAction = build.getAction(PerformanceBuildAction.class);
+  	            if (performanceBuildAction == null) {
+  	              continue;
+  	            }
+  	            TrendIndex.ReportEntry performanceReport = trendIndex.getReport(build,
+  	                reportName);
+  	            if (performanceReport == null) {
+  	              nbBuildsToAnalyze--;
+  	              continue;
+  	            }
   	        
-  	        List<HttpSample> allSamples = new ArrayList<HttpSample>();
-  	        for (UriReport currentReport : performanceReport.getUriReportMap().values()) {
-  	          allSamples.addAll(currentReport.getHttpSampleList());
-  	        }
-  	        Collections.sort(allSamples);
-  	        for(HttpSample sample : allSamples){
-  	        	if (sample.hasError()){
-  	        		// we set duration as 0 for failed tests
-  	        		dataSetBuilderAverage.add(0,
-  	                        sample.getUri(), label);
-  	        	}
-  	        	else{
-  	        	dataSetBuilderAverage.add(sample.getDuration(),
-  	                    sample.getUri(), label);
-  	        	}
-  	        }
+  	            // one point per test case: its slowest sample of the build
+  	            for (TrendIndex.UriEntry currentReport : performanceReport.getUriEntryMap().values()) {
+  	            	if (currentReport.getSlowestDuration() < 0) {
+  	            		continue;
+  	            	}
+  	            	if (currentReport.isSlowestFailed()){
+  	            		// we set duration as 0 for failed tests
+  	            		dataSetBuilderAverage.add(0,
+  	                            currentReport.getUri(), label);
+  	            	}
+  	            	else{
+  	            	dataSetBuilderAverage.add(currentReport.getSlowestDuration(),
+  	                        currentReport.getUri(), label);
+  	            	}
+  	            }
   	        
+  	          }
+  	          nbBuildsToAnalyze--;
+  	        }
+  	        return createRespondingTimeChart(dataSetBuilderAverage.build());
   	      }
-  	      nbBuildsToAnalyze--;
-  	    }
-  	    ChartUtil.generateGraph(request, response,
-  	        createRespondingTimeChart(dataSetBuilderAverage.build()), 600, 200);
+  	    }, 600, 200);
   		
   	}
   
@@ -383,41 +559,53 @@ public final class PerformanceProjectAction implements Action {
           response.sendRedirect2(request.getContextPath() + "/images/headless.png");
           return;
         }
-        DataSetBuilder<String, NumberOnlyBuildLabel> dataSetBuilderAverage = new DataSetBuilder<String, NumberOnlyBuildLabel>();
-        List<? extends AbstractBuild<?, ?>> builds = getProject().getBuilds();
-        Range buildsLimits = getFirstAndLastBuild(request, builds);
-
-        int nbBuildsToAnalyze = builds.size();
-        for (AbstractBuild<?, ?> build : builds) {
-          if (buildsLimits.in(nbBuildsToAnalyze)) {
+        final TrendIndex trendIndex = TrendIndex.forProject(getProject());
+        final List<? extends AbstractBuild<?, ?>> builds = getProject().getBuilds();
+        final Range buildsLimits = getFirstAndLastBuild(request, builds);
+        final String reportName = performanceReportNameFile;
+        GraphCache.generateGraph(request, response, getProject(),
+            getGraphKey("respondingTimeGraph", reportName, buildsLimits), new GraphCache.Renderer() {
+          public JFreeChart createChart() {
+            DataSetBuilder<String, NumberOnlyBuildLabel> dataSetBuilderAverage = new DataSetBuilder<String, NumberOnlyBuildLabel>();
+
+            int nbBuildsToAnalyze = builds.size();
+            for (AbstractBuild<?, ?> build : builds) {
+              if (buildsLimits.in(nbBuildsToAnalyze)) {
         	
-        	if (!buildsLimits.includedByStep(build.number)){
-          		continue;
-          	}  
+            	if (!buildsLimits.includedByStep(build.number)){
+              		continue;
+              	}  
         	    
-            NumberOnlyBuildLabel label = new NumberOnlyBuildLabel(build);
-            PerformanceBuildAction performanceBuildAction = build.getAction(PerformanceBuildAction.class);
-            if (performanceBuildAction == null) {
-              continue;
-            }
-            PerformanceReport performanceReport = performanceBuildAction.getPerformanceReportMap().getPerformanceReport(
-                performanceReportNameFile);
-            if (performanceReport == null) {
+                NumberOnlyBuildLabel label = new NumberOnlyBuildLabel(build);
+                PerformanceBuildAction performanceBuildAction = build.getAction(PerformanceBuildAction.class);
+                if (performanceBuildAction == null) {
+                  continue;
+                }
+                TrendIndex.ReportEntry performanceReport = trendIndex.getReport(build,
+                    reportName);
+                if (performanceReport == null) {
+                  nbBuildsToAnalyze--;
+                  continue;
+                }
+                dataSetBuilderAverage.add(performanceReport.getMedian(),
+                    Messages.ProjectAction_Median(), label);
+                dataSetBuilderAverage.add(performanceReport.getAverage(),
+                    Messages.ProjectAction_Average(), label);
+                dataSetBuilderAverage.add(performanceReport.get90Line(),
+                    Messages.ProjectAction_Line90(), label);
+                List<String> percentiles = performanceReport.getExtraPercentiles();
+                List<Long> percentileValues = performanceReport.getExtraPercentileValues();
+                for (int i = 0; i < percentiles.size(); i++) {
+                  dataSetBuilderAverage.add(percentileValues.get(i),
+                      Messages.ProjectAction_Percentile(percentiles.get(i)), label);
+                }
+              }
               nbBuildsToAnalyze--;
               continue;
             }
-            dataSetBuilderAverage.add(performanceReport.getMedian(),
-                Messages.ProjectAction_Median(), label);
-            dataSetBuilderAverage.add(performanceReport.getAverage(),
-                Messages.ProjectAction_Average(), label);
-            dataSetBuilderAverage.add(performanceReport.get90Line(),
-                Messages.ProjectAction_Line90(), label);
+            return createRespondingTimeChart(dataSetBuilderAverage.build());
           }
-          nbBuildsToAnalyze--;
-          continue;
-        }
-        ChartUtil.generateGraph(request, response,
-            createRespondingTimeChart(dataSetBuilderAverage.build()), 400, 200);
+        }, 400, 200);
   }
 
 
@@ -439,51 +627,198 @@ public final class PerformanceProjectAction implements Action {
         //response.sendRedirect2(request.getContextPath() + "/images/headless.png");
         return;
       }
-      DataSetBuilder<NumberOnlyBuildLabel, String> dataSetBuilderSummarizer = new DataSetBuilder<NumberOnlyBuildLabel, String>();
-      DataSetBuilder<NumberOnlyBuildLabel, String> dataSetBuilderSummarizerErrors = new DataSetBuilder<NumberOnlyBuildLabel, String>();
-      
-      List<?> builds = getProject().getBuilds();
-      Range buildsLimits = getFirstAndLastBuild(request, builds);
-
-      int nbBuildsToAnalyze = builds.size();
-      for (Iterator<?> iterator = builds.iterator(); iterator.hasNext();) {
-        AbstractBuild<?, ?> currentBuild = (AbstractBuild<?, ?>) iterator.next();
-        if (buildsLimits.in(nbBuildsToAnalyze)) {
-          NumberOnlyBuildLabel label = new NumberOnlyBuildLabel(currentBuild);
-          PerformanceBuildAction performanceBuildAction = currentBuild.getAction(PerformanceBuildAction.class);
-          if (performanceBuildAction == null) {
-            continue;
+      final TrendIndex trendIndex = TrendIndex.forProject(getProject());
+      final List<?> builds = getProject().getBuilds();
+      final Range buildsLimits = getFirstAndLastBuild(request, builds);
+      final String reportName = performanceReportNameFile;
+      final String summarizerReportType = performanceReportPosition.getSummarizerReportType();
+      GraphCache.generateGraph(request, response, getProject(),
+          getGraphKey("summarizerGraph" + (summarizerReportType != null ? "Errors" : ""),
+            reportName, buildsLimits), new GraphCache.Renderer() {
+        public JFreeChart createChart() {
+          DataSetBuilder<NumberOnlyBuildLabel, String> dataSetBuilderSummarizer = new DataSetBuilder<NumberOnlyBuildLabel, String>();
+          DataSetBuilder<NumberOnlyBuildLabel, String> dataSetBuilderSummarizerErrors = new DataSetBuilder<NumberOnlyBuildLabel, String>();
+
+          int nbBuildsToAnalyze = builds.size();
+          for (Iterator<?> iterator = builds.iterator(); iterator.hasNext();) {
+            AbstractBuild<?, ?> currentBuild = (AbstractBuild<?, ?>) iterator.next();
+            if (buildsLimits.in(nbBuildsToAnalyze)) {
+              NumberOnlyBuildLabel label = new NumberOnlyBuildLabel(currentBuild);
+              PerformanceBuildAction performanceBuildAction = currentBuild.getAction(PerformanceBuildAction.class);
+              if (performanceBuildAction == null) {
+                continue;
+              }
+              TrendIndex.ReportEntry performanceReport = trendIndex.getReport(currentBuild,
+                  reportName);
+
+              if (performanceReport == null) {
+                nbBuildsToAnalyze--;
+                continue;
+              }
+
+              for (String key:performanceReport.getUriEntryMap().keySet()) {
+                  Long methodAvg=performanceReport.getUriEntryMap().get(key).getAverage();
+                  float methodErrors= performanceReport.getUriEntryMap().get(key).getSummarizerErrors();
+                  dataSetBuilderSummarizer.add(methodAvg, label, key);
+                  dataSetBuilderSummarizerErrors.add(methodErrors, label, key);
+              };
+            }
+           nbBuildsToAnalyze--;
           }
-          PerformanceReport performanceReport = performanceBuildAction.getPerformanceReportMap().getPerformanceReport(
-              performanceReportNameFile);
-
-          if (performanceReport == null) {
-            nbBuildsToAnalyze--;
-            continue;
+          if (summarizerReportType != null) {
+            return createSummarizerChart(dataSetBuilderSummarizerErrors.build(),"%",Messages.ProjectAction_PercentageOfErrors());
+          }
+          else {
+            return createSummarizerChart(dataSetBuilderSummarizer.build(),"ms",Messages.ProjectAction_RespondingTime());
           }
-
-          for (String key:performanceReport.getUriReportMap().keySet()) {
-              Long methodAvg=performanceReport.getUriReportMap().get(key).getAverage();
-              float methodErrors= Float.valueOf(performanceReport.getUriReportMap().get(key).getSummarizerErrors());
-              dataSetBuilderSummarizer.add(methodAvg, label, key);
-              dataSetBuilderSummarizerErrors.add(methodErrors, label, key);
-          };
         }
-       nbBuildsToAnalyze--;
-      }
+      }, 400, 200);
+  }
 
-      String summarizerReportType = performanceReportPosition.getSummarizerReportType();
 
-      if (summarizerReportType != null) {
-        ChartUtil.generateGraph(request, response,
-        createSummarizerChart(dataSetBuilderSummarizerErrors.build(),"%",Messages.ProjectAction_PercentageOfErrors()), 400, 200);
+  /**
+   * The aggregates of a report in each build, newest first, as JSON read from
+   * the {@link TrendIndex}, for charts drawn in the browser.
+   *
+   * Parameters: {@code performanceReportPosition}, {@code builds} (number of
+   * builds), {@code first} and {@code last} (build numbers), {@code uris}
+   * (also write the aggregates of each URI) and {@code fields}, see
+   * {@link JsonWriter}.
+   */
+  public void doTrendData(StaplerRequest request, StaplerResponse response)
+      throws IOException {
+    String performanceReportNameFile = getReportParameter(request);
+    if (performanceReportNameFile == null) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+    long maxBuilds = JsonWriter.getParameter(request, "builds", 0);
+    long first = JsonWriter.getParameter(request, "first", 0);
+    long last = JsonWriter.getParameter(request, "last", Long.MAX_VALUE);
+    boolean withUris = Boolean.parseBoolean(request.getParameter("uris"));
+    TrendIndex trendIndex = TrendIndex.forProject(getProject());
+
+    JsonWriter json = JsonWriter.forResponse(request, response);
+    json.beginObject();
+    json.name("report").value(performanceReportNameFile);
+    json.name("builds").beginArray();
+    int count = 0;
+    for (AbstractBuild<?, ?> build : getProject().getBuilds()) {
+      if (build.number > last) {
+        continue;
       }
-      else {
-        ChartUtil.generateGraph(request, response,
-        createSummarizerChart(dataSetBuilderSummarizer.build(),"ms",Messages.ProjectAction_RespondingTime()), 400, 200);
+      if (build.number < first || (maxBuilds > 0 && count >= maxBuilds)) {
+        break;
+      }
+      TrendIndex.ReportEntry report = trendIndex.getReport(build, performanceReportNameFile);
+      if (report == null) {
+        continue;
+      }
+      json.beginObject();
+      json.name("number").value(build.number);
+      json.field("timestamp", build.getTimeInMillis());
+      report.writeJson(json, withUris);
+      json.endObject();
+      count++;
+    }
+    json.endArray();
+    json.endObject();
+    json.close();
+  }
+
+  /**
+   * The builds where the average response time of a URI of a report shifted,
+   * newest first, among the builds of the
+   * {@link PerformancePublisher#getGraphHistory()}, see
+   * {@link TrendChangePoints}.
+   */
+  public List<TrendChangePoints.Shift> getShifts(String performanceReportNameFile) {
+    List<AbstractBuild<?, ?>> builds = getHistoryBuilds();
+    List<TrendChangePoints.Shift> shifts = new ArrayList<TrendChangePoints.Shift>();
+    if (builds.isEmpty()) {
+      return shifts;
+    }
+    int oldest = builds.get(builds.size() - 1).getNumber();
+    for (TrendChangePoints.Shift shift : TrendIndex.forProject(getProject())
+        .getChangePoints(builds, performanceReportNameFile).getShifts()) {
+      if (shift.getBuildNumber() > oldest) {
+        shifts.add(shift);
       }
+    }
+    return shifts;
   }
 
+  /**
+   * The last builds of the project, newest first, up to the
+   * {@link PerformancePublisher#getGraphHistory()}.
+   */
+  private List<AbstractBuild<?, ?>> getHistoryBuilds() {
+    int history = PerformancePublisher.DEFAULT_GRAPH_HISTORY;
+    PerformancePublisher publisher = getProject().getPublishersList().get(PerformancePublisher.class);
+    if (publisher != null) {
+      history = publisher.getGraphHistory();
+    }
+    List<AbstractBuild<?, ?>> builds = new ArrayList<AbstractBuild<?, ?>>();
+    for (AbstractBuild<?, ?> build = getProject().getLastBuild(); build != null
+        && (history <= 0 || builds.size() < history); build = build.getPreviousBuild()) {
+      builds.add(build);
+    }
+    return builds;
+  }
+
+  /**
+   * The shifts of {@link #getShifts(String)} as JSON. Parameters:
+   * {@code performanceReportPosition} and {@code fields}, see
+   * {@link JsonWriter}.
+   */
+  public void doChangePoints(StaplerRequest request, StaplerResponse response)
+      throws IOException {
+    String performanceReportNameFile = getReportParameter(request);
+    if (performanceReportNameFile == null) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+    JsonWriter json = JsonWriter.forResponse(request, response);
+    json.beginObject();
+    json.name("report").value(performanceReportNameFile);
+    json.name("shifts").beginArray();
+    for (TrendChangePoints.Shift shift : getShifts(performanceReportNameFile)) {
+      json.beginObject();
+      json.name("number").value(shift.getBuildNumber());
+      json.name("uri").value(shift.getStaplerUri());
+      json.field("before", shift.getBefore());
+      json.field("after", shift.getAfter());
+      json.field("percent", shift.getPercent());
+      json.endObject();
+    }
+    json.endArray();
+    json.endObject();
+    json.close();
+  }
+
+  /**
+   * The {@code performanceReportPosition} parameter, which may be left out
+   * when the project has a single report.
+   *
+   * @return null if it is missing and the project has several reports
+   */
+  private String getReportParameter(StaplerRequest request) {
+    String performanceReportNameFile = request.getParameter("performanceReportPosition");
+    if (performanceReportNameFile == null && getPerformanceReportList().size() == 1) {
+      performanceReportNameFile = getPerformanceReportList().get(0);
+    }
+    return performanceReportNameFile;
+  }
+
+  /**
+   * Identifies a graph of a report drawn over a range of builds, see
+   * {@link GraphCache}.
+   */
+  private static String getGraphKey(String graph, String performanceReportNameFile,
+      Range buildsLimits) {
+    return graph + '|' + performanceReportNameFile + '|' + buildsLimits.first
+        + '-' + buildsLimits.last + '/' + buildsLimits.step;
+  }
 
   /**
    * <p>
@@ -578,12 +913,12 @@ public final class PerformanceProjectAction implements Action {
     for (File entry : file.listFiles()) {
       if (entry.isDirectory()) {
         for (File e : entry.listFiles()) {
-            if (!e.getName().contains(".serialized"))  {
-                this.performanceReportList.add(e.getName());
+            if (!ReportCache.isCacheFile(e.getName()))  {
+                this.performanceReportList.add(PerformanceReportParser.getReportFileName(e.getName()));
             }
         }
       } else {
-          if (!entry.getName().contains(".serialized")) {
+          if (!ReportCache.isCacheFile(entry.getName())) {
               this.performanceReportList.add(entry.getName());
           }
       }
@@ -688,6 +1023,7 @@ public final class PerformanceProjectAction implements Action {
       String performanceReportNameFile) {
 
     DataSetBuilder<String, NumberOnlyBuildLabel> dataSet = new DataSetBuilder<String, NumberOnlyBuildLabel>();
+    TrendIndex trendIndex = TrendIndex.forProject(getProject());
     List<? extends AbstractBuild<?, ?>> builds = getProject().getBuilds();
     Range buildsLimits = getFirstAndLastBuild(request, builds);
 
@@ -699,8 +1035,7 @@ public final class PerformanceProjectAction implements Action {
         if (performanceBuildAction == null) {
           continue;
         }
-        PerformanceReport report = null;
-        report = performanceBuildAction.getPerformanceReportMap().getPerformanceReport(
+        TrendIndex.ReportEntry report = trendIndex.getReport(currentBuild,
             performanceReportNameFile);
         if (report == null) {
           nbBuildsToAnalyze--;
@@ -712,6 +1047,12 @@ public final class PerformanceProjectAction implements Action {
             Messages.ProjectAction_Median(), label);
         dataSet.add(Math.round(report.get90Line()),
             Messages.ProjectAction_Line90(), label);
+        List<String> percentiles = report.getExtraPercentiles();
+        List<Long> percentileValues = report.getExtraPercentileValues();
+        for (int i = 0; i < percentiles.size(); i++) {
+          dataSet.add(percentileValues.get(i),
+              Messages.ProjectAction_Percentile(percentiles.get(i)), label);
+        }
         dataSet.add(Math.round(report.getMin()),
             Messages.ProjectAction_Minimum(), label);
         dataSet.add(Math.round(report.getMax()),
@@ -8,12 +8,16 @@ import hudson.model.AbstractProject;
 import hudson.model.Action;
 import hudson.model.BuildListener;
 import hudson.model.Result;
+import hudson.model.TaskListener;
+import hudson.remoting.RemoteOutputStream;
+import hudson.remoting.VirtualChannel;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.BuildStepMonitor;
 import hudson.tasks.Publisher;
 import hudson.tasks.Recorder;
 
 import hudson.util.ListBoxModel;
+import org.apache.commons.io.IOUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
 
 import java.io.*;
@@ -24,8 +28,12 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
 
 public class PerformancePublisher extends Recorder {
   @Extension
@@ -92,6 +100,12 @@ public class PerformancePublisher extends Recorder {
   
   private String errorUnstableResponseTimeThreshold = "";
 
+  /**
+   * {@link #errorUnstableResponseTimeThreshold} compiled, see
+   * {@link #getThresholdRules()}.
+   */
+  private transient ThresholdRules thresholdRules;
+
 
 
   private double relativeFailedThresholdPositive = 0;
@@ -124,6 +138,71 @@ public class PerformancePublisher extends Recorder {
 
   private boolean modePerformancePerTestCase = false;
 
+  /**
+   * Percentiles shown and checked in addition to the median and the 90% line.
+   */
+  public static final String DEFAULT_PERCENTILES = "95,99,99.9";
+
+  /**
+   * Comma separated percentiles, see {@link #DEFAULT_PERCENTILES}.
+   */
+  private String percentiles = DEFAULT_PERCENTILES;
+
+  /**
+   * Maximum number of report files parsed at the same time.
+   */
+  private int parserThreads = 1;
+
+  /**
+   * Memory, in MB, that files parsed at the same time may use, 0 for no
+   * limit. See {@link PerformanceReportParser#parse(AbstractBuild, Collection, hudson.model.TaskListener, int, long)}.
+   * Null in the jobs saved before it was added, which get
+   * {@link #DEFAULT_PARSER_MEMORY_BUDGET}.
+   */
+  private Integer parserMemoryBudget = DEFAULT_PARSER_MEMORY_BUDGET;
+
+  public static final int DEFAULT_PARSER_MEMORY_BUDGET = 512;
+
+  /**
+   * Parse the result files on the node that ran the build, and only bring
+   * the aggregates of each file back to the master instead of the file.
+   */
+  private boolean parseOnAgent = false;
+
+  /**
+   * With {@link #parseOnAgent}, also keep a gzipped copy of the result files
+   * in the build directory.
+   */
+  private boolean archiveReports = false;
+
+  /**
+   * Directory of the build holding the copies kept by {@link #archiveReports}.
+   */
+  private static final String ARCHIVED_REPORTS_DIRECTORY = "performance-archive";
+
+  /**
+   * Number of builds, the shown one included, drawn by the trend graphs of a
+   * build report, 0 for all of them. Null in the jobs saved before it was
+   * added, which get {@link #DEFAULT_GRAPH_HISTORY}.
+   */
+  private Integer graphHistory = DEFAULT_GRAPH_HISTORY;
+
+  public static final int DEFAULT_GRAPH_HISTORY = 50;
+
+  /**
+   * In relative mode, a difference only counts against the thresholds when
+   * the {@link MannWhitney} test of the URI gives a p-value below this level
+   * in its direction. 0 to compare the numbers only.
+   */
+  private double significanceLevel = 0;
+
+  /**
+   * In relative mode, compare with the median of the metric of each URI over
+   * this number of successful builds instead of one build. 0 to compare with
+   * the previous or the nth build.
+   */
+  private int baselineBuilds = 0;
+
   /**
    * @deprecated as of 1.3. for compatibility
    */
@@ -136,6 +215,33 @@ public class PerformancePublisher extends Recorder {
 
 
 
+  /**
+   * @deprecated use the {@link DataBoundConstructor} one
+   */
+  @Deprecated
+  public PerformancePublisher(int errorFailedThreshold,
+                            int errorUnstableThreshold,
+                            String errorUnstableResponseTimeThreshold,
+                            double relativeFailedThresholdPositive,
+                            double relativeFailedThresholdNegative,
+                            double relativeUnstableThresholdPositive,
+                            double relativeUnstableThresholdNegative,
+                            int nthBuildNumber,
+                            boolean modePerformancePerTestCase,
+                            String comparisonType,
+                            boolean modeOfThreshold,
+                            boolean compareBuildPrevious,
+                            List<? extends PerformanceReportParser> parsers) {
+    this(errorFailedThreshold, errorUnstableThreshold,
+        errorUnstableResponseTimeThreshold, relativeFailedThresholdPositive,
+        relativeFailedThresholdNegative, relativeUnstableThresholdPositive,
+        relativeUnstableThresholdNegative, nthBuildNumber,
+        modePerformancePerTestCase, comparisonType, modeOfThreshold,
+        compareBuildPrevious, DEFAULT_PERCENTILES, 1,
+        DEFAULT_PARSER_MEMORY_BUDGET, false, false, DEFAULT_GRAPH_HISTORY, 0, 0,
+        parsers);
+  }
+
 @DataBoundConstructor
   public PerformancePublisher(int errorFailedThreshold,
                             int errorUnstableThreshold,
@@ -149,6 +255,14 @@ public class PerformancePublisher extends Recorder {
                             String comparisonType,
                             boolean modeOfThreshold,
                             boolean compareBuildPrevious,
+                            String percentiles,
+                            int parserThreads,
+                            int parserMemoryBudget,
+                            boolean parseOnAgent,
+                            boolean archiveReports,
+                            int graphHistory,
+                            double significanceLevel,
+                            int baselineBuilds,
                             List<? extends PerformanceReportParser> parsers) {
 
     this.errorFailedThreshold = errorFailedThreshold;
@@ -165,6 +279,14 @@ public class PerformancePublisher extends Recorder {
     this.optionType = comparisonType;
     this.modeOfThreshold = modeOfThreshold;
     this.compareBuildPrevious = compareBuildPrevious;
+    this.percentiles = percentiles;
+    this.parserThreads = Math.max(1, parserThreads);
+    this.parserMemoryBudget = Math.max(0, parserMemoryBudget);
+    this.parseOnAgent = parseOnAgent;
+    this.archiveReports = archiveReports;
+    this.graphHistory = Math.max(0, graphHistory);
+    this.significanceLevel = Math.max(0, Math.min(significanceLevel, 1));
+    this.baselineBuilds = Math.max(0, baselineBuilds);
 
     if (parsers == null)
         parsers = Collections.emptyList();
@@ -183,6 +305,17 @@ public class PerformancePublisher extends Recorder {
             getPerformanceReportBuildFileName(performanceReportName)));
   }
 
+  /**
+   * Gzipped copy of a result file, kept when the files are parsed on the
+   * agent.
+   */
+  public static File getArchivedReport(AbstractBuild<?, ?> build,
+      String parserDisplayName, String performanceReportName) {
+    return new File(build.getRootDir(), ARCHIVED_REPORTS_DIRECTORY
+        + File.separator + parserDisplayName + File.separator
+        + getPerformanceReportBuildFileName(performanceReportName) + ".gz");
+  }
+
   @Override
   public Action getProjectAction(AbstractProject<?, ?> project) {
     return new PerformanceProjectAction(project);
@@ -279,21 +412,9 @@ public class PerformancePublisher extends Recorder {
     //For absolute error/unstable threshold..
     if (!modeOfThreshold) {
       try {
-        List<UriReport> curruriList = null;
-        HashMap<String, String> responseTimeThresholdMap = null;
-
-        if (!"".equals(this.errorUnstableResponseTimeThreshold) && this.errorUnstableResponseTimeThreshold != null) {
-
-          responseTimeThresholdMap = new HashMap<String, String>();
-          String[] lines = this.errorUnstableResponseTimeThreshold.split("\n");
-
-          for (String line : lines) {
-            String[] components = line.split(":");
-            if (components.length == 2) {
-              logger.println("Setting threshold: " + components[0] +":"+ components[1]);
-              responseTimeThresholdMap.put(components[0], components[1]);
-            }
-          }
+        ThresholdRules rules = getThresholdRules();
+        for (ThresholdRules.Rule rule : rules.getRules()) {
+          logger.println("Setting threshold: " + rule);
         }
 
         if (errorUnstableThreshold >= 0 && errorUnstableThreshold <= 100) {
@@ -320,6 +441,7 @@ public class PerformancePublisher extends Recorder {
         build.addAction(a);
         logger.print("\n\n\n");
 
+        List<PerformanceReport> buildReports = new ArrayList<PerformanceReport>();
         for (PerformanceReportParser parser : parsers) {
 
           String glob = parser.glob;
@@ -339,8 +461,8 @@ public class PerformancePublisher extends Recorder {
             return true;
           }
 
-          List<File> localReports = copyReportsToMaster(build, logger, files, parser.getDescriptor().getDisplayName());
-          Collection<PerformanceReport> parsedReports = parser.parse(build, localReports, listener);
+          Collection<PerformanceReport> parsedReports = parseReports(build, listener, files, parser);
+          buildReports.addAll(parsedReports);
 
           // mark the build as unstable or failure depending on the outcome.
           for (PerformanceReport r : parsedReports) {
@@ -348,8 +470,6 @@ public class PerformancePublisher extends Recorder {
             r.setBuildAction(a);
             double errorPercent = r.errorPercent();
 
-            curruriList = r.getUriListOrdered();
-
             if (errorFailedThreshold >= 0 && errorPercent - errorFailedThreshold > thresholdTolerance) {
                 result = Result.FAILURE;
                 build.setResult(Result.FAILURE);
@@ -360,18 +480,16 @@ public class PerformancePublisher extends Recorder {
             long average = r.getAverage();
             logger.println(r.getReportFileName() + " has an average of: "+ Long.toString(average));
 
-            try {
-              if (responseTimeThresholdMap != null && responseTimeThresholdMap.get(r.getReportFileName()) != null) {
-                if (Long.parseLong(responseTimeThresholdMap.get(r.getReportFileName())) <= average) {
-                    logger.println("UNSTABLE: " + r.getReportFileName() + " has exceeded the threshold of ["+Long.parseLong(responseTimeThresholdMap.get(r.getReportFileName()))+"] with the time of ["+Long.toString(average)+"]");
-                    result = Result.UNSTABLE;
-                }
+            for (String error : rules.getErrors(r.getReportFileName())) {
+              logger.println("ERROR: " + error);
+              result = Result.FAILURE;
+              build.setResult(Result.FAILURE);
+            }
+            for (ThresholdRules.Violation violation : rules.check(r)) {
+              logger.println(violation.getResult() + ": " + violation.getMessage());
+              if (violation.getResult().isWorseThan(result)) {
+                result = violation.getResult();
               }
-            } catch (NumberFormatException nfe) {
-                logger.println("ERROR: Threshold set to a non-number [" + responseTimeThresholdMap.get(r.getReportFileName()) + "]");
-                result = Result.FAILURE;
-                build.setResult(Result.FAILURE);
-
             }
             if (result.isWorseThan(build.getResult())) {
                 build.setResult(result);
@@ -384,6 +502,7 @@ public class PerformancePublisher extends Recorder {
             logger.print("\n\n\n");
           }
         }
+        indexReports(build, buildReports, logger);
       } catch(Exception e) {
       }
     } else {
@@ -408,14 +527,13 @@ public class PerformancePublisher extends Recorder {
                     + Result.UNSTABLE.toString().toLowerCase());
         }
 
-        List<UriReport> curruriList = null;
-
         // add the report to the build object.
         PerformanceBuildAction a = new PerformanceBuildAction(build, logger, parsers);
         build.addAction(a);
         logger.print("\n\n\n");
 
 
+        List<PerformanceReport> buildReports = new ArrayList<PerformanceReport>();
         for (PerformanceReportParser parser : parsers) {
           String glob = parser.glob;
           List<FilePath> files = locatePerformanceReports(build.getWorkspace(), glob);
@@ -432,56 +550,60 @@ public class PerformancePublisher extends Recorder {
             return true;
           }
 
-          List<File> localReports = copyReportsToMaster(build, logger, files, parser.getDescriptor().getDisplayName());
-          Collection<PerformanceReport> parsedReports = parser.parse(build, localReports, listener);
-
+          Collection<PerformanceReport> parsedReports = parseReports(build, listener, files, parser);
+          buildReports.addAll(parsedReports);
 
           for (PerformanceReport r : parsedReports) {
             r.setBuildAction(a);
-            double errorPercent = r.errorPercent();
-
-            //uri list is the list of labels in the current jmeter results file
-            curruriList = r.getUriListOrdered();
           }
         }
+        indexReports(build, buildReports, logger);
 
         // getting previous build/nth previous build..
         AbstractBuild prevBuild = null;
+        List<AbstractBuild<?, ?>> baselineBuildList = null;
 
-        if(compareBuildPrevious){
+        if (baselineBuilds > 0) {
+          baselineBuildList = getBaselineBuilds(build);
+          prevBuild = baselineBuildList.isEmpty() ? null : baselineBuildList.get(0);
+        } else if(compareBuildPrevious){
           prevBuild = getPrevBuild(build, listener);
         } else {
           prevBuild = getnthBuild(build, listener);
         }
 
-        List<UriReport> prevuriList = null;
-
         if (prevBuild != null) {
-          PerformanceBuildAction b = new PerformanceBuildAction(prevBuild, logger, parsers);
-          prevBuild.addAction(b);
-
-          //getting files related to the previous build selected
-          for (PerformanceReportParser parser : parsers) {
-            String glob = parser.glob;
-            logger.println("Performance: Recording " + parser.getReportName()+ " reports '" + glob + "'");
-
-            List<File> localReports = getExistingReports(prevBuild, logger, parser.getDescriptor().getDisplayName());
-            Collection<PerformanceReport> parsedReports = parser.parse(prevBuild, localReports, listener);
-
-
-            for (PerformanceReport r : parsedReports) {
-              r.setBuildAction(b);
-
-              //uri list is the list of labels in the previous jmeter results file
-              prevuriList = r.getUriListOrdered();
+          // the aggregates of both builds come from the trend index, the
+          // previous build is not parsed again
+          TrendIndex trendIndex = TrendIndex.forProject(build.getProject());
+          Map<String, TrendIndex.ReportEntry> prevReports = trendIndex.getReports(prevBuild);
+          RollingBaseline baseline = baselineBuildList == null ? null
+              : trendIndex.getBaseline(baselineBuildList, configType);
+
+          // histograms for the significance test: the current ones are in
+          // memory, those of the previous build or of the builds of the
+          // baseline are read from their parse caches
+          Map<String, PerformanceReport> currHistograms = null;
+          Map<String, Map<String, LatencyHistogram>> prevHistograms = null;
+          if (significanceLevel > 0) {
+            logger.println("Performance: Relative differences with a p-value of "
+                    + significanceLevel + " or more are ignored");
+            currHistograms = new HashMap<String, PerformanceReport>();
+            for (PerformanceReport r : buildReports) {
+              currHistograms.put(r.getReportFileName(), r);
             }
+            prevHistograms = getCachedHistograms(baselineBuildList != null ? baselineBuildList
+                : Collections.<AbstractBuild<?, ?>>singletonList(prevBuild), logger);
           }
 
           result = Result.SUCCESS;
           String failedLabel = null, unStableLabel = null;
-          double relativeDiff=0, relativeDiffPercent=0;
 
-          logger.print("\nComparison build no. - "+prevBuild.number+" and "+build.number +" using ");
+          if (baseline != null) {
+            logger.print("\nComparison build no. - "+build.number+" and the median of builds no. "+baseline.getBuildNumbers() +" using ");
+          } else {
+            logger.print("\nComparison build no. - "+prevBuild.number+" and "+build.number +" using ");
+          }
 
 
           //Comparing both builds based on either average, median or 90 percentile response time...
@@ -506,97 +628,87 @@ public class PerformancePublisher extends Recorder {
           }
 
 
-          //comparing the labels and calculating the differences...
-          for (int i = 0; i < prevuriList.size(); i++) {
-            for (int j = 0; j < curruriList.size(); j++) {
-              if(prevuriList.get(i).getStaplerUri().equalsIgnoreCase(curruriList.get(j).getStaplerUri())) {
-
-                relativeDiff = curruriList.get(j).getAverage() - prevuriList.get(i).getAverage();
-                relativeDiffPercent = ((double) relativeDiff * 100) / prevuriList.get(i).getAverage();
-                relativeDiffPercent = Math.round(relativeDiffPercent * 100);
-                relativeDiffPercent = relativeDiffPercent/100;
-
-                relativeDiff = curruriList.get(j).getMedian() - prevuriList.get(i).getMedian();
-                relativeDiffPercent = ((double) relativeDiff * 100) / prevuriList.get(i).getMedian();
-                relativeDiffPercent = Math.round(relativeDiffPercent * 100);
-                relativeDiffPercent = relativeDiffPercent/100;
-
-                relativeDiff = curruriList.get(j).get90Line() - prevuriList.get(i).get90Line();
-                relativeDiffPercent = ((double) relativeDiff * 100) / prevuriList.get(i).get90Line();
-                relativeDiffPercent = Math.round(relativeDiffPercent * 100);
-                relativeDiffPercent = relativeDiffPercent/100;
-
-
-                if(configType.equalsIgnoreCase("ART")) {
-
-                  relativeDiff = curruriList.get(j).getAverage() - prevuriList.get(i).getAverage();
-                  relativeDiffPercent = ((double) relativeDiff * 100) / prevuriList.get(i).getAverage();
-
-                  relativeDiffPercent = Math.round(relativeDiffPercent * 100);
-                  relativeDiffPercent = relativeDiffPercent/100;
-
-                  logger.println(prevuriList.get(i).getStaplerUri() + "\t" + curruriList.get(j).getStaplerUri() + "\t\t" +
-                          prevuriList.get(i).getAverage() + "\t\t\t" + curruriList.get(j).getAverage() + "\t\t\t" + relativeDiff + "\t\t" + relativeDiffPercent);
-
-
-                } else if(configType.equalsIgnoreCase("MRT")) {
-
-                  relativeDiff = curruriList.get(j).getMedian() - prevuriList.get(i).getMedian();
-                  relativeDiffPercent = ((double) relativeDiff * 100) / prevuriList.get(i).getMedian();
-
-                  relativeDiffPercent = Math.round(relativeDiffPercent * 100);
-                  relativeDiffPercent = relativeDiffPercent/100;
-
-                  logger.println(prevuriList.get(i).getStaplerUri() + "\t" + curruriList.get(j).getStaplerUri() + "\t\t" +
-                          prevuriList.get(i).getMedian() + "\t\t\t" + curruriList.get(j).getMedian() + "\t\t\t" + relativeDiff + "\t\t" + relativeDiffPercent);
-
-
-                } else if(configType.equalsIgnoreCase("PRT")) {
-
-                  relativeDiff = curruriList.get(j).get90Line() - prevuriList.get(i).get90Line();
-                  relativeDiffPercent = ((double) relativeDiff * 100) / prevuriList.get(i).get90Line();
-
-                  relativeDiffPercent = Math.round(relativeDiffPercent * 100);
-                  relativeDiffPercent = relativeDiffPercent/100;
-
-                  logger.println(prevuriList.get(i).getStaplerUri() + "\t" + curruriList.get(j).getStaplerUri() + "\t\t" +
-                          prevuriList.get(i).get90Line() + "\t\t\t" + curruriList.get(j).get90Line() + "\t\t\t" + relativeDiff + "\t\t" + relativeDiffPercent);
-
+          //comparing the reports by file name, then their labels, worst regressions first...
+          for (TrendIndex.ReportEntry currReport : trendIndex.getReports(build).values()) {
+            List<UriComparison.Diff> diffs;
+            if (baseline != null) {
+              Map<String, Long> baselineValues = baseline.getValues(currReport.getReportFileName());
+              if (baselineValues == null) {
+                logger.println("Performance: " + currReport.getReportFileName()
+                        + " is not in builds no. " + baseline.getBuildNumbers() + ", not compared");
+                continue;
+              }
+              diffs = UriComparison.compareWith(baselineValues, currReport.getUriEntryMap(), configType);
+            } else {
+              TrendIndex.ReportEntry prevReport = prevReports.get(currReport.getReportFileName());
+              if (prevReport == null) {
+                logger.println("Performance: " + currReport.getReportFileName()
+                        + " is not in build no. " + prevBuild.number + ", not compared");
+                continue;
+              }
+              diffs = UriComparison.compare(prevReport.getUriEntryMap(), currReport.getUriEntryMap(), configType);
+            }
+            logger.println(currReport.getReportFileName());
+            PerformanceReport currHistogramReport = currHistograms == null ? null
+                : currHistograms.get(currReport.getReportFileName());
+            Map<String, LatencyHistogram> prevHistogramReport = prevHistograms == null ? null
+                : prevHistograms.get(currReport.getReportFileName());
+
+            for (UriComparison.Diff diff : diffs) {
+              double relativeDiffPercent = diff.getPercent();
+
+              logger.println(diff.getPreviousStaplerUri() + "\t" + diff.getStaplerUri() + "\t\t" +
+                      diff.getPrevious() + "\t\t\t" + diff.getCurrent() + "\t\t\t" + diff.getDiff() + "\t\t" + relativeDiffPercent);
+
+              if (currHistogramReport != null && prevHistogramReport != null) {
+                UriReport currUri = currHistogramReport.getUriReportMap().get(diff.getStaplerUri());
+                LatencyHistogram prevUri = prevHistogramReport.get(diff.getPreviousStaplerUri());
+                MannWhitney test = currUri == null || prevUri == null ? null
+                    : MannWhitney.compare(prevUri, currUri.getHistogram());
+                if (test != null && test.getPValue(relativeDiffPercent >= 0) >= significanceLevel) {
+                  logger.println("\t(not significant, p=" + String.format("%.4f", test.getPValue(relativeDiffPercent >= 0)) + ")");
+                  continue;
                 }
+              }
 
-                //setting the build status based on the differences calculated...
-                if(relativeDiffPercent < 0) {
-                  if (relativeFailedThresholdNegative >= 0 && Math.abs(relativeDiffPercent) - relativeFailedThresholdNegative > thresholdTolerance) {
+              if(relativeDiffPercent < 0) {
+                if (relativeFailedThresholdNegative >= 0 && Math.abs(relativeDiffPercent) - relativeFailedThresholdNegative > thresholdTolerance) {
 
-                    result = Result.FAILURE;
-                    build.setResult(Result.FAILURE);
-                    failedLabel = prevuriList.get(i).getStaplerUri();
+                  result = Result.FAILURE;
+                  build.setResult(Result.FAILURE);
+                  if (failedLabel == null) {
+                    failedLabel = diff.getStaplerUri();
+                  }
 
-                  } else if (relativeUnstableThresholdNegative >= 0 && Math.abs(relativeDiffPercent) - relativeUnstableThresholdNegative > thresholdTolerance) {
+                } else if (relativeUnstableThresholdNegative >= 0 && Math.abs(relativeDiffPercent) - relativeUnstableThresholdNegative > thresholdTolerance) {
 
-                    result = Result.UNSTABLE;
-                    unStableLabel = prevuriList.get(i).getStaplerUri();
+                  result = Result.UNSTABLE;
+                  if (unStableLabel == null) {
+                    unStableLabel = diff.getStaplerUri();
                   }
-                } else if(relativeDiffPercent >= 0) {
+                }
+              } else if(relativeDiffPercent >= 0) {
 
-                  if (relativeFailedThresholdPositive >= 0 && Math.abs(relativeDiffPercent) - relativeFailedThresholdPositive > thresholdTolerance) {
+                if (relativeFailedThresholdPositive >= 0 && Math.abs(relativeDiffPercent) - relativeFailedThresholdPositive > thresholdTolerance) {
 
-                    result = Result.FAILURE;
-                    build.setResult(Result.FAILURE);
-                    failedLabel = prevuriList.get(i).getStaplerUri();
+                  result = Result.FAILURE;
+                  build.setResult(Result.FAILURE);
+                  if (failedLabel == null) {
+                    failedLabel = diff.getStaplerUri();
+                  }
 
-                  } else if (relativeUnstableThresholdPositive >= 0 && Math.abs(relativeDiffPercent) - relativeUnstableThresholdPositive > thresholdTolerance) {
+                } else if (relativeUnstableThresholdPositive >= 0 && Math.abs(relativeDiffPercent) - relativeUnstableThresholdPositive > thresholdTolerance) {
 
-                    result = Result.UNSTABLE;
-                    unStableLabel = prevuriList.get(i).getStaplerUri();
+                  result = Result.UNSTABLE;
+                  if (unStableLabel == null) {
+                    unStableLabel = diff.getStaplerUri();
                   }
                 }
-
-                if (result.isWorseThan(build.getResult())) {
-                  build.setResult(result);
-                }
               }
 
+              if (result.isWorseThan(build.getResult())) {
+                build.setResult(result);
+              }
             }
           }
 
@@ -610,6 +722,174 @@ public class PerformancePublisher extends Recorder {
     return true;
   }
 
+  /**
+   * Reads the reports of a previous build from the caches written when its
+   * files were parsed, without their samples.
+   *
+   * @return the reports by file name, without those whose cache is missing
+   *         or of another version
+   */
+  private Map<String, PerformanceReport> getCachedReports(
+      AbstractBuild<?, ?> build, PrintStream logger) {
+    Map<String, PerformanceReport> reports = new HashMap<String, PerformanceReport>();
+    for (PerformanceReportParser parser : parsers) {
+      File[] files = getPerformanceReportDirectory(build,
+          parser.getDescriptor().getDisplayName(), logger);
+      if (files == null) {
+        continue;
+      }
+      for (File file : files) {
+        String name = file.getName();
+        if (ReportCache.isCacheFile(name)) {
+          continue;
+        }
+        File cache = name.endsWith(PerformanceReportParser.SUMMARY_SUFFIX) ? file
+            : ReportCache.getCacheFile(file);
+        if (!cache.isFile()) {
+          continue;
+        }
+        try {
+          PerformanceReport report = ReportCache.read(cache, false, null);
+          if (report != null) {
+            reports.put(PerformanceReportParser.getReportFileName(name), report);
+          }
+        } catch (IOException e) {
+          logger.println("Performance: Failed to read " + cache + ": " + e.getMessage());
+        }
+      }
+    }
+    return reports;
+  }
+
+  /**
+   * The response time histograms of the URIs of the given builds, read from
+   * their parse caches, by report file name and stapler URI. The histograms
+   * of a URI in several builds are merged.
+   */
+  private Map<String, Map<String, LatencyHistogram>> getCachedHistograms(
+      List<? extends AbstractBuild<?, ?>> builds, PrintStream logger) {
+    Map<String, Map<String, LatencyHistogram>> histograms = new HashMap<String, Map<String, LatencyHistogram>>();
+    for (AbstractBuild<?, ?> build : builds) {
+      for (Map.Entry<String, PerformanceReport> report : getCachedReports(build, logger).entrySet()) {
+        Map<String, LatencyHistogram> uris = histograms.get(report.getKey());
+        if (uris == null) {
+          uris = new HashMap<String, LatencyHistogram>();
+          histograms.put(report.getKey(), uris);
+        }
+        for (Map.Entry<String, UriReport> uri : report.getValue().getUriReportMap().entrySet()) {
+          LatencyHistogram merged = uris.get(uri.getKey());
+          if (merged == null) {
+            merged = new LatencyHistogram();
+            uris.put(uri.getKey(), merged);
+          }
+          merged.add(uri.getValue().getHistogram());
+        }
+      }
+    }
+    return histograms;
+  }
+
+  /**
+   * Adds the aggregates of the reports of a build to the {@link TrendIndex}
+   * of its project.
+   */
+  private void indexReports(AbstractBuild<?, ?> build,
+      Collection<PerformanceReport> reports, PrintStream logger) {
+    try {
+      TrendIndex.forProject(build.getProject()).append(build, reports);
+      GraphCache.invalidate(build.getProject());
+    } catch (IOException e) {
+      logger.println("Performance: Unable to update the trend index: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Parses the result files found in the workspace, either after copying
+   * them to the build directory or, with {@link #parseOnAgent}, where they
+   * are.
+   */
+  private Collection<PerformanceReport> parseReports(AbstractBuild<?, ?> build,
+      BuildListener listener, List<FilePath> files, PerformanceReportParser parser)
+      throws IOException, InterruptedException {
+    String parserDisplayName = parser.getDescriptor().getDisplayName();
+    if (!parseOnAgent) {
+      List<File> localReports = copyReportsToMaster(build, listener.getLogger(), files, parserDisplayName);
+      return parser.parse(build, localReports, listener, parserThreads, getParserMemoryBudgetInBytes());
+    }
+
+    PrintStream logger = listener.getLogger();
+    List<PerformanceReport> reports = new ArrayList<PerformanceReport>();
+    for (FilePath src : files) {
+      if (src.isDirectory()) {
+        logger.println("Performance: File '" + src.getName()
+            + "' is a directory, not a Performance Report");
+        continue;
+      }
+      OutputStream archive = null;
+      if (archiveReports) {
+        File archivedReport = getArchivedReport(build, parserDisplayName, src.getName());
+        archivedReport.getParentFile().mkdirs();
+        archive = new FileOutputStream(archivedReport);
+      }
+      PerformanceReport r;
+      try {
+        r = src.act(new SummaryParser(parser, listener,
+            archive == null ? null : new RemoteOutputStream(archive)));
+      } finally {
+        if (archive != null) {
+          archive.close();
+        }
+      }
+      if (r != null) {
+        File localReport = getPerformanceReport(build, parserDisplayName, src.getName());
+        r.setReportFileName(localReport.getName());
+        PerformanceReportParser.writeSummary(r, new File(localReport.getPath()
+            + PerformanceReportParser.SUMMARY_SUFFIX));
+        reports.add(r);
+      }
+    }
+    return reports;
+  }
+
+  /**
+   * Parses a result file on the node holding it with
+   * {@link PerformanceReportParser#parseSummary(File, TaskListener)},
+   * optionally sending a gzipped copy of the file back.
+   */
+  private static final class SummaryParser implements
+      FilePath.FileCallable<PerformanceReport> {
+
+    private static final long serialVersionUID = -2736108240186513925L;
+
+    private final PerformanceReportParser parser;
+
+    private final TaskListener listener;
+
+    private final OutputStream archive;
+
+    SummaryParser(PerformanceReportParser parser, TaskListener listener,
+        OutputStream archive) {
+      this.parser = parser;
+      this.listener = listener;
+      this.archive = archive;
+    }
+
+    public PerformanceReport invoke(File f, VirtualChannel channel)
+        throws IOException {
+      if (archive != null) {
+        OutputStream out = new GZIPOutputStream(archive);
+        InputStream in = new FileInputStream(f);
+        try {
+          IOUtils.copy(in, out);
+        } finally {
+          in.close();
+          out.close();
+        }
+      }
+      return parser.parseSummary(f, listener);
+    }
+  }
+
   private List<File> copyReportsToMaster(AbstractBuild<?, ?> build,
       PrintStream logger, List<FilePath> files, String parserDisplayName)
       throws IOException, InterruptedException {
@@ -636,6 +916,14 @@ public class PerformancePublisher extends Recorder {
       parsers.add(new JMeterParser(filename));
       filename = null;
     }
+    if (percentiles == null)
+      percentiles = DEFAULT_PERCENTILES;
+    if (parserThreads < 1)
+      parserThreads = 1;
+    if (parserMemoryBudget == null)
+      parserMemoryBudget = DEFAULT_PARSER_MEMORY_BUDGET;
+    if (graphHistory == null)
+      graphHistory = DEFAULT_GRAPH_HISTORY;
     return this;
   }
 
@@ -662,6 +950,7 @@ public class PerformancePublisher extends Recorder {
   
   public void setErrorUnstableResponseTimeThreshold(String errorUnstableResponseTimeThreshold){
 	  this.errorUnstableResponseTimeThreshold = errorUnstableResponseTimeThreshold;
+	  this.thresholdRules = null;
   }
   
   public boolean isModePerformancePerTestCase() {
@@ -676,6 +965,182 @@ public class PerformancePublisher extends Recorder {
 	  return modePerformancePerTestCase;
   }
 	  
+  public String getPercentiles() {
+    return percentiles;
+  }
+
+  public void setPercentiles(String percentiles) {
+    this.percentiles = percentiles;
+  }
+
+  public int getParserThreads() {
+    return parserThreads;
+  }
+
+  public void setParserThreads(int parserThreads) {
+    this.parserThreads = Math.max(1, parserThreads);
+  }
+
+  public boolean isParseOnAgent() {
+    return parseOnAgent;
+  }
+
+  public void setParseOnAgent(boolean parseOnAgent) {
+    this.parseOnAgent = parseOnAgent;
+  }
+
+  public boolean isArchiveReports() {
+    return archiveReports;
+  }
+
+  public void setArchiveReports(boolean archiveReports) {
+    this.archiveReports = archiveReports;
+  }
+
+  public int getGraphHistory() {
+    return graphHistory;
+  }
+
+  public void setGraphHistory(int graphHistory) {
+    this.graphHistory = Math.max(0, graphHistory);
+  }
+
+  public double getSignificanceLevel() {
+    return significanceLevel;
+  }
+
+  public void setSignificanceLevel(double significanceLevel) {
+    this.significanceLevel = Math.max(0, Math.min(significanceLevel, 1));
+  }
+
+  public int getBaselineBuilds() {
+    return baselineBuilds;
+  }
+
+  public void setBaselineBuilds(int baselineBuilds) {
+    this.baselineBuilds = Math.max(0, baselineBuilds);
+  }
+
+  public int getParserMemoryBudget() {
+    return parserMemoryBudget;
+  }
+
+  public void setParserMemoryBudget(int parserMemoryBudget) {
+    this.parserMemoryBudget = Math.max(0, parserMemoryBudget);
+  }
+
+  private long getParserMemoryBudgetInBytes() {
+    return parserMemoryBudget * 1024L * 1024L;
+  }
+
+  /**
+   * The configured percentiles, sorted and without duplicates.
+   */
+  public double[] getPercentileValues() {
+    return parsePercentiles(percentiles);
+  }
+
+  /**
+   * Parses a list of percentiles separated by commas, semicolons or spaces.
+   * Entries that are not numbers between 0 and 100 are ignored.
+   *
+   * @return the percentiles, sorted and without duplicates
+   */
+  public static double[] parsePercentiles(String percentiles) {
+    if (percentiles == null) {
+      return new double[0];
+    }
+    SortedSet<Double> values = new TreeSet<Double>();
+    for (String token : percentiles.split("[\\s,;]+")) {
+      if (token.length() == 0) {
+        continue;
+      }
+      try {
+        double value = Double.parseDouble(token);
+        if (value >= 0 && value <= 100) {
+          values.add(value);
+        }
+      } catch (NumberFormatException e) {
+      }
+    }
+    double[] result = new double[values.size()];
+    int i = 0;
+    for (Double value : values) {
+      result[i++] = value;
+    }
+    return result;
+  }
+
+  /**
+   * The percentiles configured on the project of the given build, or
+   * {@link #DEFAULT_PERCENTILES} when it has no {@link PerformancePublisher}.
+   */
+  public static double[] getPercentileValues(AbstractBuild<?, ?> build) {
+    PerformancePublisher publisher = build == null ? null
+        : build.getProject().getPublishersList().get(PerformancePublisher.class);
+    return parsePercentiles(publisher == null ? DEFAULT_PERCENTILES
+        : publisher.getPercentiles());
+  }
+
+  /**
+   * Formats a percentile for display, without a fraction when it has none:
+   * {@code 99} or {@code 99.9}.
+   */
+  public static String formatPercentile(double percentile) {
+    if (percentile == Math.rint(percentile)) {
+      return Long.toString((long) percentile);
+    }
+    return Double.toString(percentile);
+  }
+
+  /**
+   * The threshold rules of {@link #errorUnstableResponseTimeThreshold},
+   * compiled at the first build after a configuration change.
+   */
+  ThresholdRules getThresholdRules() {
+    ThresholdRules rules = thresholdRules;
+    String source = errorUnstableResponseTimeThreshold == null ? ""
+        : errorUnstableResponseTimeThreshold;
+    if (rules == null || !rules.getSource().equals(source)) {
+      rules = ThresholdRules.compile(source);
+      thresholdRules = rules;
+    }
+    return rules;
+  }
+
+  /**
+   * Value of a response time metric named in a threshold: {@code average},
+   * {@code median}, {@code min}, {@code max} or a percentile such as
+   * {@code p99} or {@code p99.9}.
+   *
+   * @throws IllegalArgumentException
+   *             if the metric is unknown
+   */
+  public static long getResponseTimeMetric(AbstractReport report, String metric) {
+    String name = metric.toLowerCase();
+    if (name.equals("average") || name.equals("avg")) {
+      return report.getAverage();
+    } else if (name.equals("median")) {
+      return report.getMedian();
+    } else if (name.equals("min")) {
+      return report.getMin();
+    } else if (name.equals("max")) {
+      return report.getMax();
+    } else if (name.startsWith("p")) {
+      double percentile;
+      try {
+        percentile = Double.parseDouble(name.substring(1));
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Unknown metric: " + metric);
+      }
+      if (percentile < 0 || percentile > 100) {
+        throw new IllegalArgumentException("Unknown metric: " + metric);
+      }
+      return report.getPercentile(percentile);
+    }
+    throw new IllegalArgumentException("Unknown metric: " + metric);
+  }
+
   public String getFilename() {
     return filename;
   }
@@ -721,17 +1186,13 @@ public class PerformancePublisher extends Recorder {
     // @psingh5 -
   public AbstractBuild getnthBuild(AbstractBuild build, BuildListener listener)
           throws IOException {
-    PrintStream logger = listener.getLogger();
-    AbstractBuild nthBuild = build;
-
-    int nextBuildNumber = build.number - nthBuildNumber;
-
-    for (int i = 1; i <= nextBuildNumber; i++) {
-      nthBuild = (AbstractBuild) nthBuild.getPreviousBuild();
-      if (nthBuild == null)
-        return null;
+    if (nthBuildNumber == 0) {
+      return null;
     }
-    return (nthBuildNumber == 0) ? null : nthBuild;
+    if (nthBuildNumber >= build.number) {
+      return build;
+    }
+    return (AbstractBuild) build.getProject().getBuildByNumber(nthBuildNumber);
   }
 
 
@@ -757,20 +1218,21 @@ public class PerformancePublisher extends Recorder {
 
   }
 
-
-  private List<File> getExistingReports(AbstractBuild<?, ?> build, PrintStream logger, String parserDisplayName)
-          throws IOException, InterruptedException {
-    List<File> localReports = new ArrayList<File>();
-    final File localReport[] = getPerformanceReportDirectory(build, parserDisplayName, logger);
-
-    for (int i = 0; i < localReport.length; i++) {
-      localReports.add(localReport[i]);
+  /**
+   * The last {@link #baselineBuilds} successful builds before a build,
+   * newest first.
+   */
+  List<AbstractBuild<?, ?>> getBaselineBuilds(AbstractBuild<?, ?> build) {
+    List<AbstractBuild<?, ?>> builds = new ArrayList<AbstractBuild<?, ?>>(baselineBuilds);
+    for (AbstractBuild<?, ?> previous = build.getPreviousSuccessfulBuild();
+        previous != null && builds.size() < baselineBuilds;
+        previous = previous.getPreviousSuccessfulBuild()) {
+      builds.add(previous);
     }
-    return localReports;
+    return builds;
   }
 
 
-
   public static String getOptionType() {
     return optionType;
   }
@@ -2,6 +2,8 @@ package hudson.plugins.performance;
 
 import hudson.model.AbstractBuild;
 
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
 import org.xml.sax.SAXException;
 
 import java.io.IOException;
@@ -10,7 +12,7 @@ import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -39,24 +41,124 @@ public class PerformanceReport extends AbstractReport implements Serializable,
    * {@link UriReport}s keyed by their {@link UriReport#getStaplerUri()}.
    */
   private final Map<String, UriReport> uriReportMap = new LinkedHashMap<String, UriReport>();
-  
-  private PerformanceReport lastBuildReport;
+
+  /**
+   * Aggregates of the same report in the previous build, looked up in the
+   * {@link TrendIndex} on first use.
+   */
+  private transient TrendIndex.ReportEntry lastBuildReport;
+
+  private transient boolean lastBuildReportResolved;
+
+  /**
+   * Merge of the {@link UriReport} histograms, built on first use.
+   */
+  private transient LatencyHistogram histogram;
+
+  /**
+   * {@link UriReport}s keyed by the URI of their samples, to avoid escaping
+   * the URI of every added sample.
+   */
+  private transient Map<String, UriReport> uriReportsByUri;
+
+  /**
+   * Merge of the {@link UriReport} time buckets, built on first use.
+   */
+  private transient TimeBuckets timeBuckets;
+
+  /**
+   * Merge of the {@link UriReport} summaries, built on first use.
+   */
+  private transient ReportSummary summary;
+
+  /**
+   * Percentiles configured for the project, looked up on first use.
+   */
+  private transient double[] configuredPercentiles;
 
   public void addSample(HttpSample pHttpSample) throws SAXException {
-    String uri = pHttpSample.getUri();
+    UriReport uriReport = getUriReport(pHttpSample.getUri());
+    if (uriReport != null) {
+      uriReport.addHttpSample(pHttpSample);
+    }
+  }
+
+  /**
+   * Adds a sample given as primitive values, without building an
+   * {@link HttpSample}.
+   */
+  public void addSample(String uri, long timestamp, long duration,
+      boolean successful, boolean errorObtained, String httpCode,
+      double sizeInKb) throws SAXException {
+    UriReport uriReport = getUriReport(uri);
+    if (uriReport != null) {
+      uriReport.addHttpSample(timestamp, duration, successful, errorObtained,
+          httpCode, sizeInKb);
+    }
+  }
+
+  /**
+   * Appends the samples of another report, for instance one built from
+   * another part of the same file. URIs not seen yet are added after the
+   * existing ones.
+   */
+  public void merge(PerformanceReport other) {
+    for (UriReport otherUriReport : other.uriReportMap.values()) {
+      getUriReport(otherUriReport.getUri()).merge(otherUriReport);
+    }
+  }
+
+  /**
+   * Adds a restored {@link UriReport}, see {@link ReportCache}.
+   */
+  void addUriReport(UriReport uriReport) {
+    uriReportMap.put(uriReport.getStaplerUri(), uriReport);
+    if (uriReportsByUri != null) {
+      uriReportsByUri.put(uriReport.getUri(), uriReport);
+    }
+    histogram = null;
+    summary = null;
+    timeBuckets = null;
+  }
+
+  /**
+   * Drops the individual samples of all the {@link UriReport}s, see
+   * {@link UriReport#dropSamples()}.
+   */
+  public void dropSamples() {
+    for (UriReport uriReport : uriReportMap.values()) {
+      uriReport.dropSamples();
+    }
+  }
+
+  /**
+   * The {@link UriReport} receiving a new sample of the given URI, created if
+   * needed, or null if the sample has to be skipped.
+   */
+  private UriReport getUriReport(String uri) {
     if (uri == null) {
       buildAction.getHudsonConsoleWriter().println(
           "label cannot be empty, please ensure your jmx file specifies name properly for each http sample: skipping sample");
-      return;
+      return null;
+    }
+    histogram = null;
+    summary = null;
+    timeBuckets = null;
+    if (uriReportsByUri == null) {
+      uriReportsByUri = new HashMap<String, UriReport>();
+    }
+    UriReport uriReport = uriReportsByUri.get(uri);
+    if (uriReport != null) {
+      return uriReport;
     }
     String staplerUri = uri.replace("http:", "").replaceAll("/", "_");
-    UriReport uriReport = uriReportMap.get(staplerUri);
+    uriReport = uriReportMap.get(staplerUri);
     if (uriReport == null) {
       uriReport = new UriReport(this, staplerUri, uri);
       uriReportMap.put(staplerUri, uriReport);
     }
-    uriReport.addHttpSample(pHttpSample);
-    
+    uriReportsByUri.put(uri, uriReport);
+    return uriReport;
   }
 
   public int compareTo(PerformanceReport jmReport) {
@@ -67,11 +169,7 @@ public class PerformanceReport extends AbstractReport implements Serializable,
   }
 
   public int countErrors() {
-    int nbError = 0;
-    for (UriReport currentReport : uriReportMap.values()) {
-        nbError += currentReport.countErrors();
-     }
-    return nbError;
+    return getSummary().getErrors();
   }
 
   public double errorPercent() {
@@ -83,70 +181,88 @@ public class PerformanceReport extends AbstractReport implements Serializable,
           return (double) nbError/uriReportMap.size();
 
       } else {
-            return size() == 0 ? 0 : ((double) countErrors()) / size() * 100;
+            return getSummary().getErrorPercent();
       }
   }
 
   
   
   public long getAverage() {
-    long result = 0;
-    int size = size();
-    if (size != 0) {
-      long average = 0;
-      for (UriReport currentReport : uriReportMap.values()) {
-        average += currentReport.getAverage() * currentReport.size();
-      }
-      double test = average / size;
-      result = (int) test;
-    }
-    return result;
+    return getSummary().getAverage();
   }
 
     
   public double getAverageSizeInKb() { 
-	  double result = 0;
-	    int size = size();
-	    if (size != 0) {
-	      long average = 0;
-	      for (UriReport currentReport : uriReportMap.values()) {
-	        average += currentReport.getAverageSizeInKb() * currentReport.size();
-	      }
-	      result =  average / (double)size;
-	    }
-	    return roundTwoDecimals(result);
+    return roundTwoDecimals(getSummary().getAverageSizeInKb());
   }
   
 
   
   public long get90Line() {
-    long result = 0;
-    int size = size();
-    if (size != 0) {
-      long average = 0;
-      List<HttpSample> allSamples = new ArrayList<HttpSample>();
+    return getPercentile(90);
+  }
+
+  public long getMedian() {
+    return getPercentile(50);
+  }
+
+  public double[] getConfiguredPercentiles() {
+    double[] percentiles = configuredPercentiles;
+    if (percentiles == null) {
+      percentiles = PerformancePublisher.getPercentileValues(
+          buildAction == null ? null : buildAction.getBuild());
+      configuredPercentiles = percentiles;
+    }
+    return percentiles;
+  }
+
+  /**
+   * Distribution of all the sample durations of this report, merged from the
+   * histograms of its {@link UriReport}s.
+   */
+  public LatencyHistogram getHistogram() {
+    LatencyHistogram merged = histogram;
+    if (merged == null) {
+      merged = new LatencyHistogram();
       for (UriReport currentReport : uriReportMap.values()) {
-        allSamples.addAll(currentReport.getHttpSampleList());
+        merged.add(currentReport.getHistogram());
       }
-      Collections.sort(allSamples);
-      result = allSamples.get((int) (allSamples.size() * .9)).getDuration();
+      histogram = merged;
     }
-    return result;
+    return merged;
   }
 
-  public long getMedian() {
-    long result = 0;
-    int size = size();
-    if (size != 0) {
-      long average = 0;
-      List<HttpSample> allSamples = new ArrayList<HttpSample>();
+  /**
+   * Statistics of this report over the time of the test, merged from the
+   * time buckets of its {@link UriReport}s.
+   */
+  public TimeBuckets getTimeBuckets() {
+    TimeBuckets merged = timeBuckets;
+    if (merged == null) {
+      merged = new TimeBuckets();
       for (UriReport currentReport : uriReportMap.values()) {
-        allSamples.addAll(currentReport.getHttpSampleList());
+        merged.add(currentReport.getTimeBuckets());
       }
-      Collections.sort(allSamples);
-      result = allSamples.get((int) (allSamples.size() * .5)).getDuration();
+      timeBuckets = merged;
     }
-    return result;
+    return merged;
+  }
+
+  /**
+   * Aggregates of all the samples of this report, merged from the summaries
+   * of its {@link UriReport}s.
+   */
+  public ReportSummary getSummary() {
+    ReportSummary merged = summary;
+    if (merged == null) {
+      ReportSummary.Accumulator accumulator = new ReportSummary.Accumulator();
+      for (UriReport currentReport : uriReportMap.values()) {
+        accumulator.add(currentReport.getSummary());
+      }
+      merged = accumulator.freeze();
+      summary = merged;
+    }
+    return merged;
   }
       
   public String getHttpCode() {
@@ -174,30 +290,15 @@ public class PerformanceReport extends AbstractReport implements Serializable,
   }
 
   public long getMax() {
-    long max = Long.MIN_VALUE;
-    for (UriReport currentReport : uriReportMap.values()) {
-      max = Math.max(currentReport.getMax(), max);
-    }
-    return max;
+    return getSummary().getMax();
   }
   
   public double getTotalTrafficInKb() { 
-	  double result = 0;
-	    int size = size();
-	    if (size != 0) {
-	      for (UriReport currentReport : uriReportMap.values()) {
-	    	  result += currentReport.getTotalTrafficInKb();
-	      }
-	    }
-	    return roundTwoDecimals(result);
+    return roundTwoDecimals(getSummary().getTotalTrafficInKb());
   }
 
   public long getMin() {
-    long min = Long.MAX_VALUE;
-    for (UriReport currentReport : uriReportMap.values()) {
-      min = Math.min(currentReport.getMin(), min);
-    }
-    return min;
+    return getSummary().getMin();
   }
 
   public String getReportFileName() {
@@ -216,6 +317,7 @@ public class PerformanceReport extends AbstractReport implements Serializable,
 
   void setBuildAction(PerformanceBuildAction buildAction) {
     this.buildAction = buildAction;
+    this.configuredPercentiles = null;
   }
 
   public void setHttpSample(HttpSample httpSample) {
@@ -227,41 +329,49 @@ public class PerformanceReport extends AbstractReport implements Serializable,
   }
 
   public int size() {
-    int size = 0;
-    for (UriReport currentReport : uriReportMap.values()) {
-      size += currentReport.size();
-    }
-    return size;
+    return getSummary().getCount();
   }
   
-  public void setLastBuildReport( PerformanceReport lastBuildReport ) {
-    Map<String, UriReport> lastBuildUriReportMap = lastBuildReport.getUriReportMap();
-    for (Map.Entry<String, UriReport> item : uriReportMap.entrySet()) {
-        UriReport lastBuildUri = lastBuildUriReportMap.get( item.getKey() );
-        if ( lastBuildUri != null ) {
-            item.getValue().addLastBuildUriReport( lastBuildUri );
-        } else {
-        }
-    }
+  public void setLastBuildReport( TrendIndex.ReportEntry lastBuildReport ) {
     this.lastBuildReport = lastBuildReport;
+    this.lastBuildReportResolved = true;
+  }
+
+  /**
+   * Aggregates of this report in the previous build, read from the
+   * {@link TrendIndex} so that no sample of the previous build is loaded.
+   *
+   * @return null if the previous build has no such report
+   */
+  TrendIndex.ReportEntry getLastBuildReport() {
+    if (!lastBuildReportResolved) {
+      lastBuildReportResolved = true;
+      AbstractBuild<?, ?> build = buildAction == null ? null : buildAction.getBuild();
+      AbstractBuild<?, ?> previousBuild = build == null ? null : build.getPreviousBuild();
+      if (previousBuild != null) {
+        lastBuildReport = TrendIndex.forProject(build.getProject()).getReport(
+            previousBuild, reportFileName);
+      }
+    }
+    return lastBuildReport;
   }
   
   public long getAverageDiff() {
-      if ( lastBuildReport == null ) {
+      if ( getLastBuildReport() == null ) {
           return 0;
       }
       return getAverage() - lastBuildReport.getAverage();
   }
   
   public long getMedianDiff() {
-      if ( lastBuildReport == null ) {
+      if ( getLastBuildReport() == null ) {
           return 0;
       }
       return getMedian() - lastBuildReport.getMedian();
   }
   
   public double getErrorPercentDiff() {
-      if ( lastBuildReport == null ) {
+      if ( getLastBuildReport() == null ) {
           return 0;
       }
       return errorPercent() - lastBuildReport.errorPercent();
@@ -272,7 +382,7 @@ public class PerformanceReport extends AbstractReport implements Serializable,
   }
     
   public int getSizeDiff() {
-      if ( lastBuildReport == null ) {
+      if ( getLastBuildReport() == null ) {
           return 0;
       }
       return size() - lastBuildReport.size();
@@ -284,6 +394,9 @@ public class PerformanceReport extends AbstractReport implements Serializable,
       boolean b = false;
       String  fileExt;
 
+      if (buildAction == null) {
+          return b;
+      }
       List<PerformanceReportParser> list =  buildAction.getBuild().getProject().getPublishersList().get(PerformancePublisher.class).getParsers();
 
       for ( int i=0; i < list.size(); i++) {
@@ -301,6 +414,20 @@ public class PerformanceReport extends AbstractReport implements Serializable,
     return b;
   }
 
+  /**
+   * The aggregates of this report and of each of its URIs as JSON, see
+   * {@link JsonWriter}.
+   */
+  public void doData(StaplerRequest request, StaplerResponse response)
+      throws IOException {
+    JsonWriter json = JsonWriter.forResponse(request, response);
+    json.beginObject();
+    json.name("report").value(reportFileName);
+    new TrendIndex.ReportEntry(this).writeJson(json, true);
+    json.endObject();
+    json.close();
+  }
+
   private double roundTwoDecimals(double d) {
       DecimalFormat twoDForm = new DecimalFormat("#.##");
 	  return Double.valueOf(twoDForm.format(d));
@@ -12,10 +12,12 @@ import java.util.*;
 
 import hudson.model.TaskListener;
 import hudson.model.AbstractProject;
-import hudson.util.ChartUtil;
 import hudson.util.ChartUtil.NumberOnlyBuildLabel;
 import hudson.util.DataSetBuilder;
 import java.io.FilenameFilter;
+import javax.servlet.http.HttpServletResponse;
+
+import org.jfree.chart.JFreeChart;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 
@@ -38,9 +40,7 @@ public class PerformanceReportMap implements ModelObject {
     private static final String PERFORMANCE_REPORTS_DIRECTORY = "performance-reports";
     private static final String PLUGIN_NAME = "performance";
     private static final String TRENDREPORT_LINK = "trendReport";
-    
-    private static AbstractBuild<?, ?> currentBuild = null;
-        
+
     /**
      * Parses the reports and build a {@link PerformanceReportMap}.
      *
@@ -175,73 +175,127 @@ public class PerformanceReportMap implements ModelObject {
 
     public void doRespondingTimeGraph(StaplerRequest request,
             StaplerResponse response) throws IOException {
-        String parameter = request.getParameter("performanceReportPosition");
-        AbstractBuild<?, ?> previousBuild = getBuild();
-        final Map<AbstractBuild<?, ?>, Map<String, PerformanceReport>> buildReports = new LinkedHashMap<AbstractBuild<?, ?>, Map<String, PerformanceReport>>();
-        while (previousBuild != null) {
-            final AbstractBuild<?, ?> currentBuild = previousBuild;
-            parseReports(currentBuild, TaskListener.NULL, new PerformanceReportCollector() {
-
-                public void addAll(Collection<PerformanceReport> parse) {
-                    for (PerformanceReport performanceReport : parse) {
-                        if (buildReports.get(currentBuild) == null) {
-                            Map<String, PerformanceReport> map = new LinkedHashMap<String, PerformanceReport>();
-                            buildReports.put(currentBuild, map);
-                        }
-                        buildReports.get(currentBuild).put(performanceReport.getReportFileName(), performanceReport);
+        final String parameter = request.getParameter("performanceReportPosition");
+        final TrendIndex trendIndex = TrendIndex.forProject(getBuild().getProject());
+        final List<AbstractBuild<?, ?>> builds = getGraphBuilds();
+        GraphCache.generateGraph(request, response, getBuild().getProject(),
+                getGraphKey("buildRespondingTimeGraph", parameter, builds), new GraphCache.Renderer() {
+            public JFreeChart createChart() {
+                DataSetBuilder<String, NumberOnlyBuildLabel> dataSetBuilderAverage = new DataSetBuilder<String, NumberOnlyBuildLabel>();
+                for (AbstractBuild<?, ?> currentBuild : builds) {
+                    TrendIndex.ReportEntry report = trendIndex.getReport(currentBuild, parameter);
+                    if (report == null) {
+                        continue;
                     }
+                    NumberOnlyBuildLabel label = new NumberOnlyBuildLabel(currentBuild);
+                    dataSetBuilderAverage.add(report.getAverage(), Messages.ProjectAction_Average(), label);
                 }
-            }, parameter);
-            previousBuild = previousBuild.getPreviousBuild();
-        }
-        //Now we should have the data necessary to generate the graphs!
-        DataSetBuilder<String, NumberOnlyBuildLabel> dataSetBuilderAverage = new DataSetBuilder<String, NumberOnlyBuildLabel>();
-        for (AbstractBuild<?, ?> currentBuild : buildReports.keySet()) {
-            NumberOnlyBuildLabel label = new NumberOnlyBuildLabel(currentBuild);
-            PerformanceReport report = buildReports.get(currentBuild).get(parameter);
-            dataSetBuilderAverage.add(report.getAverage(), Messages.ProjectAction_Average(), label);
-        }
-        ChartUtil.generateGraph(request, response,
-                PerformanceProjectAction.createRespondingTimeChart(dataSetBuilderAverage.build()), 400, 200);
+                return PerformanceProjectAction.createRespondingTimeChart(dataSetBuilderAverage.build());
+            }
+        }, 400, 200);
     }
 
     public void doSummarizerGraph(StaplerRequest request,
             StaplerResponse response) throws IOException {
-        String parameter = request.getParameter("performanceReportPosition");
-        AbstractBuild<?, ?> previousBuild = getBuild();
-        final Map<AbstractBuild<?, ?>, Map<String, PerformanceReport>> buildReports = new LinkedHashMap<AbstractBuild<?, ?>, Map<String, PerformanceReport>>();
-
-        while (previousBuild != null ) {
-            final AbstractBuild<?, ?> currentBuild = previousBuild;
-            parseReports(currentBuild, TaskListener.NULL, new PerformanceReportCollector() {
-
-                public void addAll(Collection<PerformanceReport> parse) {
-                    for (PerformanceReport performanceReport : parse) {
-                        if (buildReports.get(currentBuild) == null) {
-                            Map<String, PerformanceReport> map = new LinkedHashMap<String, PerformanceReport>();
-                            buildReports.put(currentBuild, map);
-                        }
-                        buildReports.get(currentBuild).put(performanceReport.getReportFileName(), performanceReport);
-                     }
+        final String parameter = request.getParameter("performanceReportPosition");
+        final TrendIndex trendIndex = TrendIndex.forProject(getBuild().getProject());
+        final List<AbstractBuild<?, ?>> builds = getGraphBuilds();
+        GraphCache.generateGraph(request, response, getBuild().getProject(),
+                getGraphKey("buildSummarizerGraph", parameter, builds), new GraphCache.Renderer() {
+            public JFreeChart createChart() {
+                DataSetBuilder<NumberOnlyBuildLabel,String > dataSetBuilderSummarizer = new DataSetBuilder<NumberOnlyBuildLabel, String>();
+                for (AbstractBuild<?, ?> currentBuild : builds) {
+                    TrendIndex.ReportEntry report = trendIndex.getReport(currentBuild, parameter);
+                    if (report == null) {
+                        continue;
+                    }
+                    NumberOnlyBuildLabel label = new NumberOnlyBuildLabel(currentBuild);
+                    for (String key:report.getUriEntryMap().keySet()) {
+                        Long methodAvg=report.getUriEntryMap().get(key).getAverage();
+                        dataSetBuilderSummarizer.add(methodAvg, label, key);
+                    }
                 }
-        }, parameter);
-        previousBuild = previousBuild.getPreviousBuild();
+                return PerformanceProjectAction.createSummarizerChart(dataSetBuilderSummarizer.build(),"ms",Messages.ProjectAction_RespondingTime());
+            }
+        }, 400, 200);
+    }
+
+    /**
+     * A report of this build over the time of the test, see
+     * {@link PerformanceProjectAction#createOverTimeChart}. With
+     * {@code type=throughput}, the requests and errors per second, otherwise
+     * the response times.
+     */
+    public void doTimeGraph(StaplerRequest request, StaplerResponse response)
+            throws IOException {
+        String parameter = request.getParameter("performanceReportPosition");
+        final PerformanceReport report = parameter == null ? null : getPerformanceReport(parameter);
+        if (report == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        final boolean throughput = "throughput".equals(request.getParameter("type"));
+        GraphCache.generateGraph(request, response, getBuild().getProject(),
+                "buildTimeGraph|" + throughput + '|' + getBuild().getNumber() + '|' + parameter,
+                new GraphCache.Renderer() {
+            public JFreeChart createChart() {
+                return PerformanceProjectAction.createOverTimeChart(report.getTimeBuckets(), throughput);
+            }
+        }, 600, 250);
+    }
+
+    /**
+     * The aggregates of the reports of this build as JSON, with those of each
+     * URI if the {@code uris} parameter is true, see {@link JsonWriter}.
+     */
+    public void doData(StaplerRequest request, StaplerResponse response)
+            throws IOException {
+        boolean withUris = Boolean.parseBoolean(request.getParameter("uris"));
+        Map<String, TrendIndex.ReportEntry> reports = TrendIndex.forProject(
+                getBuild().getProject()).getReports(getBuild());
+        JsonWriter json = JsonWriter.forResponse(request, response);
+        json.beginObject();
+        json.name("build").value(getBuild().getNumber());
+        json.name("reports").beginArray();
+        for (TrendIndex.ReportEntry report : reports.values()) {
+            json.beginObject();
+            json.name("report").value(report.getReportFileName());
+            report.writeJson(json, withUris);
+            json.endObject();
         }
-       DataSetBuilder<NumberOnlyBuildLabel,String > dataSetBuilderSummarizer = new DataSetBuilder<NumberOnlyBuildLabel, String>();
-       for (AbstractBuild<?, ?> currentBuild : buildReports.keySet()) {
-           NumberOnlyBuildLabel label = new NumberOnlyBuildLabel(currentBuild);
-           PerformanceReport report = buildReports.get(currentBuild).get(parameter);
-
-           //Now we should have the data necessary to generate the graphs!
-           for (String key:report.getUriReportMap().keySet()) {
-               Long methodAvg=report.getUriReportMap().get(key).getAverage();
-               dataSetBuilderSummarizer.add(methodAvg, label, key);
-           };
-       }
-       ChartUtil.generateGraph(request, response,
-                PerformanceProjectAction.createSummarizerChart(dataSetBuilderSummarizer.build(),"ms",Messages.ProjectAction_RespondingTime()), 400, 200);
+        json.endArray();
+        json.endObject();
+        json.close();
     }
 
+    /**
+     * Identifies a graph of a report drawn over the given builds, newest
+     * first, see {@link GraphCache}.
+     */
+    private static String getGraphKey(String graph, String performanceReportName,
+            List<AbstractBuild<?, ?>> builds) {
+        return graph + '|' + performanceReportName + '|'
+                + (builds.isEmpty() ? 0 : builds.get(0).getNumber()) + '/' + builds.size();
+    }
+
+
+    /**
+     * This build and the previous ones, newest first, up to the
+     * {@link PerformancePublisher#getGraphHistory()} of the project.
+     */
+    List<AbstractBuild<?, ?>> getGraphBuilds() {
+        int history = PerformancePublisher.DEFAULT_GRAPH_HISTORY;
+        PerformancePublisher publisher = getBuild().getProject().getPublishersList().get(PerformancePublisher.class);
+        if (publisher != null) {
+            history = publisher.getGraphHistory();
+        }
+        List<AbstractBuild<?, ?>> builds = new ArrayList<AbstractBuild<?, ?>>();
+        for (AbstractBuild<?, ?> build = getBuild(); build != null
+                && (history <= 0 || builds.size() < history); build = build.getPreviousBuild()) {
+            builds.add(build);
+        }
+        return builds;
+    }
 
     private void parseReports(AbstractBuild<?, ?> build, TaskListener listener, PerformanceReportCollector collector, final String filename) throws IOException {
         File repo = new File(build.getRootDir(),
@@ -251,7 +305,7 @@ public class PerformanceReportMap implements ModelObject {
         File[] files = repo.listFiles(new FileFilter() {
 
             public boolean accept(File f) {
-                return !f.isDirectory() && !f.getName().contains(".serialized");
+                return !f.isDirectory() && !ReportCache.isCacheFile(f.getName());
             }
         });
         // this may fail, if the build itself failed, we need to recover gracefully
@@ -275,10 +329,10 @@ public class PerformanceReportMap implements ModelObject {
                     File[] listFiles = dir.listFiles(new FilenameFilter() {
 
                         public boolean accept(File dir, String name) {
-                            if (filename == null && !name.contains(".serialized") ){
+                            if (filename == null && !ReportCache.isCacheFile(name) ){
                                 return true;
                             }
-                            if (name.equals(filename)) {
+                            if (PerformanceReportParser.getReportFileName(name).equals(filename)) {
                                 return true;
                             }
                             return false;
@@ -288,45 +342,8 @@ public class PerformanceReportMap implements ModelObject {
                 }
             }
         }
-        
-        addPreviousBuildReports();
     }
     
-    private void addPreviousBuildReports() {
-        
-        // Avoid parsing all builds.
-        if ( PerformanceReportMap.currentBuild == null ) {
-            PerformanceReportMap.currentBuild = getBuild();
-        }else {
-            if( PerformanceReportMap.currentBuild != getBuild() ) {
-                PerformanceReportMap.currentBuild = null;
-                return;
-            }
-        }
-        
-        AbstractBuild<?, ?> previousBuild = getBuild().getPreviousBuild();
-        if ( previousBuild == null ) {
-            return;
-        }
-        
-        PerformanceBuildAction previousPerformanceAction = previousBuild.getAction(PerformanceBuildAction.class);
-        if ( previousPerformanceAction == null ) {
-            return;
-        }
-        
-        PerformanceReportMap previousPerformanceReportMap = previousPerformanceAction.getPerformanceReportMap();
-        if (previousPerformanceReportMap == null) {
-            return;
-        }
-        
-        for (Map.Entry<String, PerformanceReport> item : getPerformanceReportMap().entrySet()) {
-            PerformanceReport lastReport = previousPerformanceReportMap.getPerformanceReportMap().get( item.getKey() );
-            if ( lastReport != null ) {
-                item.getValue().setLastBuildReport( lastReport );
-            }
-        }
-    }
-
     private interface PerformanceReportCollector {
 
         public void addAll(Collection<PerformanceReport> parse);
@@ -6,10 +6,26 @@ import hudson.model.AbstractBuild;
 import hudson.model.Describable;
 import hudson.model.Hudson;
 import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.IOException2;
 import org.kohsuke.stapler.DataBoundConstructor;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 import java.io.*;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Logger;
 
 
 /**
@@ -22,7 +38,24 @@ import java.util.Collection;
  * @author Kohsuke Kawaguchi
  */
 public abstract class PerformanceReportParser implements
-    Describable<PerformanceReportParser>, ExtensionPoint {
+    Describable<PerformanceReportParser>, ExtensionPoint, Serializable {
+
+  private static final long serialVersionUID = 6214183275629035317L;
+
+  /**
+   * Suffix of the files holding a report written by
+   * {@link #writeSummary(PerformanceReport, File)}, in place of the result
+   * file it was parsed from.
+   */
+  public static final String SUMMARY_SUFFIX = ".summary";
+
+  private static final Logger LOGGER = Logger.getLogger(PerformanceReportParser.class.getName());
+
+  /**
+   * Parsed reports, keyed by {@link #getCacheKey(File)}.
+   */
+  private static final Cache<String, PerformanceReport> cache = CacheBuilder.newBuilder().maximumSize(100).build();
+
   /**
    * GLOB patterns that specify the performance report.
    */
@@ -41,11 +74,261 @@ public abstract class PerformanceReportParser implements
   }
 
   /**
-   * Parses the specified reports into {@link PerformanceReport}s.
+   * Parses the specified reports into {@link PerformanceReport}s, one file
+   * after the other, with {@link #parseReport(AbstractBuild, File, TaskListener)}.
+   * Reports parsed before are taken from the cache, see
+   * {@link #getCachedReport(File)}. Files written by
+   * {@link #writeSummary(PerformanceReport, File)} are read back instead.
+   *
+   * Subtypes override either this method or {@link #parseReport}.
    */
-  public abstract Collection<PerformanceReport> parse(
+  public Collection<PerformanceReport> parse(
       AbstractBuild<?, ?> build, Collection<File> reports, TaskListener listener)
-      throws IOException;
+      throws IOException {
+    List<PerformanceReport> result = new ArrayList<PerformanceReport>();
+    for (File f : reports) {
+      PerformanceReport r = parseReportOrSummary(build, f, listener);
+      if (r != null) {
+        result.add(r);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Parses a single report file.
+   *
+   * The default implementation goes through
+   * {@link #parse(AbstractBuild, Collection, TaskListener)}, for subtypes
+   * that only override that method.
+   *
+   * @return the report, or null if the file could not be parsed, in which
+   *         case the problem has been reported to the listener
+   */
+  protected PerformanceReport parseReport(AbstractBuild<?, ?> build, File report,
+      TaskListener listener) throws IOException {
+    Iterator<PerformanceReport> reports = parse(build,
+        Collections.singleton(report), listener).iterator();
+    return reports.hasNext() ? reports.next() : null;
+  }
+
+  /**
+   * Parses a report file where it is, typically on the agent that produced
+   * it, into a report that only keeps the aggregates and histograms of its
+   * samples, see {@link PerformanceReport#dropSamples()}.
+   *
+   * @return the report, or null if the file could not be parsed, in which
+   *         case the problem has been reported to the listener
+   */
+  public PerformanceReport parseSummary(File report, TaskListener listener)
+      throws IOException {
+    PerformanceReport r = parseReport(null, report, listener);
+    if (r != null) {
+      r.dropSamples();
+    }
+    return r;
+  }
+
+  private PerformanceReport parseReportOrSummary(AbstractBuild<?, ?> build,
+      File f, TaskListener listener) throws IOException {
+    if (f.getName().endsWith(SUMMARY_SUFFIX)) {
+      return readSummary(f, listener);
+    }
+    PerformanceReport r = getCachedReport(f);
+    if (r == null) {
+      r = parseReport(build, f, listener);
+      if (r != null) {
+        cacheReport(f, r);
+      }
+    }
+    return r;
+  }
+
+  /**
+   * Configuration of this parser that changes the reports it builds, part of
+   * {@link #getCacheKey(File)} so that a new configuration parses the files
+   * again.
+   */
+  protected String getConfigurationFingerprint() {
+    return "";
+  }
+
+  /**
+   * Identifies a file as parsed by this parser: its path, size and last
+   * modification time, and the parser type and configuration.
+   */
+  protected String getCacheKey(File f) {
+    return f.getAbsolutePath() + '|' + f.length() + '|' + f.lastModified()
+        + '|' + getClass().getName() + '|' + getConfigurationFingerprint();
+  }
+
+  /**
+   * A report already parsed from the file by a parser of the same
+   * configuration, kept in memory or in the {@link ReportCache} file next to
+   * the result file.
+   *
+   * @return the report, or null if the file has to be parsed
+   */
+  protected PerformanceReport getCachedReport(File f) {
+    String key = getCacheKey(f);
+    PerformanceReport r = cache.getIfPresent(key);
+    if (r != null) {
+      return r;
+    }
+    File cacheFile = ReportCache.getCacheFile(f);
+    if (!cacheFile.exists()) {
+      return null;
+    }
+    try {
+      r = ReportCache.read(cacheFile, true, key);
+    } catch (IOException e) {
+      LOGGER.warning("Reading " + cacheFile + " failed. " + e);
+    }
+    if (r != null) {
+      cache.put(key, r);
+    }
+    return r;
+  }
+
+  /**
+   * Keeps a report parsed from the file for {@link #getCachedReport(File)}.
+   */
+  protected void cacheReport(File f, PerformanceReport r) {
+    String key = getCacheKey(f);
+    cache.put(key, r);
+    File cacheFile = ReportCache.getCacheFile(f);
+    try {
+      ReportCache.write(r, cacheFile, key, true);
+    } catch (IOException e) {
+      LOGGER.warning("Writing " + cacheFile + " failed. " + e);
+    }
+  }
+
+  /**
+   * Stores a report, usually returned by
+   * {@link #parseSummary(File, TaskListener)}, so that it is read back by
+   * {@link #parse(AbstractBuild, Collection, TaskListener)} instead of the
+   * result file.
+   *
+   * @param summary
+   *            a file whose name ends with {@link #SUMMARY_SUFFIX}
+   */
+  public static void writeSummary(PerformanceReport report, File summary)
+      throws IOException {
+    ReportCache.write(report, summary, "", true);
+  }
+
+  private static PerformanceReport readSummary(File summary,
+      TaskListener listener) throws IOException {
+    PerformanceReport r = ReportCache.read(summary, true, null);
+    if (r == null) {
+      listener.getLogger().println("Performance: Failed to read " + summary
+          + ": unknown format");
+    }
+    return r;
+  }
+
+  /**
+   * Name of the result file a report file stands for: the file name without
+   * {@link #SUMMARY_SUFFIX}.
+   */
+  public static String getReportFileName(String fileName) {
+    if (fileName.endsWith(SUMMARY_SUFFIX)) {
+      return fileName.substring(0, fileName.length() - SUMMARY_SUFFIX.length());
+    }
+    return fileName;
+  }
+
+  /**
+   * Parses the specified reports like
+   * {@link #parse(AbstractBuild, Collection, TaskListener)}, but with up to
+   * {@code threads} files parsed at the same time.
+   *
+   * Files being parsed together hold at most {@code memoryBudget} bytes, the
+   * size of a file being used as the estimate of the memory needed to parse
+   * it. A file larger than the budget is parsed alone.
+   *
+   * @param threads
+   *            maximum number of files parsed at the same time, 1 or less to
+   *            parse them one after the other
+   * @param memoryBudget
+   *            in bytes, 0 or less for no limit
+   * @return the reports, in the order of {@code reports}
+   */
+  public Collection<PerformanceReport> parse(final AbstractBuild<?, ?> build,
+      Collection<File> reports, final TaskListener listener, int threads,
+      long memoryBudget) throws IOException {
+    if (threads <= 1 || reports.size() <= 1) {
+      return parse(build, reports, listener);
+    }
+
+    final int budget = (int) Math.min(Integer.MAX_VALUE,
+        memoryBudget > 0 ? Math.max(1, memoryBudget / 1024) : Integer.MAX_VALUE);
+    final Semaphore memory = new Semaphore(budget, true);
+    List<Callable<PerformanceReport>> tasks = new ArrayList<Callable<PerformanceReport>>();
+    for (final File f : reports) {
+      final int permits = (int) Math.max(1, Math.min(budget, f.length() / 1024));
+      tasks.add(new Callable<PerformanceReport>() {
+        public PerformanceReport call() throws Exception {
+          memory.acquire(permits);
+          try {
+            return parseReportOrSummary(build, f, listener);
+          } finally {
+            memory.release(permits);
+          }
+        }
+      });
+    }
+
+    List<PerformanceReport> result = new ArrayList<PerformanceReport>();
+    for (PerformanceReport r : invokeAll(tasks, threads)) {
+      if (r != null) {
+        result.add(r);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Runs the tasks on a pool of at most {@code threads} daemon threads.
+   *
+   * @return the results of the tasks, in the order of {@code tasks}
+   * @throws IOException
+   *             the first failure of a task, in the order of {@code tasks}
+   */
+  protected static <T> List<T> invokeAll(List<? extends Callable<T>> tasks,
+      int threads) throws IOException {
+    ExecutorService executor = Executors.newFixedThreadPool(
+        Math.max(1, Math.min(threads, tasks.size())), new DaemonThreadFactory());
+    try {
+      List<Future<T>> futures = new ArrayList<Future<T>>();
+      for (Callable<T> task : tasks) {
+        futures.add(executor.submit(task));
+      }
+      List<T> result = new ArrayList<T>();
+      for (Future<T> future : futures) {
+        result.add(future.get());
+      }
+      return result;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while parsing reports");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException2("Failed to parse reports", cause);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
 
   public abstract String getDefaultGlobPattern();
 
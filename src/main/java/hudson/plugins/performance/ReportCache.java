@@ -0,0 +1,258 @@
+package hudson.plugins.performance;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Binary file format holding a parsed {@link PerformanceReport}, so that a
+ * result file does not have to be parsed again.
+ *
+ * <p>
+ * The file starts with a header (magic number, format version, flags, key of
+ * the parsed file and report file name) followed by an index with, for each URI, its aggregates,
+ * latency histogram, {@link TimeBuckets}, response codes and the position and length of its
+ * sample block. The sample blocks come last, one per URI, holding the
+ * columns of its {@link HttpSampleStore}, deflated when the file is
+ * compressed.
+ *
+ * <p>
+ * The aggregates can therefore be loaded without reading any sample block.
+ * Files of another version or key, or that are not cache files, are
+ * reported as missing so that the result file is parsed again.
+ */
+public final class ReportCache {
+
+  /**
+   * Suffix of the cache file written next to a result file.
+   */
+  public static final String SUFFIX = ".cache";
+
+  /**
+   * Suffix of the Java serialized files used by earlier versions.
+   */
+  private static final String LEGACY_SUFFIX = ".serialized";
+
+  private static final int MAGIC = 0x50455246;
+
+  static final int VERSION = 6;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final int COMPRESSED = 1;
+
+  private ReportCache() {
+  }
+
+  /**
+   * The cache file of a result file.
+   */
+  public static File getCacheFile(File report) {
+    return new File(report.getPath() + SUFFIX);
+  }
+
+  /**
+   * Whether a file of the report directories is a cache file, of this or of
+   * an earlier version, rather than a result file.
+   */
+  public static boolean isCacheFile(String fileName) {
+    return fileName.endsWith(SUFFIX) || fileName.contains(LEGACY_SUFFIX);
+  }
+
+  /**
+   * Writes a report. The file is replaced at once, readers never see a
+   * partly written file.
+   *
+   * @param key
+   *            identifies the parsed file and the parser configuration, see
+   *            {@link #read(File, boolean, String)}
+   * @param compress
+   *            whether to deflate the sample blocks
+   */
+  public static void write(PerformanceReport report, File file, String key,
+      boolean compress) throws IOException {
+    List<UriReport> uriReports = new ArrayList<UriReport>(
+        report.getUriReportMap().values());
+    List<byte[]> blocks = new ArrayList<byte[]>(uriReports.size());
+    for (UriReport uriReport : uriReports) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream block = new DataOutputStream(compress
+          ? new DeflaterOutputStream(bytes) : bytes);
+      uriReport.getHttpSamples().writeColumns(block);
+      block.close();
+      blocks.add(bytes.toByteArray());
+    }
+
+    File parent = file.getAbsoluteFile().getParentFile();
+    parent.mkdirs();
+    File tmp = File.createTempFile(file.getName(), SUFFIX, parent);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(tmp)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(compress ? COMPRESSED : 0);
+      writeString(out, key);
+      out.writeBoolean(report.getReportFileName() != null);
+      if (report.getReportFileName() != null) {
+        writeString(out, report.getReportFileName());
+      }
+      out.writeInt(uriReports.size());
+      long offset = 0;
+      for (int i = 0; i < uriReports.size(); i++) {
+        UriReport uriReport = uriReports.get(i);
+        writeString(out, uriReport.getStaplerUri());
+        writeString(out, uriReport.getUri());
+        uriReport.getSummary().writeTo(out);
+        uriReport.getHistogram().writeTo(out);
+        uriReport.getTimeBuckets().writeTo(out);
+        List<String> httpCodes = uriReport.getHttpSamples().getHttpCodes();
+        out.writeInt(httpCodes.size());
+        for (String httpCode : httpCodes) {
+          writeString(out, httpCode);
+        }
+        out.writeLong(offset);
+        out.writeInt(blocks.get(i).length);
+        offset += blocks.get(i).length;
+      }
+      for (byte[] block : blocks) {
+        out.write(block);
+      }
+    } catch (IOException e) {
+      out.close();
+      tmp.delete();
+      throw e;
+    }
+    out.close();
+    if (!tmp.renameTo(file)) {
+      file.delete();
+      if (!tmp.renameTo(file)) {
+        tmp.delete();
+        throw new IOException("Unable to rename " + tmp + " to " + file);
+      }
+    }
+  }
+
+  /**
+   * Reads a report.
+   *
+   * @param withSamples
+   *            false to only load the aggregates, histograms and response
+   *            codes, leaving the sample lists empty
+   * @param key
+   *            the key the file must have been written with, or null to
+   *            accept any
+   * @return the report, or null if the file is not a cache file of this
+   *         version or has another key
+   * @throws IOException
+   *             if the file cannot be read or is corrupted
+   */
+  public static PerformanceReport read(File file, boolean withSamples,
+      String key) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(file)));
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        return null;
+      }
+      boolean compressed = (in.readInt() & COMPRESSED) != 0;
+      String fileKey = readString(in);
+      if (key != null && !key.equals(fileKey)) {
+        return null;
+      }
+      PerformanceReport report = new PerformanceReport();
+      if (in.readBoolean()) {
+        report.setReportFileName(readString(in));
+      }
+
+      int count = in.readInt();
+      if (count < 0) {
+        throw new IOException("Corrupted report cache " + file);
+      }
+      String[] staplerUris = new String[count];
+      String[] uris = new String[count];
+      ReportSummary[] summaries = new ReportSummary[count];
+      LatencyHistogram[] histograms = new LatencyHistogram[count];
+      TimeBuckets[] timeBuckets = new TimeBuckets[count];
+      List<List<String>> httpCodes = new ArrayList<List<String>>(count);
+      int[] lengths = new int[count];
+      for (int i = 0; i < count; i++) {
+        staplerUris[i] = readString(in);
+        uris[i] = readString(in);
+        summaries[i] = ReportSummary.readFrom(in);
+        histograms[i] = LatencyHistogram.readFrom(in);
+        timeBuckets[i] = TimeBuckets.readFrom(in, TimeBuckets.MAX_URI_BUCKETS);
+        int codes = in.readInt();
+        List<String> codeList = new ArrayList<String>(codes);
+        for (int j = 0; j < codes; j++) {
+          codeList.add(readString(in));
+        }
+        httpCodes.add(codeList);
+        in.readLong();
+        lengths[i] = in.readInt();
+      }
+
+      for (int i = 0; i < count; i++) {
+        HttpSampleStore httpSamples;
+        if (withSamples) {
+          byte[] block = new byte[lengths[i]];
+          in.readFully(block);
+          InputStream blockIn = new ByteArrayInputStream(block);
+          httpSamples = HttpSampleStore.readColumns(new DataInputStream(
+              compressed ? new InflaterInputStream(blockIn) : blockIn),
+              httpCodes.get(i));
+        } else {
+          httpSamples = new HttpSampleStore();
+          httpSamples.addHttpCodes(httpCodes.get(i));
+        }
+        report.addUriReport(new UriReport(report, staplerUris[i], uris[i],
+            httpSamples, histograms[i], timeBuckets[i], summaries[i]));
+      }
+      return report;
+    } catch (EOFException e) {
+      throw new IOException("Truncated report cache " + file);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Writes a string as the length of its UTF-8 encoding followed by the
+   * encoded bytes, which unlike {@link DataOutput#writeUTF(String)} is not
+   * limited to 64 KB.
+   */
+  static void writeString(DataOutput out, String value) throws IOException {
+    byte[] bytes = value.getBytes(UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Reads a string written by {@link #writeString(DataOutput, String)}.
+   */
+  static String readString(DataInput in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      throw new IOException("Corrupted string length " + length);
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, UTF_8);
+  }
+}
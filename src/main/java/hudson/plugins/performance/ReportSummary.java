@@ -0,0 +1,251 @@
+package hudson.plugins.performance;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Immutable aggregates of a set of samples: count, errors, duration sum, min,
+ * max, response bytes and the time window the samples ran in.
+ *
+ * Built by freezing a {@link Accumulator} once the samples are added, so the
+ * report getters no longer walk the samples on every call.
+ */
+public final class ReportSummary implements Serializable {
+
+  private static final long serialVersionUID = -6512738430946518273L;
+
+  public static final ReportSummary EMPTY = new Accumulator().freeze();
+
+  private final int count;
+
+  private final int errors;
+
+  private final long sum;
+
+  private final long min;
+
+  private final long max;
+
+  private final long bytes;
+
+  /**
+   * Start of the earliest sample, {@link Long#MAX_VALUE} if none has a date.
+   */
+  private final long start;
+
+  /**
+   * Latest sample start plus elapsed time, {@link Long#MIN_VALUE} if none has
+   * a date.
+   */
+  private final long end;
+
+  private ReportSummary(Accumulator accumulator) {
+    this.count = accumulator.count;
+    this.errors = accumulator.errors;
+    this.sum = accumulator.sum;
+    this.min = accumulator.min;
+    this.max = accumulator.max;
+    this.bytes = accumulator.bytes;
+    this.start = accumulator.start;
+    this.end = accumulator.end;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  /**
+   * Number of samples that were not successful.
+   */
+  public int getErrors() {
+    return errors;
+  }
+
+  /**
+   * Sum of the sample durations.
+   */
+  public long getSum() {
+    return sum;
+  }
+
+  /**
+   * @return the smallest duration, or {@link Long#MAX_VALUE} without samples
+   */
+  public long getMin() {
+    return min;
+  }
+
+  /**
+   * @return the largest duration, or {@link Long#MIN_VALUE} without samples
+   */
+  public long getMax() {
+    return max;
+  }
+
+  public long getBytes() {
+    return bytes;
+  }
+
+  /**
+   * @return the mean duration, or 0 without samples
+   */
+  public long getAverage() {
+    return count == 0 ? 0 : sum / count;
+  }
+
+  /**
+   * @return the error percentage, or 0 without samples
+   */
+  public double getErrorPercent() {
+    return count == 0 ? 0 : ((double) errors) / count * 100;
+  }
+
+  public double getTotalTrafficInKb() {
+    return bytes / 1024d;
+  }
+
+  /**
+   * @return the mean response size, or 0 without samples
+   */
+  public double getAverageSizeInKb() {
+    return count == 0 ? 0 : bytes / 1024d / count;
+  }
+
+  /**
+   * @return the start of the earliest sample, or {@link Long#MAX_VALUE}
+   *         without dated samples
+   */
+  public long getStart() {
+    return start;
+  }
+
+  /**
+   * @return when the last sample to finish ended, or {@link Long#MIN_VALUE}
+   *         without dated samples
+   */
+  public long getEnd() {
+    return end;
+  }
+
+  /**
+   * Requests per second between {@link #getStart()} and {@link #getEnd()}.
+   *
+   * @return 0 without a time window
+   */
+  public double getThroughput() {
+    return end > start ? count * 1000d / (end - start) : 0;
+  }
+
+  /**
+   * Response bytes per second between {@link #getStart()} and
+   * {@link #getEnd()}.
+   *
+   * @return 0 without a time window
+   */
+  public double getBytesPerSecond() {
+    return end > start ? bytes * 1000d / (end - start) : 0;
+  }
+
+  /**
+   * Writes the aggregates, for {@link ReportCache}.
+   */
+  void writeTo(DataOutput out) throws IOException {
+    out.writeInt(count);
+    out.writeInt(errors);
+    out.writeLong(sum);
+    out.writeLong(min);
+    out.writeLong(max);
+    out.writeLong(bytes);
+    out.writeLong(start);
+    out.writeLong(end);
+  }
+
+  /**
+   * Reads aggregates written by {@link #writeTo(DataOutput)}.
+   */
+  static ReportSummary readFrom(DataInput in) throws IOException {
+    Accumulator accumulator = new Accumulator();
+    accumulator.count = in.readInt();
+    accumulator.errors = in.readInt();
+    accumulator.sum = in.readLong();
+    accumulator.min = in.readLong();
+    accumulator.max = in.readLong();
+    accumulator.bytes = in.readLong();
+    accumulator.start = in.readLong();
+    accumulator.end = in.readLong();
+    return accumulator.freeze();
+  }
+
+  /**
+   * Running aggregates, updated in a single pass as samples are added and
+   * then frozen into a {@link ReportSummary}.
+   */
+  public static final class Accumulator implements Serializable {
+
+    private static final long serialVersionUID = 4620307431286312548L;
+
+    private int count;
+
+    private int errors;
+
+    private long sum;
+
+    private long min = Long.MAX_VALUE;
+
+    private long max = Long.MIN_VALUE;
+
+    private long bytes;
+
+    private long start = Long.MAX_VALUE;
+
+    private long end = Long.MIN_VALUE;
+
+    public void add(long duration, boolean successful, double sizeInKb) {
+      count++;
+      if (!successful) {
+        errors++;
+      }
+      sum += duration;
+      min = Math.min(min, duration);
+      max = Math.max(max, duration);
+      bytes += Math.round(sizeInKb * 1024d);
+    }
+
+    /**
+     * Adds a sample and widens the time window to include it.
+     *
+     * @param timestamp
+     *            start of the sample, or {@link Long#MIN_VALUE} if it has
+     *            no date
+     */
+    public void add(long timestamp, long duration, boolean successful,
+        double sizeInKb) {
+      add(duration, successful, sizeInKb);
+      if (timestamp != Long.MIN_VALUE) {
+        start = Math.min(start, timestamp);
+        end = Math.max(end, timestamp + Math.max(0, duration));
+      }
+    }
+
+    /**
+     * Adds the aggregates of another summary, as if its samples had been
+     * added to this accumulator.
+     */
+    public void add(ReportSummary summary) {
+      count += summary.count;
+      errors += summary.errors;
+      sum += summary.sum;
+      min = Math.min(min, summary.min);
+      max = Math.max(max, summary.max);
+      bytes += summary.bytes;
+      start = Math.min(start, summary.start);
+      end = Math.max(end, summary.end);
+    }
+
+    public ReportSummary freeze() {
+      return new ReportSummary(this);
+    }
+  }
+}
@@ -0,0 +1,204 @@
+package hudson.plugins.performance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Baseline of the relative thresholds of {@link PerformancePublisher} made of
+ * several builds: for each URI of a report, the median of one response time
+ * metric over the builds of the window.
+ *
+ * The values come from the {@link TrendIndex} aggregates. The window is
+ * updated build by build, each change costing one pass over the URIs of the
+ * build added or removed, and the medians are computed again only for the
+ * reports asked for after a change.
+ *
+ * Not thread safe, see {@link TrendIndex#getBaseline(List, String)}.
+ */
+public final class RollingBaseline {
+
+  private static final long MISSING = Long.MIN_VALUE;
+
+  private final String configType;
+
+  /**
+   * Build number held by each slot of the window, 0 for a free slot.
+   */
+  private final int[] slots;
+
+  /**
+   * Metric of each URI in each slot, by report file name then stapler URI.
+   */
+  private final Map<String, Map<String, long[]>> values = new HashMap<String, Map<String, long[]>>();
+
+  /**
+   * Medians computed since the last change of the window.
+   */
+  private final Map<String, Map<String, Long>> medians = new HashMap<String, Map<String, Long>>();
+
+  /**
+   * @param size
+   *            number of builds in the window
+   * @param configType
+   *            metric compared, see
+   *            {@link UriComparison#getMetric(TrendIndex.Aggregates, String)}
+   */
+  public RollingBaseline(int size, String configType) {
+    this.slots = new int[Math.max(1, size)];
+    this.configType = configType;
+  }
+
+  public int getSize() {
+    return slots.length;
+  }
+
+  public String getConfigType() {
+    return configType;
+  }
+
+  /**
+   * Build numbers of the window, oldest first.
+   */
+  public List<Integer> getBuildNumbers() {
+    List<Integer> numbers = new ArrayList<Integer>(slots.length);
+    for (int number : slots) {
+      if (number != 0) {
+        numbers.add(number);
+      }
+    }
+    Collections.sort(numbers);
+    return numbers;
+  }
+
+  public boolean contains(int buildNumber) {
+    return slotOf(buildNumber) >= 0;
+  }
+
+  /**
+   * Adds a build to the window, removing the oldest one if it is full.
+   *
+   * @param reports
+   *            aggregates of the reports of the build, by report file name
+   */
+  public void add(int buildNumber, Map<String, TrendIndex.ReportEntry> reports) {
+    if (contains(buildNumber)) {
+      remove(buildNumber);
+    }
+    int slot = slotOf(0);
+    if (slot < 0) {
+      slot = 0;
+      for (int i = 1; i < slots.length; i++) {
+        if (slots[i] < slots[slot]) {
+          slot = i;
+        }
+      }
+      remove(slots[slot]);
+    }
+    slots[slot] = buildNumber;
+    for (TrendIndex.ReportEntry report : reports.values()) {
+      Map<String, long[]> uris = values.get(report.getReportFileName());
+      if (uris == null) {
+        uris = new HashMap<String, long[]>();
+        values.put(report.getReportFileName(), uris);
+      }
+      for (TrendIndex.UriEntry uri : report.getUriEntryMap().values()) {
+        long[] metrics = uris.get(uri.getStaplerUri());
+        if (metrics == null) {
+          metrics = new long[slots.length];
+          Arrays.fill(metrics, MISSING);
+          uris.put(uri.getStaplerUri(), metrics);
+        }
+        metrics[slot] = UriComparison.getMetric(uri, configType);
+      }
+    }
+    medians.clear();
+  }
+
+  /**
+   * Removes a build from the window, if it is in it.
+   */
+  public void remove(int buildNumber) {
+    int slot = slotOf(buildNumber);
+    if (slot < 0) {
+      return;
+    }
+    slots[slot] = 0;
+    for (Iterator<Map<String, long[]>> reports = values.values().iterator(); reports.hasNext();) {
+      Map<String, long[]> uris = reports.next();
+      for (Iterator<long[]> i = uris.values().iterator(); i.hasNext();) {
+        long[] metrics = i.next();
+        metrics[slot] = MISSING;
+        if (isEmpty(metrics)) {
+          i.remove();
+        }
+      }
+      if (uris.isEmpty()) {
+        reports.remove();
+      }
+    }
+    medians.clear();
+  }
+
+  /**
+   * The median of the metric of each URI of a report, over the builds of the
+   * window having it.
+   *
+   * @return the medians by stapler URI, or null if no build of the window
+   *         has the report
+   */
+  public Map<String, Long> getValues(String reportFileName) {
+    Map<String, Long> reportMedians = medians.get(reportFileName);
+    if (reportMedians == null) {
+      Map<String, long[]> uris = values.get(reportFileName);
+      if (uris == null) {
+        return null;
+      }
+      reportMedians = new LinkedHashMap<String, Long>(uris.size() * 2);
+      long[] present = new long[slots.length];
+      for (Map.Entry<String, long[]> uri : uris.entrySet()) {
+        int n = 0;
+        for (long value : uri.getValue()) {
+          if (value != MISSING) {
+            present[n++] = value;
+          }
+        }
+        reportMedians.put(uri.getKey(), median(present, n));
+      }
+      medians.put(reportFileName, reportMedians);
+    }
+    return reportMedians;
+  }
+
+  /**
+   * Median of the first {@code n} values, the mean of the two middle ones
+   * for an even count. Sorts them.
+   */
+  static long median(long[] values, int n) {
+    Arrays.sort(values, 0, n);
+    return n % 2 == 1 ? values[n / 2] : (values[n / 2 - 1] + values[n / 2]) / 2;
+  }
+
+  private int slotOf(int buildNumber) {
+    for (int i = 0; i < slots.length; i++) {
+      if (slots[i] == buildNumber) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean isEmpty(long[] metrics) {
+    for (long value : metrics) {
+      if (value != MISSING) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
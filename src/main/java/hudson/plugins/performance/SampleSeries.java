@@ -0,0 +1,229 @@
+package hudson.plugins.performance;
+
+import java.util.Arrays;
+
+/**
+ * The samples of a {@link UriReport} reduced to a bounded number of points,
+ * to draw them whatever their count.
+ *
+ * Durations are aggregated into buckets of equal time width (count, min,
+ * mean and max); empty buckets are left out. {@link #downsample(int)} then
+ * picks the buckets that keep the shape of the mean line, using the
+ * Largest-Triangle-Three-Buckets algorithm, see {@link #lttb}.
+ */
+public final class SampleSeries {
+
+  /**
+   * Buckets computed for the graphs of a {@link UriReport}.
+   */
+  static final int DEFAULT_BUCKETS = 1000;
+
+  private final long[] starts;
+
+  private final int[] counts;
+
+  private final long[] mins;
+
+  private final long[] maxs;
+
+  private final double[] means;
+
+  private SampleSeries(long[] starts, int[] counts, long[] mins, long[] maxs,
+      double[] means) {
+    this.starts = starts;
+    this.counts = counts;
+    this.mins = mins;
+    this.maxs = maxs;
+    this.means = means;
+  }
+
+  /**
+   * Aggregates the samples into at most the given number of buckets. Samples
+   * without a date are ignored.
+   */
+  public static SampleSeries of(HttpSampleStore samples, int maxBuckets) {
+    long first = Long.MAX_VALUE;
+    long last = Long.MIN_VALUE;
+    for (int i = 0; i < samples.size(); i++) {
+      long timestamp = samples.getTimestamp(i);
+      if (timestamp != Long.MIN_VALUE) {
+        first = Math.min(first, timestamp);
+        last = Math.max(last, timestamp);
+      }
+    }
+    if (first > last) {
+      return new SampleSeries(new long[0], new int[0], new long[0], new long[0],
+          new double[0]);
+    }
+
+    int buckets = (int) Math.min(Math.max(1, maxBuckets), last - first + 1);
+    long width = (last - first) / buckets + 1;
+    buckets = (int) ((last - first) / width + 1);
+    int[] counts = new int[buckets];
+    long[] mins = new long[buckets];
+    long[] maxs = new long[buckets];
+    double[] sums = new double[buckets];
+    for (int i = 0; i < samples.size(); i++) {
+      long timestamp = samples.getTimestamp(i);
+      if (timestamp == Long.MIN_VALUE) {
+        continue;
+      }
+      int bucket = (int) ((timestamp - first) / width);
+      long duration = samples.getDuration(i);
+      if (counts[bucket]++ == 0) {
+        mins[bucket] = duration;
+        maxs[bucket] = duration;
+      } else {
+        mins[bucket] = Math.min(mins[bucket], duration);
+        maxs[bucket] = Math.max(maxs[bucket], duration);
+      }
+      sums[bucket] += duration;
+    }
+
+    int used = 0;
+    for (int count : counts) {
+      if (count > 0) {
+        used++;
+      }
+    }
+    SampleSeries series = new SampleSeries(new long[used], new int[used],
+        new long[used], new long[used], new double[used]);
+    int n = 0;
+    for (int bucket = 0; bucket < buckets; bucket++) {
+      if (counts[bucket] > 0) {
+        series.starts[n] = first + bucket * width;
+        series.counts[n] = counts[bucket];
+        series.mins[n] = mins[bucket];
+        series.maxs[n] = maxs[bucket];
+        series.means[n] = sums[bucket] / counts[bucket];
+        n++;
+      }
+    }
+    return series;
+  }
+
+  /**
+   * Number of non-empty buckets.
+   */
+  public int size() {
+    return starts.length;
+  }
+
+  /**
+   * Start of a bucket, in milliseconds since the epoch.
+   */
+  public long getStart(int index) {
+    return starts[index];
+  }
+
+  public int getCount(int index) {
+    return counts[index];
+  }
+
+  public long getMin(int index) {
+    return mins[index];
+  }
+
+  public long getMax(int index) {
+    return maxs[index];
+  }
+
+  public double getMean(int index) {
+    return means[index];
+  }
+
+  /**
+   * Indexes of at most {@code threshold} buckets, in time order, chosen by
+   * {@link #lttb} on the mean durations. A threshold of 0 or less keeps all
+   * of them.
+   */
+  public int[] downsample(int threshold) {
+    return downsample(Long.MIN_VALUE, Long.MAX_VALUE, threshold);
+  }
+
+  /**
+   * Same as {@link #downsample(int)}, over the buckets starting from
+   * {@code from} to {@code to} included only.
+   */
+  public int[] downsample(long from, long to, int threshold) {
+    int first = 0;
+    while (first < starts.length && starts[first] < from) {
+      first++;
+    }
+    int end = first;
+    while (end < starts.length && starts[end] <= to) {
+      end++;
+    }
+    int[] kept;
+    if (threshold <= 0 || end - first <= threshold) {
+      kept = new int[end - first];
+      for (int i = 0; i < kept.length; i++) {
+        kept[i] = i;
+      }
+    } else {
+      kept = lttb(Arrays.copyOfRange(starts, first, end),
+          Arrays.copyOfRange(means, first, end), end - first, threshold);
+    }
+    for (int i = 0; i < kept.length; i++) {
+      kept[i] += first;
+    }
+    return kept;
+  }
+
+  /**
+   * Largest-Triangle-Three-Buckets: keeps the first and last points and, of
+   * each of {@code threshold - 2} ranges in between, the point forming the
+   * largest triangle with the point kept before it and the average of the
+   * next range. Peaks survive, unlike with a fixed stride.
+   *
+   * @param x
+   *            ascending abscissas
+   * @return indexes of the kept points, all of them when there are no more
+   *         than {@code threshold}
+   */
+  static int[] lttb(long[] x, double[] y, int length, int threshold) {
+    threshold = Math.max(threshold, 3);
+    if (length <= threshold) {
+      int[] all = new int[length];
+      for (int i = 0; i < length; i++) {
+        all[i] = i;
+      }
+      return all;
+    }
+
+    int[] kept = new int[threshold];
+    double every = (double) (length - 2) / (threshold - 2);
+    long origin = x[0];
+    int a = 0;
+    for (int i = 0; i < threshold - 2; i++) {
+      int averageStart = (int) ((i + 1) * every) + 1;
+      int averageEnd = Math.min((int) ((i + 2) * every) + 1, length);
+      double averageX = 0;
+      double averageY = 0;
+      for (int j = averageStart; j < averageEnd; j++) {
+        averageX += x[j] - origin;
+        averageY += y[j];
+      }
+      averageX /= averageEnd - averageStart;
+      averageY /= averageEnd - averageStart;
+
+      double ax = x[a] - origin;
+      double ay = y[a];
+      int rangeEnd = (int) ((i + 1) * every) + 1;
+      double maxArea = -1;
+      int next = a + 1;
+      for (int j = (int) (i * every) + 1; j < rangeEnd; j++) {
+        double area = Math.abs((ax - averageX) * (y[j] - ay)
+            - (ax - (x[j] - origin)) * (averageY - ay));
+        if (area > maxArea) {
+          maxArea = area;
+          next = j;
+        }
+      }
+      kept[i + 1] = next;
+      a = next;
+    }
+    kept[threshold - 1] = length - 1;
+    return kept;
+  }
+}
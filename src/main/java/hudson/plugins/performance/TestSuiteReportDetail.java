@@ -94,13 +94,9 @@ public class TestSuiteReportDetail implements ModelObject{
 	          continue;
 	        }
 	        
-	        List<HttpSample> allSamples = new ArrayList<HttpSample>();
 	        for (UriReport currentReport : performanceReport.getUriReportMap().values()) {
-	          allSamples.addAll(currentReport.getHttpSampleList());
-	        }
-	        Collections.sort(allSamples);
-	        for(HttpSample sample : allSamples){
-	        	if (sample.getUri().equals(testUri))
+	        	HttpSample sample = currentReport.getSlowestHttpSample();
+	        	if (sample != null && sample.getUri().equals(testUri))
 	        	{
 		        	if (sample.hasError()){
 		        		// we set duration as 0 for tests failed because of errors
@@ -192,14 +188,9 @@ public class TestSuiteReportDetail implements ModelObject{
 		          continue;
 		        }
 		        
-		        List<HttpSample> allSamples = new ArrayList<HttpSample>();
 		        for (UriReport currentReport : performanceReport.getUriReportMap().values()) {
-		          allSamples.addAll(currentReport.getHttpSampleList());
-		        }
-		        Collections.sort(allSamples);
-		        for(HttpSample sample : allSamples){
-		        	if (!performanceReportTestCaseList.contains(sample.getUri())){
-		        		performanceReportTestCaseList.add(sample.getUri());
+		        	if (currentReport.size() > 0 && !performanceReportTestCaseList.contains(currentReport.getUri())){
+		        		performanceReportTestCaseList.add(currentReport.getUri());
 		        	}
 		        }
 		      
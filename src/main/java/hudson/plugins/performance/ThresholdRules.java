@@ -0,0 +1,515 @@
+package hudson.plugins.performance;
+
+import hudson.model.Result;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The absolute thresholds of {@link PerformancePublisher}, compiled once from
+ * its configuration, one rule per line.
+ *
+ * A rule reads {@code report | uri | metric operator limit | result}:
+ * <ul>
+ * <li>{@code report} is a glob on the report file name,</li>
+ * <li>{@code uri} a glob on the URI (or label) of the samples, or a regular
+ * expression after {@code re:}, or nothing to check the report as a
+ * whole,</li>
+ * <li>{@code metric} one of {@code average}, {@code median}, {@code min},
+ * {@code max}, a percentile such as {@code p99.9}, {@code error%} or
+ * {@code throughput} (requests per second),</li>
+ * <li>{@code operator} one of {@code >}, {@code >=}, {@code <} and
+ * {@code <=}, the condition making the build fail the rule,</li>
+ * <li>{@code result} {@code UNSTABLE}, the default, or {@code FAILURE}.</li>
+ * </ul>
+ *
+ * The older forms {@code report:limit} and {@code report:metric:limit} stand
+ * for {@code report | | average >= limit} and
+ * {@code report | | metric >= limit}, or {@code throughput < limit}.
+ *
+ * URIs are checked in one pass: rules naming a URI without wildcards are
+ * found through a hash map, and each metric is computed at most once per URI,
+ * whatever the number of rules using it.
+ */
+public final class ThresholdRules {
+
+  private static final Pattern CONDITION = Pattern.compile(
+      "([A-Za-z0-9.%]+)\\s*(<=|>=|<|>)\\s*(\\S+)");
+
+  /**
+   * A compiled rule.
+   */
+  public static final class Rule {
+
+    private final String source;
+    private final Pattern report;
+
+    /**
+     * The URI to match exactly, if the URI pattern has no wildcard.
+     */
+    private final String uri;
+
+    /**
+     * Pattern of the other URIs, null for all of them or with {@link #uri}.
+     */
+    private final Pattern uriPattern;
+
+    /**
+     * Whether the rule checks the URIs rather than the whole report.
+     */
+    private final boolean perUri;
+
+    private final int metric;
+    private final String operator;
+    private final double limit;
+    private final Result result;
+
+    Rule(String source, Pattern report, boolean perUri, String uri,
+        Pattern uriPattern, int metric, String operator, double limit, Result result) {
+      this.source = source;
+      this.report = report;
+      this.perUri = perUri;
+      this.uri = uri;
+      this.uriPattern = uriPattern;
+      this.metric = metric;
+      this.operator = operator;
+      this.limit = limit;
+      this.result = result;
+    }
+
+    public Result getResult() {
+      return result;
+    }
+
+    boolean isViolatedBy(double value) {
+      if (operator.equals(">")) {
+        return value > limit;
+      } else if (operator.equals(">=")) {
+        return value >= limit;
+      } else if (operator.equals("<")) {
+        return value < limit;
+      }
+      return value <= limit;
+    }
+
+    @Override
+    public String toString() {
+      return source;
+    }
+  }
+
+  /**
+   * A rule the report or one of its URIs does not pass.
+   */
+  public static final class Violation {
+
+    private final Rule rule;
+    private final String reportFileName;
+    private final String uri;
+    private final String metric;
+    private final double value;
+
+    Violation(Rule rule, String reportFileName, String uri, String metric, double value) {
+      this.rule = rule;
+      this.reportFileName = reportFileName;
+      this.uri = uri;
+      this.metric = metric;
+      this.value = value;
+    }
+
+    public Rule getRule() {
+      return rule;
+    }
+
+    public Result getResult() {
+      return rule.result;
+    }
+
+    /**
+     * The URI, or null for the report as a whole.
+     */
+    public String getUri() {
+      return uri;
+    }
+
+    public double getValue() {
+      return value;
+    }
+
+    public String getMessage() {
+      String subject = uri == null ? reportFileName : reportFileName + " " + uri;
+      String verb = rule.operator.startsWith(">") ? " has exceeded the " : " is below the ";
+      return subject + verb + metric + " threshold of [" + format(rule.limit)
+          + "] with [" + format(value) + "]";
+    }
+
+    private static String format(double number) {
+      if (number == Math.rint(number) && Math.abs(number) < 1e15) {
+        return Long.toString((long) number);
+      }
+      return Double.toString(Math.round(number * 100) / 100d);
+    }
+  }
+
+  /**
+   * A line that could not be compiled.
+   */
+  private static final class Invalid {
+
+    private final String message;
+
+    /**
+     * Pattern of the reports the line is about.
+     */
+    private final Pattern report;
+
+    Invalid(String message, Pattern report) {
+      this.message = message;
+      this.report = report;
+    }
+  }
+
+  private final String source;
+
+  private final List<Rule> rules;
+
+  private final List<Invalid> errors;
+
+  /**
+   * Distinct metrics of the rules, by canonical name, see
+   * {@link Rule#metric}.
+   */
+  private final String[] metrics;
+
+  /**
+   * Percentile of each metric, -1 for the other metrics.
+   */
+  private final double[] percentiles;
+
+  private ThresholdRules(String source, List<Rule> rules, List<Invalid> errors,
+      String[] metrics) {
+    this.source = source;
+    this.rules = rules;
+    this.errors = errors;
+    this.metrics = metrics;
+    this.percentiles = new double[metrics.length];
+    for (int i = 0; i < metrics.length; i++) {
+      percentiles[i] = metrics[i].startsWith("p")
+          ? Double.parseDouble(metrics[i].substring(1)) : -1;
+    }
+  }
+
+  /**
+   * Compiles the rules of a configuration. Lines that cannot be compiled are
+   * left out and reported by {@link #getErrors(String)} for the reports they
+   * are about.
+   */
+  public static ThresholdRules compile(String text) {
+    String source = text == null ? "" : text;
+    List<Rule> rules = new ArrayList<Rule>();
+    List<Invalid> errors = new ArrayList<Invalid>();
+    Map<String, Integer> metrics = new LinkedHashMap<String, Integer>();
+    for (String rawLine : source.split("\n")) {
+      String line = rawLine.trim();
+      if (line.length() == 0 || line.startsWith("#")) {
+        continue;
+      }
+      boolean legacy = line.indexOf('|') < 0;
+      try {
+        Rule rule = legacy ? parseLegacyRule(line, metrics) : parseRule(line, metrics);
+        if (rule != null) {
+          rules.add(rule);
+        }
+      } catch (IllegalArgumentException e) {
+        String report = legacy ? line.substring(0, line.indexOf(':')) : line.substring(0, line.indexOf('|')).trim();
+        errors.add(new Invalid(e.getMessage(), legacy ? Pattern.compile(Pattern.quote(report))
+            : glob(report.length() == 0 ? "*" : report)));
+      }
+    }
+    return new ThresholdRules(source, Collections.unmodifiableList(rules),
+        Collections.unmodifiableList(errors),
+        metrics.keySet().toArray(new String[metrics.size()]));
+  }
+
+  /**
+   * {@code report | uri | metric operator limit | result}
+   */
+  private static Rule parseRule(String line, Map<String, Integer> metrics) {
+    String[] fields = line.split("\\|", -1);
+    if (fields.length < 3 || fields.length > 4) {
+      throw new IllegalArgumentException("Threshold rule without report, URI and condition [" + line + "]");
+    }
+    Pattern report = glob(fields[0].trim().length() == 0 ? "*" : fields[0].trim());
+
+    String uriField = fields[1].trim();
+    boolean perUri = uriField.length() > 0;
+    String uri = null;
+    Pattern uriPattern = null;
+    if (uriField.startsWith("re:")) {
+      try {
+        uriPattern = Pattern.compile(uriField.substring(3));
+      } catch (PatternSyntaxException e) {
+        throw new IllegalArgumentException("Invalid URI expression in [" + line + "]: "
+            + e.getDescription());
+      }
+    } else if (uriField.indexOf('*') < 0 && uriField.indexOf('?') < 0) {
+      uri = uriField;
+    } else if (!uriField.equals("*")) {
+      uriPattern = glob(uriField);
+    }
+
+    Matcher condition = CONDITION.matcher(fields[2].trim());
+    if (!condition.matches()) {
+      throw new IllegalArgumentException("Threshold condition is not 'metric operator limit' in [" + line + "]");
+    }
+    int metric = metricIndex(condition.group(1), metrics);
+    double limit = parseLimit(condition.group(3), line);
+
+    Result result = Result.UNSTABLE;
+    if (fields.length == 4 && fields[3].trim().length() > 0) {
+      String name = fields[3].trim().toUpperCase(Locale.ENGLISH);
+      if (name.equals("FAILURE")) {
+        result = Result.FAILURE;
+      } else if (!name.equals("UNSTABLE")) {
+        throw new IllegalArgumentException("Threshold result is neither UNSTABLE nor FAILURE in [" + line + "]");
+      }
+    }
+    return new Rule(line, report, perUri, uri, uriPattern, metric,
+        condition.group(2), limit, result);
+  }
+
+  /**
+   * {@code report:limit} or {@code report:metric:limit}
+   *
+   * @return null for a line of another shape, or naming no known metric,
+   *         ignored as it always was
+   */
+  private static Rule parseLegacyRule(String line, Map<String, Integer> metrics) {
+    String[] components = line.split(":");
+    String metricName;
+    String limit;
+    if (components.length == 2) {
+      metricName = "average";
+      limit = components[1];
+    } else if (components.length == 3 && isMetric(components[1].trim())) {
+      metricName = components[1].trim();
+      limit = components[2];
+    } else {
+      return null;
+    }
+    int metric = metricIndex(metricName, metrics);
+    String operator = metricName.equalsIgnoreCase("throughput") ? "<" : ">=";
+    return new Rule(line, Pattern.compile(Pattern.quote(components[0])), false,
+        null, null, metric, operator, parseLimit(limit.trim(), line), Result.UNSTABLE);
+  }
+
+  private static double parseLimit(String limit, String line) {
+    try {
+      return Double.parseDouble(limit);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Threshold set to a non-number [" + limit + "] in [" + line + "]");
+    }
+  }
+
+  private static boolean isMetric(String metric) {
+    return canonicalMetric(metric) != null;
+  }
+
+  /**
+   * The name of a metric in the table of the compiled rules.
+   *
+   * @return null for an unknown metric
+   */
+  private static String canonicalMetric(String metric) {
+    String name = metric.toLowerCase(Locale.ENGLISH);
+    if (name.equals("avg")) {
+      return "average";
+    }
+    if (name.equals("average") || name.equals("median") || name.equals("min")
+        || name.equals("max") || name.equals("error%") || name.equals("throughput")) {
+      return name;
+    }
+    if (name.startsWith("p")) {
+      try {
+        double percentile = Double.parseDouble(name.substring(1));
+        if (percentile >= 0 && percentile <= 100) {
+          return "p" + PerformancePublisher.formatPercentile(percentile);
+        }
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Index of a metric in the table of the compiled rules, adding it if it is
+   * not there yet.
+   */
+  private static int metricIndex(String metric, Map<String, Integer> metrics) {
+    String name = canonicalMetric(metric);
+    if (name == null) {
+      throw new IllegalArgumentException("Unknown threshold metric [" + metric + "]");
+    }
+    Integer index = metrics.get(name);
+    if (index == null) {
+      index = metrics.size();
+      metrics.put(name, index);
+    }
+    return index;
+  }
+
+  /**
+   * A glob where {@code *} stands for any characters and {@code ?} for one.
+   */
+  static Pattern glob(String glob) {
+    StringBuilder regex = new StringBuilder();
+    int literal = 0;
+    for (int i = 0; i < glob.length(); i++) {
+      char c = glob.charAt(i);
+      if (c == '*' || c == '?') {
+        if (i > literal) {
+          regex.append(Pattern.quote(glob.substring(literal, i)));
+        }
+        regex.append(c == '*' ? ".*" : ".");
+        literal = i + 1;
+      }
+    }
+    if (literal < glob.length()) {
+      regex.append(Pattern.quote(glob.substring(literal)));
+    }
+    return Pattern.compile(regex.toString(), Pattern.DOTALL);
+  }
+
+  /**
+   * The configuration the rules were compiled from.
+   */
+  public String getSource() {
+    return source;
+  }
+
+  public List<Rule> getRules() {
+    return rules;
+  }
+
+  /**
+   * The lines that could not be compiled, with the reason.
+   */
+  public List<String> getErrors() {
+    List<String> messages = new ArrayList<String>(errors.size());
+    for (Invalid error : errors) {
+      messages.add(error.message);
+    }
+    return messages;
+  }
+
+  /**
+   * The lines about a report that could not be compiled, with the reason.
+   */
+  public List<String> getErrors(String reportFileName) {
+    List<String> messages = new ArrayList<String>();
+    for (Invalid error : errors) {
+      if (error.report.matcher(reportFileName == null ? "" : reportFileName).matches()) {
+        messages.add(error.message);
+      }
+    }
+    return messages;
+  }
+
+  public boolean isEmpty() {
+    return rules.isEmpty();
+  }
+
+  /**
+   * Checks a report and its URIs against the rules.
+   *
+   * @return the rules not passed, in the order of the rules for the report,
+   *         then URI by URI
+   */
+  public List<Violation> check(PerformanceReport report) {
+    String reportFileName = report.getReportFileName() == null ? "" : report.getReportFileName();
+    List<Violation> violations = new ArrayList<Violation>();
+    double[] values = new double[metrics.length];
+
+    Map<String, List<Rule>> exactRules = new HashMap<String, List<Rule>>();
+    List<Rule> allUriRules = new ArrayList<Rule>();
+    List<Rule> patternRules = new ArrayList<Rule>();
+    Arrays.fill(values, Double.NaN);
+    for (Rule rule : rules) {
+      if (!rule.report.matcher(reportFileName).matches()) {
+        continue;
+      }
+      if (!rule.perUri) {
+        check(rule, report, reportFileName, null, values, violations);
+      } else if (rule.uri != null) {
+        List<Rule> sameUri = exactRules.get(rule.uri);
+        if (sameUri == null) {
+          sameUri = new ArrayList<Rule>(1);
+          exactRules.put(rule.uri, sameUri);
+        }
+        sameUri.add(rule);
+      } else if (rule.uriPattern == null) {
+        allUriRules.add(rule);
+      } else {
+        patternRules.add(rule);
+      }
+    }
+    if (exactRules.isEmpty() && allUriRules.isEmpty() && patternRules.isEmpty()) {
+      return violations;
+    }
+
+    for (UriReport uriReport : report.getUriReportMap().values()) {
+      String uri = uriReport.getUri();
+      Arrays.fill(values, Double.NaN);
+      List<Rule> sameUri = exactRules.get(uri);
+      if (sameUri != null) {
+        for (Rule rule : sameUri) {
+          check(rule, uriReport, reportFileName, uri, values, violations);
+        }
+      }
+      for (Rule rule : allUriRules) {
+        check(rule, uriReport, reportFileName, uri, values, violations);
+      }
+      for (Rule rule : patternRules) {
+        if (rule.uriPattern.matcher(uri).matches()) {
+          check(rule, uriReport, reportFileName, uri, values, violations);
+        }
+      }
+    }
+    return violations;
+  }
+
+  private void check(Rule rule, AbstractReport report, String reportFileName,
+      String uri, double[] values, List<Violation> violations) {
+    double value = values[rule.metric];
+    if (Double.isNaN(value)) {
+      value = getMetric(report, rule.metric);
+      values[rule.metric] = value;
+    }
+    if (rule.isViolatedBy(value)) {
+      violations.add(new Violation(rule, reportFileName, uri, metrics[rule.metric], value));
+    }
+  }
+
+  private double getMetric(AbstractReport report, int metric) {
+    if (percentiles[metric] >= 0) {
+      return report.getPercentile(percentiles[metric]);
+    }
+    String name = metrics[metric];
+    if (name.equals("error%")) {
+      return report.errorPercent();
+    } else if (name.equals("throughput")) {
+      return report.getThroughput();
+    }
+    return PerformancePublisher.getResponseTimeMetric(report, name);
+  }
+}
@@ -0,0 +1,395 @@
+package hudson.plugins.performance;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Statistics of the samples of a report over the time of the test, in
+ * buckets of a fixed width: count, errors, duration sum and a coarse
+ * histogram of the durations per bucket.
+ *
+ * Buckets are one second wide unless the test lasts more than the maximum
+ * number of them, {@value #MAX_BUCKETS} for a report and
+ * {@value #MAX_URI_BUCKETS} for a URI, in which case the width is doubled (and
+ * adjacent buckets merged) as often as needed, so that memory depends on the
+ * test duration and never on the number of samples.
+ *
+ * The histogram of a bucket has two bins per power of two of the duration,
+ * so percentiles read from it are within about 20% of the exact value. It is
+ * only allocated once the bucket holds a sample.
+ */
+public final class TimeBuckets implements Serializable {
+
+  private static final long serialVersionUID = -3318036414707823514L;
+
+  static final long DEFAULT_WIDTH = 1000;
+
+  static final int MAX_BUCKETS = 3600;
+
+  /**
+   * Maximum number of buckets of a {@link UriReport}, kept low as a report
+   * may have thousands of URIs.
+   */
+  static final int MAX_URI_BUCKETS = 240;
+
+  /**
+   * Histogram bins of a bucket: below 1 ms, then two per power of two, the
+   * last one open ended (above 2^19 ms).
+   */
+  static final int BINS = 40;
+
+  private final int maxBuckets;
+
+  private long width = DEFAULT_WIDTH;
+
+  /**
+   * Start of the first bucket, a multiple of {@link #width}.
+   */
+  private long origin;
+
+  private int length;
+
+  private int[] counts = new int[0];
+
+  private int[] errors = new int[0];
+
+  private long[] sums = new long[0];
+
+  /**
+   * {@link #BINS} histogram counts per bucket, null for an empty bucket.
+   */
+  private int[][] bins = new int[0][];
+
+  public TimeBuckets() {
+    this(MAX_BUCKETS);
+  }
+
+  /**
+   * @param maxBuckets
+   *            number of buckets beyond which they are widened
+   */
+  public TimeBuckets(int maxBuckets) {
+    this.maxBuckets = maxBuckets;
+  }
+
+  /**
+   * Adds a sample to the bucket of its start time.
+   *
+   * @param timestamp
+   *            start of the sample, ignored if {@link Long#MIN_VALUE}
+   */
+  public void add(long timestamp, long duration, boolean successful) {
+    if (timestamp == Long.MIN_VALUE) {
+      return;
+    }
+    int bucket = bucketOf(timestamp);
+    counts[bucket]++;
+    if (!successful) {
+      errors[bucket]++;
+    }
+    sums[bucket] += duration;
+    binsOf(bucket)[binOf(duration)]++;
+  }
+
+  /**
+   * Adds the buckets of another series, for instance built from another part
+   * of the same file.
+   */
+  public void add(TimeBuckets other) {
+    if (other.length == 0) {
+      return;
+    }
+    if (width < other.width) {
+      if (length == 0) {
+        width = other.width;
+      } else {
+        regrid(other.width);
+      }
+    }
+    for (int i = 0; i < other.length; i++) {
+      if (other.counts[i] == 0) {
+        continue;
+      }
+      int bucket = bucketOf(other.getStart(i));
+      counts[bucket] += other.counts[i];
+      errors[bucket] += other.errors[i];
+      sums[bucket] += other.sums[i];
+      addBins(binsOf(bucket), other.bins[i]);
+    }
+  }
+
+  /**
+   * Number of buckets, from the first to the last sample.
+   */
+  public int size() {
+    return length;
+  }
+
+  /**
+   * Width of the buckets, in milliseconds.
+   */
+  public long getWidth() {
+    return width;
+  }
+
+  /**
+   * Start of a bucket, in milliseconds since the epoch.
+   */
+  public long getStart(int bucket) {
+    return origin + bucket * width;
+  }
+
+  public int getCount(int bucket) {
+    return counts[bucket];
+  }
+
+  public int getErrors(int bucket) {
+    return errors[bucket];
+  }
+
+  /**
+   * @return the mean duration in the bucket, or 0 if it is empty
+   */
+  public long getAverage(int bucket) {
+    return counts[bucket] == 0 ? 0 : sums[bucket] / counts[bucket];
+  }
+
+  /**
+   * Requests started per second in the bucket.
+   */
+  public double getThroughput(int bucket) {
+    return counts[bucket] * 1000d / width;
+  }
+
+  /**
+   * Errors per second in the bucket.
+   */
+  public double getErrorRate(int bucket) {
+    return errors[bucket] * 1000d / width;
+  }
+
+  /**
+   * Approximate duration at the given percentile in the bucket: the middle,
+   * on a log scale, of the histogram bin holding it.
+   *
+   * @return 0 if the bucket is empty
+   */
+  public long getPercentile(int bucket, double percentile) {
+    int count = counts[bucket];
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+    int[] histogram = bins[bucket];
+    long seen = 0;
+    for (int bin = 0; bin < BINS; bin++) {
+      seen += histogram[bin];
+      if (seen >= rank) {
+        return bin == 0 ? 0 : Math.round(Math.pow(2, (2 * bin - 1) / 4d));
+      }
+    }
+    return Math.round(Math.pow(2, (2 * BINS - 3) / 4d));
+  }
+
+  /**
+   * Bin of a duration: 0 below 1 ms, then {@code 1 + 2 * log2(duration)},
+   * plus one in the upper half (above sqrt(2) times the power of two).
+   */
+  static int binOf(long duration) {
+    if (duration < 1) {
+      return 0;
+    }
+    long d = Math.min(duration, 1L << 30);
+    int octave = 63 - Long.numberOfLeadingZeros(d);
+    int bin = 1 + 2 * octave + (d * d >= 1L << (2 * octave + 1) ? 1 : 0);
+    return Math.min(bin, BINS - 1);
+  }
+
+  /**
+   * Histogram of a bucket, allocated on its first sample.
+   */
+  private int[] binsOf(int bucket) {
+    int[] histogram = bins[bucket];
+    if (histogram == null) {
+      histogram = new int[BINS];
+      bins[bucket] = histogram;
+    }
+    return histogram;
+  }
+
+  private static void addBins(int[] histogram, int[] other) {
+    for (int bin = 0; bin < BINS; bin++) {
+      histogram[bin] += other[bin];
+    }
+  }
+
+  private static long floor(long timestamp, long width) {
+    long rest = timestamp % width;
+    return rest < 0 ? timestamp - rest - width : timestamp - rest;
+  }
+
+  /**
+   * Index of the bucket of a timestamp, adding buckets (and widening them
+   * beyond {@link #maxBuckets}) as needed.
+   */
+  private int bucketOf(long timestamp) {
+    if (length == 0) {
+      origin = floor(timestamp, width);
+      ensureCapacity(1);
+      length = 1;
+      return 0;
+    }
+    while (true) {
+      long start = floor(timestamp, width);
+      long first = Math.min(origin, start);
+      long last = Math.max(getStart(length - 1), start);
+      long needed = (last - first) / width + 1;
+      if (needed > maxBuckets) {
+        regrid(width * 2);
+      } else {
+        if (first < origin) {
+          shift((int) ((origin - first) / width));
+        } else if (needed > length) {
+          ensureCapacity((int) needed);
+          length = (int) needed;
+        }
+        return (int) ((timestamp - origin) / width);
+      }
+    }
+  }
+
+  /**
+   * Adds empty buckets before the first one.
+   */
+  private void shift(int buckets) {
+    ensureCapacity(length + buckets);
+    System.arraycopy(counts, 0, counts, buckets, length);
+    System.arraycopy(errors, 0, errors, buckets, length);
+    System.arraycopy(sums, 0, sums, buckets, length);
+    System.arraycopy(bins, 0, bins, buckets, length);
+    Arrays.fill(counts, 0, buckets, 0);
+    Arrays.fill(errors, 0, buckets, 0);
+    Arrays.fill(sums, 0, buckets, 0);
+    Arrays.fill(bins, 0, buckets, null);
+    origin -= buckets * width;
+    length += buckets;
+  }
+
+  /**
+   * Merges the buckets into wider ones, the new width being a multiple of
+   * the current one.
+   */
+  private void regrid(long newWidth) {
+    long newOrigin = floor(origin, newWidth);
+    int newLength = (int) ((floor(getStart(length - 1), newWidth) - newOrigin) / newWidth + 1);
+    int[] newCounts = new int[newLength];
+    int[] newErrors = new int[newLength];
+    long[] newSums = new long[newLength];
+    int[][] newBins = new int[newLength][];
+    for (int i = 0; i < length; i++) {
+      if (counts[i] == 0) {
+        continue;
+      }
+      int bucket = (int) ((getStart(i) - newOrigin) / newWidth);
+      newCounts[bucket] += counts[i];
+      newErrors[bucket] += errors[i];
+      newSums[bucket] += sums[i];
+      if (newBins[bucket] == null) {
+        newBins[bucket] = bins[i];
+      } else {
+        addBins(newBins[bucket], bins[i]);
+      }
+    }
+    width = newWidth;
+    origin = newOrigin;
+    length = newLength;
+    counts = newCounts;
+    errors = newErrors;
+    sums = newSums;
+    bins = newBins;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity <= counts.length) {
+      return;
+    }
+    int newCapacity = Math.min(maxBuckets,
+        Math.max(capacity, counts.length + (counts.length >> 1) + 16));
+    counts = Arrays.copyOf(counts, newCapacity);
+    errors = Arrays.copyOf(errors, newCapacity);
+    sums = Arrays.copyOf(sums, newCapacity);
+    bins = Arrays.copyOf(bins, newCapacity);
+  }
+
+  /**
+   * Writes the buckets, with only the non-empty bins of each, for
+   * {@link ReportCache}.
+   */
+  void writeTo(DataOutput out) throws IOException {
+    out.writeLong(width);
+    out.writeLong(origin);
+    out.writeInt(length);
+    for (int i = 0; i < length; i++) {
+      out.writeInt(counts[i]);
+      if (counts[i] == 0) {
+        continue;
+      }
+      out.writeInt(errors[i]);
+      out.writeLong(sums[i]);
+      int[] histogram = bins[i];
+      int used = 0;
+      for (int bin = 0; bin < BINS; bin++) {
+        if (histogram[bin] != 0) {
+          used++;
+        }
+      }
+      out.writeByte(used);
+      for (int bin = 0; bin < BINS; bin++) {
+        if (histogram[bin] != 0) {
+          out.writeByte(bin);
+          out.writeInt(histogram[bin]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads buckets written by {@link #writeTo(DataOutput)}.
+   *
+   * @param maxBuckets
+   *            maximum number of buckets of the series, see
+   *            {@link #TimeBuckets(int)}
+   */
+  static TimeBuckets readFrom(DataInput in, int maxBuckets) throws IOException {
+    TimeBuckets buckets = new TimeBuckets(maxBuckets);
+    buckets.width = in.readLong();
+    buckets.origin = in.readLong();
+    int length = in.readInt();
+    if (buckets.width <= 0 || length < 0 || length > maxBuckets) {
+      throw new IOException("Corrupted time buckets");
+    }
+    buckets.ensureCapacity(length);
+    buckets.length = length;
+    for (int i = 0; i < length; i++) {
+      buckets.counts[i] = in.readInt();
+      if (buckets.counts[i] == 0) {
+        continue;
+      }
+      buckets.errors[i] = in.readInt();
+      buckets.sums[i] = in.readLong();
+      int[] histogram = buckets.binsOf(i);
+      int used = in.readUnsignedByte();
+      for (int n = 0; n < used; n++) {
+        int bin = in.readUnsignedByte();
+        if (bin >= BINS) {
+          throw new IOException("Corrupted time buckets");
+        }
+        histogram[bin] = in.readInt();
+      }
+    }
+    return buckets;
+  }
+}
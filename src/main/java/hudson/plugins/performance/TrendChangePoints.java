@@ -0,0 +1,241 @@
+package hudson.plugins.performance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds where the average response time of the URIs of a report shifted,
+ * found by a {@link ChangePointDetector} per URI over the builds having it.
+ *
+ * From the sixth build on, an average more than {@value #OUTLIER_DEVIATIONS}
+ * standard deviations away from the median of the last three builds is
+ * replaced by that median first, so that a slow or fast build on its own is
+ * not taken for a shift. Other averages are left alone.
+ *
+ * Builds are added in ascending order as they are indexed, each costing one
+ * step of the detector per URI, see
+ * {@link TrendIndex#getChangePoints(List, String)}.
+ *
+ * Not thread safe.
+ */
+public final class TrendChangePoints {
+
+  static final int OUTLIER_DEVIATIONS = 4;
+
+  /**
+   * A shift of the average response time of a URI.
+   */
+  public static final class Shift implements Comparable<Shift> {
+
+    private final String staplerUri;
+    private final String uri;
+    private final int buildNumber;
+    private final long before;
+    private final long after;
+
+    Shift(String staplerUri, String uri, int buildNumber, long before, long after) {
+      this.staplerUri = staplerUri;
+      this.uri = uri;
+      this.buildNumber = buildNumber;
+      this.before = before;
+      this.after = after;
+    }
+
+    public String getStaplerUri() {
+      return staplerUri;
+    }
+
+    public String getUri() {
+      return uri;
+    }
+
+    /**
+     * The first build after the shift.
+     */
+    public int getBuildNumber() {
+      return buildNumber;
+    }
+
+    /**
+     * Average response time over the builds since the previous shift.
+     */
+    public long getBefore() {
+      return before;
+    }
+
+    /**
+     * Average response time over the builds until the next shift.
+     */
+    public long getAfter() {
+      return after;
+    }
+
+    /**
+     * Relative change in percent, rounded to two decimals.
+     */
+    public double getPercent() {
+      return before == 0 ? 0 : Math.round((double) (after - before) * 100 / before * 100) / 100d;
+    }
+
+    public boolean isRegression() {
+      return after > before;
+    }
+
+    /**
+     * Newest builds first, then the largest increases.
+     */
+    public int compareTo(Shift other) {
+      if (buildNumber != other.buildNumber) {
+        return other.buildNumber < buildNumber ? -1 : 1;
+      }
+      return Double.compare(other.getPercent(), getPercent());
+    }
+  }
+
+  /**
+   * The series of a URI: the builds having it and their averages.
+   */
+  private static final class Series {
+
+    private final String uri;
+
+    private int[] buildNumbers = new int[16];
+
+    private final ChangePointDetector detector = new ChangePointDetector();
+
+    private long previous;
+
+    private long beforePrevious;
+
+    /**
+     * Last value given to the detector.
+     */
+    private double last;
+
+    /**
+     * Squared differences of the successive values given to the detector,
+     * for the standard deviation of the averages without their outliers.
+     */
+    private double squaredSteps;
+
+    /**
+     * Indexes of the averages replaced by a median.
+     */
+    private final BitSet replaced = new BitSet();
+
+    Series(String uri) {
+      this.uri = uri;
+    }
+
+    void add(int buildNumber, long average) {
+      int size = detector.size();
+      if (size == buildNumbers.length) {
+        buildNumbers = Arrays.copyOf(buildNumbers, buildNumbers.length * 2);
+      }
+      buildNumbers[size] = buildNumber;
+      double value = average;
+      if (size >= 5) {
+        double deviation = Math.max(1, Math.sqrt(squaredSteps / (2 * (size - 1))));
+        long median = median(beforePrevious, previous, average);
+        if (Math.abs(average - median) > OUTLIER_DEVIATIONS * deviation) {
+          value = median;
+          replaced.set(size);
+        }
+      }
+      if (size > 0) {
+        squaredSteps += (value - last) * (value - last);
+      }
+      last = value;
+      detector.add(value);
+      beforePrevious = previous;
+      previous = average;
+    }
+
+    /**
+     * The build a change point of the detector stands for: a large shift
+     * starts with an average taken for an outlier.
+     */
+    int getBuildNumber(int change) {
+      while (change > 0 && replaced.get(change - 1)) {
+        change--;
+      }
+      return buildNumbers[change];
+    }
+
+    private static long median(long a, long b, long c) {
+      return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+  }
+
+  private final List<Integer> buildNumbers = new ArrayList<Integer>();
+
+  /**
+   * Series by stapler URI.
+   */
+  private final Map<String, Series> series = new LinkedHashMap<String, Series>();
+
+  /**
+   * Shifts found since the last build was added.
+   */
+  private List<Shift> shifts;
+
+  /**
+   * Builds added so far, in ascending order.
+   */
+  public List<Integer> getBuildNumbers() {
+    return Collections.unmodifiableList(buildNumbers);
+  }
+
+  /**
+   * Adds the next build.
+   *
+   * @throws IllegalArgumentException
+   *             if it is not newer than the last build added
+   */
+  public void add(int buildNumber, TrendIndex.ReportEntry report) {
+    if (!buildNumbers.isEmpty() && buildNumbers.get(buildNumbers.size() - 1) >= buildNumber) {
+      throw new IllegalArgumentException("Build " + buildNumber + " added after "
+          + buildNumbers.get(buildNumbers.size() - 1));
+    }
+    buildNumbers.add(buildNumber);
+    for (TrendIndex.UriEntry uri : report.getUriEntryMap().values()) {
+      Series uriSeries = series.get(uri.getStaplerUri());
+      if (uriSeries == null) {
+        uriSeries = new Series(uri.getUri());
+        series.put(uri.getStaplerUri(), uriSeries);
+      }
+      uriSeries.add(buildNumber, uri.getAverage());
+    }
+    shifts = null;
+  }
+
+  /**
+   * The shifts of all the URIs, newest first.
+   */
+  public List<Shift> getShifts() {
+    if (shifts == null) {
+      List<Shift> found = new ArrayList<Shift>();
+      for (Map.Entry<String, Series> entry : series.entrySet()) {
+        Series uriSeries = entry.getValue();
+        ChangePointDetector detector = uriSeries.detector;
+        int[] changes = detector.getChangePoints();
+        for (int i = 0; i < changes.length; i++) {
+          int from = i == 0 ? 0 : changes[i - 1];
+          int to = i + 1 == changes.length ? detector.size() : changes[i + 1];
+          found.add(new Shift(entry.getKey(), uriSeries.uri,
+              uriSeries.getBuildNumber(changes[i]),
+              Math.round(detector.getMean(from, changes[i])),
+              Math.round(detector.getMean(changes[i], to))));
+        }
+      }
+      Collections.sort(found);
+      shifts = Collections.unmodifiableList(found);
+    }
+    return shifts;
+  }
+}
@@ -0,0 +1,961 @@
+package hudson.plugins.performance;
+
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Item;
+import hudson.model.listeners.ItemListener;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Per project file holding the aggregates of the reports of each build, so
+ * that the trend graphs are drawn without parsing or loading any report.
+ *
+ * <p>
+ * The file starts with a magic number and a format version, followed by one
+ * record per build, appended when the build is published: its number, then
+ * for each report its aggregates and those of its URIs. Each record is
+ * preceded by its length, so that a record left incomplete by a crash is
+ * ignored and overwritten by the next one.
+ *
+ * <p>
+ * Only the aggregates of the reports stay in memory, with the position of
+ * their URIs in the file. The URIs are read when asked for and kept in a
+ * cache shared by all the projects, holding at most {@value #MAX_CACHED_URIS}
+ * of them, the least recently used being dropped first.
+ *
+ * <p>
+ * Builds published before the index existed are added the first time they
+ * are asked for, from their {@link PerformanceBuildAction}.
+ */
+public final class TrendIndex {
+
+  static final String FILE_NAME = "performance-trend.index";
+
+  private static final int MAGIC = 0x50545244;
+
+  static final int VERSION = 5;
+
+  private static final int HEADER_LENGTH = 8;
+
+  static final int MAX_CACHED_URIS = 100000;
+
+  private static final Logger LOGGER = Logger.getLogger(TrendIndex.class.getName());
+
+  private static final Map<File, TrendIndex> INDEXES = new HashMap<File, TrendIndex>();
+
+  /**
+   * URIs read from the index files, by report, in access order.
+   */
+  private static final Map<ReportEntry, Map<String, UriEntry>> URI_CACHE = new LinkedHashMap<ReportEntry, Map<String, UriEntry>>(
+      16, 0.75f, true);
+
+  /**
+   * Number of URIs in {@link #URI_CACHE}.
+   */
+  private static int cachedUris;
+
+  private final File file;
+
+  /**
+   * Reports of each indexed build, keyed by report file name, without their
+   * URIs.
+   */
+  private final Map<Integer, Map<String, ReportEntry>> builds = new HashMap<Integer, Map<String, ReportEntry>>();
+
+  /**
+   * Length of the part of the file already loaded into {@link #builds}.
+   */
+  private long loadedLength;
+
+  /**
+   * Last baseline asked for, kept to slide it by one build at the next one.
+   */
+  private RollingBaseline baseline;
+
+  /**
+   * Change points of each report, kept to add the next builds to them.
+   */
+  private final Map<String, TrendChangePoints> changePoints = new HashMap<String, TrendChangePoints>();
+
+  TrendIndex(File file) {
+    this.file = file;
+  }
+
+  /**
+   * The index of a project, shared by all the callers.
+   */
+  public static TrendIndex forProject(AbstractProject<?, ?> project) {
+    File file = new File(project.getRootDir(), FILE_NAME);
+    synchronized (INDEXES) {
+      TrendIndex index = INDEXES.get(file);
+      if (index == null) {
+        index = new TrendIndex(file);
+        INDEXES.put(file, index);
+      }
+      return index;
+    }
+  }
+
+  /**
+   * Drops the indexes of the projects whose directory is gone, deleted or
+   * renamed. Their URIs leave the cache as it fills up.
+   */
+  static void forgetMissingProjects() {
+    synchronized (INDEXES) {
+      for (Iterator<File> i = INDEXES.keySet().iterator(); i.hasNext();) {
+        if (!i.next().getAbsoluteFile().getParentFile().isDirectory()) {
+          i.remove();
+        }
+      }
+    }
+  }
+
+  /**
+   * Drops the index of a deleted or renamed project.
+   */
+  @Extension
+  public static final class ItemListenerImpl extends ItemListener {
+
+    @Override
+    public void onDeleted(Item item) {
+      synchronized (INDEXES) {
+        INDEXES.remove(new File(item.getRootDir(), FILE_NAME));
+      }
+      forgetMissingProjects();
+    }
+
+    @Override
+    public void onRenamed(Item item, String oldName, String newName) {
+      forgetMissingProjects();
+    }
+  }
+
+  /**
+   * Appends the aggregates of the reports of a build, replacing those
+   * already indexed for it.
+   */
+  public void append(AbstractBuild<?, ?> build, Collection<PerformanceReport> reports)
+      throws IOException {
+    append(build.getNumber(), reports);
+  }
+
+  void append(int buildNumber, Collection<PerformanceReport> reports) throws IOException {
+    write(buildNumber, toEntries(reports), false);
+  }
+
+  private static Map<String, ReportEntry> toEntries(Collection<PerformanceReport> reports) {
+    Map<String, ReportEntry> entries = new LinkedHashMap<String, ReportEntry>();
+    for (PerformanceReport report : reports) {
+      entries.put(report.getReportFileName(), new ReportEntry(report));
+    }
+    return entries;
+  }
+
+  /**
+   * Appends the record of a build. Its URIs then go to the cache, the
+   * entries keeping only their position in the file.
+   *
+   * @param ifAbsent
+   *            whether to keep the reports already indexed for the build
+   * @return the reports indexed for the build
+   */
+  private synchronized Map<String, ReportEntry> write(int buildNumber,
+      Map<String, ReportEntry> entries, boolean ifAbsent) throws IOException {
+    refresh();
+    if (ifAbsent && builds.containsKey(buildNumber)) {
+      return builds.get(buildNumber);
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    if (loadedLength == 0) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+    }
+    int recordStart = out.size();
+    out.writeInt(0);
+    out.writeInt(buildNumber);
+    out.writeInt(entries.size());
+    for (ReportEntry entry : entries.values()) {
+      entry.writeTo(out);
+      entry.uriOffset = out.size() - entry.uriLength;
+    }
+    out.close();
+    byte[] record = bytes.toByteArray();
+    int recordLength = record.length - recordStart - 4;
+    record[recordStart] = (byte) (recordLength >>> 24);
+    record[recordStart + 1] = (byte) (recordLength >>> 16);
+    record[recordStart + 2] = (byte) (recordLength >>> 8);
+    record[recordStart + 3] = (byte) recordLength;
+
+    file.getAbsoluteFile().getParentFile().mkdirs();
+    long position = loadedLength;
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(loadedLength);
+      raf.seek(loadedLength);
+      raf.write(record);
+      loadedLength = raf.getFilePointer();
+    } finally {
+      raf.close();
+    }
+    for (ReportEntry entry : entries.values()) {
+      entry.index = this;
+      entry.uriOffset += position;
+      cache(entry, entry.uris);
+      entry.uris = null;
+    }
+    builds.put(buildNumber, entries);
+    if (baseline != null) {
+      baseline.remove(buildNumber);
+    }
+    for (Iterator<Map.Entry<String, TrendChangePoints>> i = changePoints.entrySet().iterator(); i.hasNext();) {
+      Map.Entry<String, TrendChangePoints> points = i.next();
+      List<Integer> numbers = points.getValue().getBuildNumbers();
+      if (!numbers.isEmpty() && numbers.get(numbers.size() - 1) >= buildNumber) {
+        // an analysed build was indexed again
+        i.remove();
+      } else if (entries.containsKey(points.getKey())) {
+        points.getValue().add(buildNumber, entries.get(points.getKey()));
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * When a build was last added to the index.
+   *
+   * @return 0 if the project has no index yet
+   */
+  public long lastModified() {
+    return file.lastModified();
+  }
+
+  /**
+   * The aggregates of a report of a build.
+   *
+   * @return null if the build has no such report
+   */
+  public ReportEntry getReport(AbstractBuild<?, ?> build, String reportFileName) {
+    return getReports(build).get(reportFileName);
+  }
+
+  /**
+   * The aggregates of the reports of a build, keyed by report file name. A
+   * build missing from the index is added to it, unless it is still running.
+   * Its reports are loaded without holding the index, so that the other
+   * builds are not kept waiting.
+   */
+  public Map<String, ReportEntry> getReports(AbstractBuild<?, ?> build) {
+    Map<String, ReportEntry> entries = getIndexedReports(build.getNumber());
+    if (entries != null) {
+      return entries;
+    }
+    PerformanceBuildAction action = build.getAction(PerformanceBuildAction.class);
+    if (action == null || action.getPerformanceReportMap() == null) {
+      return Collections.emptyMap();
+    }
+    entries = toEntries(action.getPerformanceReportMap().getPerformanceReportMap().values());
+    if (!build.isBuilding()) {
+      try {
+        return write(build.getNumber(), entries, true);
+      } catch (IOException e) {
+        LOGGER.log(Level.WARNING, "Unable to update the trend index " + file, e);
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * The baseline made of the given builds, updated from the one asked for
+   * last: only the builds entering or leaving the window are read.
+   *
+   * @param builds
+   *            the builds of the baseline, for instance the last successful
+   *            ones
+   * @param configType
+   *            metric compared, see
+   *            {@link UriComparison#getMetric(Aggregates, String)}
+   */
+  public RollingBaseline getBaseline(List<? extends AbstractBuild<?, ?>> builds,
+      String configType) {
+    Map<Integer, Map<String, ReportEntry>> reports = new HashMap<Integer, Map<String, ReportEntry>>();
+    for (AbstractBuild<?, ?> build : builds) {
+      reports.put(build.getNumber(), getReports(build));
+    }
+    synchronized (this) {
+      if (baseline == null || baseline.getSize() != Math.max(1, builds.size())
+          || !baseline.getConfigType().equalsIgnoreCase(configType)) {
+        baseline = new RollingBaseline(builds.size(), configType);
+      }
+      for (Integer number : baseline.getBuildNumbers()) {
+        if (!reports.containsKey(number)) {
+          baseline.remove(number);
+        }
+      }
+      for (AbstractBuild<?, ?> build : builds) {
+        if (!baseline.contains(build.getNumber())) {
+          baseline.add(build.getNumber(), reports.get(build.getNumber()));
+        }
+      }
+      return baseline;
+    }
+  }
+
+  /**
+   * The change points of a report over the given builds, kept from the last
+   * call: the builds indexed since then were added as they were published,
+   * see {@link #append(AbstractBuild, Collection)}. Builds missing from the
+   * index are left out rather than parsed.
+   *
+   * The change points are computed again over the given builds when one of
+   * the builds they went through was deleted, or when they go back to more
+   * than twice as many builds.
+   *
+   * @param builds
+   *            the builds to analyse, newest first
+   */
+  public synchronized TrendChangePoints getChangePoints(
+      List<? extends AbstractBuild<?, ?>> builds, String reportFileName) {
+    try {
+      refresh();
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Unable to read the trend index " + file, e);
+    }
+    List<Integer> numbers = new ArrayList<Integer>(builds.size());
+    List<ReportEntry> reports = new ArrayList<ReportEntry>(builds.size());
+    for (int i = builds.size() - 1; i >= 0; i--) {
+      Map<String, ReportEntry> entries = this.builds.get(builds.get(i).getNumber());
+      ReportEntry report = entries == null ? null : entries.get(reportFileName);
+      if (report != null) {
+        numbers.add(builds.get(i).getNumber());
+        reports.add(report);
+      }
+    }
+
+    TrendChangePoints points = changePoints.get(reportFileName);
+    if (points == null || !isContinuedBy(points.getBuildNumbers(), numbers)) {
+      points = new TrendChangePoints();
+      changePoints.put(reportFileName, points);
+    }
+    List<Integer> analysed = points.getBuildNumbers();
+    int last = analysed.isEmpty() ? Integer.MIN_VALUE : analysed.get(analysed.size() - 1);
+    for (int i = 0; i < numbers.size(); i++) {
+      if (numbers.get(i) > last) {
+        points.add(numbers.get(i), reports.get(i));
+      }
+    }
+    return points;
+  }
+
+  /**
+   * Whether change points computed over some builds can go on with the given
+   * ones: the builds they went through start no later, are not more than
+   * twice as many, and from the first given build on are the given ones.
+   *
+   * @param analysed
+   *            the builds of the change points, in ascending order
+   * @param builds
+   *            the builds asked for, in ascending order
+   */
+  static boolean isContinuedBy(List<Integer> analysed, List<Integer> builds) {
+    if (analysed.isEmpty()) {
+      return true;
+    }
+    if (builds.isEmpty() || analysed.size() > 2 * builds.size()) {
+      return false;
+    }
+    int from = Collections.binarySearch(analysed, builds.get(0));
+    if (from < 0) {
+      return false;
+    }
+    List<Integer> common = analysed.subList(from, analysed.size());
+    return common.size() <= builds.size() && common.equals(builds.subList(0, common.size()));
+  }
+
+  /**
+   * The reports of a build as found in the index.
+   *
+   * @return null if the build is not indexed
+   */
+  synchronized Map<String, ReportEntry> getIndexedReports(int buildNumber) {
+    try {
+      refresh();
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Unable to read the trend index " + file, e);
+    }
+    return builds.get(buildNumber);
+  }
+
+  /**
+   * Loads the records appended since the last call. A file of another
+   * version is deleted, so that the index is built again, and the records
+   * from a corrupted one on are overwritten by the next append.
+   */
+  private void refresh() throws IOException {
+    long length = file.length();
+    if (length < loadedLength) {
+      builds.clear();
+      loadedLength = 0;
+    }
+    if (length == loadedLength) {
+      return;
+    }
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(file)));
+    try {
+      long position = loadedLength;
+      if (position == 0) {
+        if (length < HEADER_LENGTH || in.readInt() != MAGIC || in.readInt() != VERSION) {
+          in.close();
+          LOGGER.info("Rebuilding the trend index " + file);
+          file.delete();
+          return;
+        }
+        position = HEADER_LENGTH;
+      } else {
+        skipFully(in, position);
+      }
+      while (position + 4 <= length) {
+        int recordLength = in.readInt();
+        if (recordLength < 0 || position + 4 + recordLength > length) {
+          break;
+        }
+        byte[] record = new byte[recordLength];
+        in.readFully(record);
+        if (!readRecord(record, position + 4)) {
+          LOGGER.warning("Truncating the corrupted trend index " + file
+              + " at " + position);
+          break;
+        }
+        position += 4 + recordLength;
+      }
+      loadedLength = position;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Loads the reports of a record, skipping their URIs.
+   *
+   * @param offset
+   *            position of the record in the file
+   * @return false if the record is corrupted
+   */
+  private boolean readRecord(byte[] record, long offset) {
+    ByteArrayInputStream bytes = new ByteArrayInputStream(record);
+    DataInputStream in = new DataInputStream(bytes);
+    try {
+      int buildNumber = in.readInt();
+      int count = in.readInt();
+      Map<String, ReportEntry> entries = new LinkedHashMap<String, ReportEntry>();
+      for (int i = 0; i < count; i++) {
+        ReportEntry entry = ReportEntry.readFrom(in);
+        if (entry.uriLength > bytes.available()) {
+          return false;
+        }
+        entry.index = this;
+        entry.uriOffset = offset + record.length - bytes.available();
+        skipFully(in, entry.uriLength);
+        entries.put(entry.getReportFileName(), entry);
+      }
+      builds.put(buildNumber, entries);
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * The URIs of a report of the index, from the cache or else from the file.
+   */
+  Map<String, UriEntry> readUris(ReportEntry entry) {
+    synchronized (URI_CACHE) {
+      Map<String, UriEntry> uris = URI_CACHE.get(entry);
+      if (uris != null) {
+        return uris;
+      }
+    }
+    byte[] bytes = new byte[entry.uriLength];
+    Map<String, UriEntry> uris = new LinkedHashMap<String, UriEntry>();
+    try {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+        raf.seek(entry.uriOffset);
+        raf.readFully(bytes);
+      } finally {
+        raf.close();
+      }
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+      for (int i = 0; i < entry.uriCount; i++) {
+        UriEntry uri = UriEntry.readFrom(in);
+        uris.put(uri.getStaplerUri(), uri);
+      }
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Unable to read the URIs of " + entry.getReportFileName()
+          + " from the trend index " + file, e);
+      return Collections.emptyMap();
+    }
+    uris = Collections.unmodifiableMap(uris);
+    cache(entry, uris);
+    return uris;
+  }
+
+  /**
+   * Adds URIs to the cache, dropping the least recently used ones beyond
+   * {@link #MAX_CACHED_URIS}.
+   */
+  private static void cache(ReportEntry entry, Map<String, UriEntry> uris) {
+    synchronized (URI_CACHE) {
+      Map<String, UriEntry> replaced = URI_CACHE.put(entry, uris);
+      cachedUris += uris.size() - (replaced == null ? 0 : replaced.size());
+      for (Iterator<Map<String, UriEntry>> i = URI_CACHE.values().iterator(); cachedUris > MAX_CACHED_URIS
+          && URI_CACHE.size() > 1;) {
+        cachedUris -= i.next().size();
+        i.remove();
+      }
+    }
+  }
+
+  private static void skipFully(DataInputStream in, long n) throws IOException {
+    while (n > 0) {
+      long skipped = in.skip(n);
+      if (skipped <= 0) {
+        throw new EOFException();
+      }
+      n -= skipped;
+    }
+  }
+
+  /**
+   * Aggregates of a report or of one of its URIs.
+   */
+  public static class Aggregates {
+
+    private int count;
+    private int errors;
+    private double errorPercent;
+    private long average;
+    private long median;
+    private long line90;
+    private long min;
+    private long max;
+    private double totalTrafficInKb;
+    private double averageSizeInKb;
+    private double throughput;
+    private double bytesPerSecond;
+
+    /**
+     * Configured percentiles, without the median and the 90% line.
+     */
+    private double[] percentiles;
+
+    private long[] percentileValues;
+
+    Aggregates() {
+    }
+
+    Aggregates(AbstractReport report) {
+      count = report.size();
+      errors = report.countErrors();
+      errorPercent = report.errorPercent();
+      average = report.getAverage();
+      median = report.getMedian();
+      line90 = report.get90Line();
+      min = report.getMin();
+      max = report.getMax();
+      throughput = report.getThroughput();
+      bytesPerSecond = report.getBytesPerSecond();
+      List<Double> extra = new ArrayList<Double>();
+      for (double percentile : report.getConfiguredPercentiles()) {
+        if (percentile != 50 && percentile != 90) {
+          extra.add(percentile);
+        }
+      }
+      percentiles = new double[extra.size()];
+      percentileValues = new long[extra.size()];
+      for (int i = 0; i < percentiles.length; i++) {
+        percentiles[i] = extra.get(i);
+        percentileValues[i] = report.getPercentile(percentiles[i]);
+      }
+    }
+
+    void setTraffic(double totalTrafficInKb, double averageSizeInKb) {
+      this.totalTrafficInKb = totalTrafficInKb;
+      this.averageSizeInKb = averageSizeInKb;
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+      out.writeInt(count);
+      out.writeInt(errors);
+      out.writeDouble(errorPercent);
+      out.writeLong(average);
+      out.writeLong(median);
+      out.writeLong(line90);
+      out.writeLong(min);
+      out.writeLong(max);
+      out.writeDouble(totalTrafficInKb);
+      out.writeDouble(averageSizeInKb);
+      out.writeDouble(throughput);
+      out.writeDouble(bytesPerSecond);
+      out.writeInt(percentiles.length);
+      for (int i = 0; i < percentiles.length; i++) {
+        out.writeDouble(percentiles[i]);
+        out.writeLong(percentileValues[i]);
+      }
+    }
+
+    void readFields(DataInput in) throws IOException {
+      count = in.readInt();
+      errors = in.readInt();
+      errorPercent = in.readDouble();
+      average = in.readLong();
+      median = in.readLong();
+      line90 = in.readLong();
+      min = in.readLong();
+      max = in.readLong();
+      totalTrafficInKb = in.readDouble();
+      averageSizeInKb = in.readDouble();
+      throughput = in.readDouble();
+      bytesPerSecond = in.readDouble();
+      int n = in.readInt();
+      if (n < 0) {
+        throw new IOException("Corrupted trend index");
+      }
+      percentiles = new double[n];
+      percentileValues = new long[n];
+      for (int i = 0; i < n; i++) {
+        percentiles[i] = in.readDouble();
+        percentileValues[i] = in.readLong();
+      }
+    }
+
+    /**
+     * Writes the selected aggregates as members of the current object.
+     */
+    void writeJson(JsonWriter json) throws IOException {
+      json.field("count", count);
+      json.field("errors", errors);
+      json.field("errorPercent", errorPercent);
+      json.field("average", average);
+      json.field("median", median);
+      json.field("line90", line90);
+      json.field("min", count == 0 ? 0 : min);
+      json.field("max", count == 0 ? 0 : max);
+      json.field("totalTrafficInKb", totalTrafficInKb);
+      json.field("averageSizeInKb", averageSizeInKb);
+      json.field("throughput", throughput);
+      json.field("bytesPerSecond", bytesPerSecond);
+      if (json.isSelected("percentiles")) {
+        json.name("percentiles").beginObject();
+        for (int i = 0; i < percentiles.length; i++) {
+          json.name(PerformancePublisher.formatPercentile(percentiles[i]))
+              .value(percentileValues[i]);
+        }
+        json.endObject();
+      }
+    }
+
+    public int size() {
+      return count;
+    }
+
+    public int countErrors() {
+      return errors;
+    }
+
+    public double errorPercent() {
+      return errorPercent;
+    }
+
+    public long getAverage() {
+      return average;
+    }
+
+    public long getMedian() {
+      return median;
+    }
+
+    public long get90Line() {
+      return line90;
+    }
+
+    public long getMin() {
+      return min;
+    }
+
+    public long getMax() {
+      return max;
+    }
+
+    public double getTotalTrafficInKb() {
+      return totalTrafficInKb;
+    }
+
+    public double getAverageSizeInKb() {
+      return averageSizeInKb;
+    }
+
+    /**
+     * Same as {@link AbstractReport#getThroughput()}.
+     */
+    public double getThroughput() {
+      return throughput;
+    }
+
+    /**
+     * Same as {@link AbstractReport#getBytesPerSecond()}.
+     */
+    public double getBytesPerSecond() {
+      return bytesPerSecond;
+    }
+
+    /**
+     * Same as {@link AbstractReport#getExtraPercentiles()}, for the
+     * percentiles configured when the build was indexed.
+     */
+    public List<String> getExtraPercentiles() {
+      List<String> names = new ArrayList<String>(percentiles.length);
+      for (double percentile : percentiles) {
+        names.add(PerformancePublisher.formatPercentile(percentile));
+      }
+      return names;
+    }
+
+    public List<Long> getExtraPercentileValues() {
+      List<Long> values = new ArrayList<Long>(percentileValues.length);
+      for (long value : percentileValues) {
+        values.add(value);
+      }
+      return values;
+    }
+  }
+
+  /**
+   * Aggregates of a {@link PerformanceReport}.
+   */
+  public static final class ReportEntry extends Aggregates {
+
+    private String reportFileName;
+
+    /**
+     * URIs keyed by {@link UriReport#getStaplerUri()}, null for an entry of
+     * the index, which reads them when asked for.
+     */
+    private Map<String, UriEntry> uris;
+
+    private TrendIndex index;
+
+    private int uriCount;
+
+    /**
+     * Position and length of the URIs in the index file.
+     */
+    private long uriOffset;
+
+    private int uriLength;
+
+    private ReportEntry() {
+    }
+
+    ReportEntry(PerformanceReport report) {
+      super(report);
+      reportFileName = report.getReportFileName();
+      Map<String, UriEntry> entries = new LinkedHashMap<String, UriEntry>();
+      for (Map.Entry<String, UriReport> uri : report.getUriReportMap().entrySet()) {
+        entries.put(uri.getKey(), new UriEntry(uri.getValue()));
+      }
+      uris = Collections.unmodifiableMap(entries);
+      setTraffic(report.getTotalTrafficInKb(), report.getAverageSizeInKb());
+    }
+
+    /**
+     * Writes the aggregates, then the number and the length of the URIs
+     * followed by the URIs, so that they can be skipped.
+     */
+    @Override
+    void writeTo(DataOutput out) throws IOException {
+      ReportCache.writeString(out, reportFileName);
+      super.writeTo(out);
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream uriOut = new DataOutputStream(bytes);
+      for (UriEntry uri : uris.values()) {
+        uri.writeTo(uriOut);
+      }
+      uriOut.close();
+      uriCount = uris.size();
+      uriLength = bytes.size();
+      out.writeInt(uriCount);
+      out.writeInt(uriLength);
+      out.write(bytes.toByteArray());
+    }
+
+    /**
+     * Writes the selected aggregates as members of the current object, and
+     * an array of URIs if asked for.
+     */
+    void writeJson(JsonWriter json, boolean withUris) throws IOException {
+      writeJson(json);
+      if (withUris) {
+        json.name("uris").beginArray();
+        for (UriEntry uri : getUriEntryMap().values()) {
+          json.beginObject();
+          uri.writeJson(json);
+          json.endObject();
+        }
+        json.endArray();
+      }
+    }
+
+    /**
+     * Reads the aggregates and the number and length of the URIs, leaving
+     * the URIs to read.
+     */
+    static ReportEntry readFrom(DataInput in) throws IOException {
+      ReportEntry entry = new ReportEntry();
+      entry.reportFileName = ReportCache.readString(in);
+      entry.readFields(in);
+      entry.uriCount = in.readInt();
+      entry.uriLength = in.readInt();
+      if (entry.uriCount < 0 || entry.uriLength < 0) {
+        throw new IOException("Corrupted trend index");
+      }
+      return entry;
+    }
+
+    public String getReportFileName() {
+      return reportFileName;
+    }
+
+    public Map<String, UriEntry> getUriEntryMap() {
+      return uris != null ? uris : index.readUris(this);
+    }
+  }
+
+  /**
+   * Aggregates of a {@link UriReport}.
+   */
+  public static final class UriEntry extends Aggregates {
+
+    private String staplerUri;
+    private String uri;
+    private String httpCode;
+    private float summarizerErrors;
+
+    /**
+     * Duration of the slowest sample, or -1 when the samples were not kept.
+     */
+    private long slowestDuration = -1;
+
+    private boolean slowestFailed;
+
+    private UriEntry() {
+    }
+
+    UriEntry(UriReport uriReport) {
+      super(uriReport);
+      staplerUri = uriReport.getStaplerUri();
+      uri = uriReport.getUri();
+      httpCode = uriReport.getHttpCode();
+      setTraffic(uriReport.getTotalTrafficInKb(), uriReport.getAverageSizeInKb());
+      if (uriReport.getHttpSamples().hasSummarizerValues()) {
+        try {
+          summarizerErrors = Float.valueOf(uriReport.getSummarizerErrors());
+        } catch (NumberFormatException e) {
+          summarizerErrors = 0;
+        }
+      }
+      HttpSample slowest = uriReport.getSlowestHttpSample();
+      if (slowest != null) {
+        slowestDuration = slowest.getDuration();
+        slowestFailed = slowest.hasError();
+      }
+    }
+
+    @Override
+    void writeTo(DataOutput out) throws IOException {
+      ReportCache.writeString(out, staplerUri);
+      ReportCache.writeString(out, uri);
+      ReportCache.writeString(out, httpCode);
+      super.writeTo(out);
+      out.writeFloat(summarizerErrors);
+      out.writeLong(slowestDuration);
+      out.writeBoolean(slowestFailed);
+    }
+
+    @Override
+    void writeJson(JsonWriter json) throws IOException {
+      json.name("uri").value(uri);
+      json.name("staplerUri").value(staplerUri);
+      super.writeJson(json);
+      json.field("httpCode", httpCode);
+      json.field("summarizerErrors", summarizerErrors);
+    }
+
+    static UriEntry readFrom(DataInput in) throws IOException {
+      UriEntry entry = new UriEntry();
+      entry.staplerUri = ReportCache.readString(in);
+      entry.uri = ReportCache.readString(in);
+      entry.httpCode = ReportCache.readString(in);
+      entry.readFields(in);
+      entry.summarizerErrors = in.readFloat();
+      entry.slowestDuration = in.readLong();
+      entry.slowestFailed = in.readBoolean();
+      return entry;
+    }
+
+    public String getStaplerUri() {
+      return staplerUri;
+    }
+
+    public String getUri() {
+      return uri;
+    }
+
+    /**
+     * Same as {@link UriReport#getHttpCode()}.
+     */
+    public String getHttpCode() {
+      return httpCode;
+    }
+
+    /**
+     * Percentage of errors reported by the summarizer, see
+     * {@link UriReport#getSummarizerErrors()}.
+     */
+    public float getSummarizerErrors() {
+      return summarizerErrors;
+    }
+
+    public long getSlowestDuration() {
+      return slowestDuration;
+    }
+
+    public boolean isSlowestFailed() {
+      return slowestFailed;
+    }
+  }
+}
@@ -0,0 +1,142 @@
+package hudson.plugins.performance;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compares the URIs of a report between two builds, or a build and a
+ * {@link RollingBaseline}, on one response time metric, for the relative
+ * thresholds of {@link PerformancePublisher}.
+ *
+ * URIs are matched on their {@link UriReport#getStaplerUri()}, ignoring the
+ * case, through a hash map, and the metric is read from the
+ * {@link TrendIndex} aggregates instead of the samples.
+ */
+public final class UriComparison {
+
+  /**
+   * Difference of a URI between the previous and the current build.
+   */
+  public static final class Diff implements Comparable<Diff> {
+
+    private final String previousStaplerUri;
+    private final String staplerUri;
+    private final long previous;
+    private final long current;
+    private final double percent;
+
+    Diff(String previousStaplerUri, String staplerUri, long previous, long current) {
+      this.previousStaplerUri = previousStaplerUri;
+      this.staplerUri = staplerUri;
+      this.previous = previous;
+      this.current = current;
+      this.percent = Math.round((double) (current - previous) * 100 / previous * 100) / 100d;
+    }
+
+    /**
+     * The URI in the previous build, which may differ in case.
+     */
+    public String getPreviousStaplerUri() {
+      return previousStaplerUri;
+    }
+
+    public String getStaplerUri() {
+      return staplerUri;
+    }
+
+    public long getPrevious() {
+      return previous;
+    }
+
+    public long getCurrent() {
+      return current;
+    }
+
+    public long getDiff() {
+      return current - previous;
+    }
+
+    /**
+     * Relative difference in percent, rounded to two decimals with
+     * {@link Math#round(double)}: huge when the previous value is 0, or 0 if
+     * both are.
+     */
+    public double getPercent() {
+      return percent;
+    }
+
+    /**
+     * Worst regressions, the largest relative increases, first.
+     */
+    public int compareTo(Diff other) {
+      return Double.compare(other.percent, percent);
+    }
+  }
+
+  private UriComparison() {
+  }
+
+  /**
+   * The metric of a relative threshold configuration type: {@code ART}
+   * (average), {@code MRT} (median) or {@code PRT} (90% line).
+   */
+  static long getMetric(TrendIndex.Aggregates aggregates, String configType) {
+    if (PerformancePublisher.MRT.equalsIgnoreCase(configType)) {
+      return aggregates.getMedian();
+    } else if (PerformancePublisher.PRT.equalsIgnoreCase(configType)) {
+      return aggregates.get90Line();
+    }
+    return aggregates.getAverage();
+  }
+
+  /**
+   * Joins the URIs found in both builds and computes the difference of the
+   * configured metric for each.
+   *
+   * @return the differences, worst regressions first
+   */
+  public static List<Diff> compare(Map<String, TrendIndex.UriEntry> previous,
+      Map<String, TrendIndex.UriEntry> current, String configType) {
+    Map<String, Long> previousValues = new LinkedHashMap<String, Long>(previous.size() * 2);
+    for (TrendIndex.UriEntry entry : previous.values()) {
+      previousValues.put(entry.getStaplerUri(), getMetric(entry, configType));
+    }
+    return compareWith(previousValues, current, configType);
+  }
+
+  /**
+   * Same as {@link #compare(Map, Map, String)}, against values of the metric
+   * already computed, for instance by a {@link RollingBaseline}.
+   *
+   * @param previous
+   *            the metric by stapler URI
+   */
+  public static List<Diff> compareWith(Map<String, Long> previous,
+      Map<String, TrendIndex.UriEntry> current, String configType) {
+    Map<String, Map.Entry<String, Long>> previousByUri = new HashMap<String, Map.Entry<String, Long>>(
+        previous.size() * 2);
+    for (Map.Entry<String, Long> entry : previous.entrySet()) {
+      String key = entry.getKey().toLowerCase(Locale.ENGLISH);
+      if (!previousByUri.containsKey(key)) {
+        previousByUri.put(key, entry);
+      }
+    }
+
+    List<Diff> diffs = new ArrayList<Diff>();
+    for (TrendIndex.UriEntry entry : current.values()) {
+      Map.Entry<String, Long> previousEntry = previousByUri.get(
+          entry.getStaplerUri().toLowerCase(Locale.ENGLISH));
+      if (previousEntry != null) {
+        diffs.add(new Diff(previousEntry.getKey(), entry.getStaplerUri(), previousEntry.getValue(),
+            getMetric(entry, configType)));
+      }
+    }
+    Collections.sort(diffs);
+    return diffs;
+  }
+}
@@ -2,7 +2,6 @@ package hudson.plugins.performance;
 
 import hudson.model.AbstractBuild;
 import hudson.model.ModelObject;
-import hudson.util.ChartUtil;
 
 import java.io.UnsupportedEncodingException;
 import java.io.IOException;
@@ -11,6 +10,7 @@ import java.net.URLEncoder;
 import java.util.*;
 import java.text.DecimalFormat;
 
+import org.jfree.chart.JFreeChart;
 import org.jfree.data.xy.XYDataset;
 import org.jfree.data.time.TimeSeriesCollection;
 import org.jfree.data.time.TimeSeries;
@@ -27,14 +27,52 @@ import org.kohsuke.stapler.StaplerResponse;
 public class UriReport extends AbstractReport implements  Serializable, ModelObject,
     Comparable<UriReport> {
 
-  private static final long serialVersionUID = 6377220939528230222L;
+  private static final long serialVersionUID = 2803624457317786431L;
 
   public final static String END_PERFORMANCE_PARAMETER = ".endperformanceparameter";
 
+  /**
+   * Samples written by {@link #doData} unless asked otherwise.
+   */
+  static final int DEFAULT_MAX_POINTS = 2000;
+
+  /**
+   * Points drawn by {@link #doSummarizerTrendGraph}, above which samples are
+   * aggregated, see {@link SampleSeries}.
+   */
+  static final int MAX_GRAPH_POINTS = 500;
+
   /**
    * Individual HTTP invocations to this URI and how they went.
    */
-  private final List<HttpSample> httpSampleList = new ArrayList<HttpSample>();
+  private final HttpSampleStore httpSamples;
+
+  /**
+   * Distribution of the sample durations, filled as samples are added.
+   */
+  private final LatencyHistogram histogram;
+
+  /**
+   * Statistics over the time of the test, filled as samples are added.
+   */
+  private final TimeBuckets timeBuckets;
+
+  /**
+   * Count, errors, duration sum, min, max and bytes, updated as samples are
+   * added.
+   */
+  private final ReportSummary.Accumulator accumulator;
+
+  /**
+   * {@link #accumulator} frozen on first use, dropped when a sample is added.
+   */
+  private transient ReportSummary summary;
+
+  /**
+   * Samples aggregated by time for the graphs, built on first use, dropped
+   * when a sample is added.
+   */
+  private transient SampleSeries sampleSeries;
 
   /**
    * The parent object to which this object belongs.
@@ -46,19 +84,103 @@ public class UriReport extends AbstractReport implements  Serializable, ModelObj
    * as a token in URL.
    */
   private final String staplerUri;
-  
-  private UriReport lastBuildUriReport;
 
   private String uri;
 
   UriReport(PerformanceReport performanceReport, String staplerUri, String uri) {
+    this(performanceReport, staplerUri, uri, new HttpSampleStore(),
+        new LatencyHistogram(), new TimeBuckets(TimeBuckets.MAX_URI_BUCKETS),
+        ReportSummary.EMPTY);
+  }
+
+  /**
+   * Restores a report from its parts, see {@link ReportCache}.
+   */
+  UriReport(PerformanceReport performanceReport, String staplerUri, String uri,
+      HttpSampleStore httpSamples, LatencyHistogram histogram,
+      TimeBuckets timeBuckets, ReportSummary summary) {
     this.performanceReport = performanceReport;
     this.staplerUri = staplerUri;
     this.uri = uri;
+    this.httpSamples = httpSamples;
+    this.histogram = histogram;
+    this.timeBuckets = timeBuckets;
+    this.accumulator = new ReportSummary.Accumulator();
+    this.accumulator.add(summary);
   }
 
   public void addHttpSample(HttpSample httpSample) {
-    httpSampleList.add(httpSample);
+    httpSamples.add(httpSample);
+    Date date = httpSample.getDate();
+    sampleAdded(date == null ? Long.MIN_VALUE : date.getTime(),
+        httpSample.getDuration(), httpSample.isSuccessful(),
+        httpSample.getSizeInKb());
+  }
+
+  /**
+   * Adds a sample given as primitive values, without building an
+   * {@link HttpSample}.
+   *
+   * @param timestamp
+   *            start of the sample, in milliseconds since the epoch
+   */
+  public void addHttpSample(long timestamp, long duration, boolean successful,
+      boolean errorObtained, String httpCode, double sizeInKb) {
+    httpSamples.add(timestamp, duration, successful, errorObtained, httpCode,
+        sizeInKb);
+    sampleAdded(timestamp, duration, successful, sizeInKb);
+  }
+
+  /**
+   * Appends the samples and aggregates of a report on the same URI, for
+   * instance one built from another part of the same file.
+   */
+  public void merge(UriReport other) {
+    httpSamples.addAll(other.httpSamples);
+    histogram.add(other.histogram);
+    timeBuckets.add(other.timeBuckets);
+    accumulator.add(other.getSummary());
+    summary = null;
+    sampleSeries = null;
+  }
+
+  /**
+   * Drops the individual samples, keeping the aggregates, the histogram, the
+   * response codes and the {@link #getSlowestHttpSample() slowest sample}.
+   * Samples with summarizer values are kept, as the summarizer figures are
+   * computed from them.
+   */
+  public void dropSamples() {
+    if (!httpSamples.hasSummarizerValues()) {
+      int slowest = httpSamples.indexOfSlowest();
+      if (slowest < 0) {
+        httpSamples.clear();
+      } else {
+        httpSamples.retain(slowest);
+      }
+    }
+  }
+
+  private void sampleAdded(long timestamp, long duration, boolean successful,
+      double sizeInKb) {
+    histogram.recordValue(duration);
+    timeBuckets.add(timestamp, duration, successful);
+    accumulator.add(timestamp, duration, successful, sizeInKb);
+    summary = null;
+    sampleSeries = null;
+  }
+
+  /**
+   * The samples aggregated into {@link SampleSeries#DEFAULT_BUCKETS} time
+   * buckets.
+   */
+  public SampleSeries getSampleSeries() {
+    SampleSeries series = sampleSeries;
+    if (series == null) {
+      series = SampleSeries.of(httpSamples, SampleSeries.DEFAULT_BUCKETS);
+      sampleSeries = series;
+    }
+    return series;
   }
 
   public int compareTo(UriReport uriReport) {
@@ -69,63 +191,65 @@ public class UriReport extends AbstractReport implements  Serializable, ModelObj
   }
 
   public int countErrors() {
-    int nbError = 0;
-    for (HttpSample currentSample : httpSampleList) {
-      if (!currentSample.isSuccessful()) {
-        nbError++;
-      }
-    }
-    return nbError;
+    return getSummary().getErrors();
   }
 
   public double errorPercent() {
-    return ((double) countErrors()) / size() * 100;
+    return getSummary().getErrorPercent();
   }
 
   public long getAverage() {
-    long average = 0;
-    for (HttpSample currentSample : httpSampleList) {
-      average += currentSample.getDuration();
-    }
-    return average / size();
+    return getSummary().getAverage();
   }
   
   public double getAverageSizeInKb(){ 
-	  double average = 0 ; 
-	  for (HttpSample currentSample : httpSampleList) {
-	      average += currentSample.getSizeInKb();
-	    }
-	    return roundTwoDecimals(average / size());
+    return roundTwoDecimals(getSummary().getAverageSizeInKb());
   }
 
   public long get90Line() {
-    long result = 0;
-    Collections.sort(httpSampleList);
-    if (httpSampleList.size() > 0) {
-      result = httpSampleList.get((int) (httpSampleList.size() * .9)).getDuration();
-    }
-    return result;
+    return getPercentile(90);
   }
   
   public String getHttpCode() {
-    String result = "";
-    
-    for (HttpSample currentSample : httpSampleList) {
-      if ( !result.matches( ".*"+currentSample.getHttpCode()+".*" ) ) {
-          result += ( result.length() > 1 ) ? ","+currentSample.getHttpCode() : currentSample.getHttpCode();
+    StringBuilder result = new StringBuilder();
+    for (String httpCode : httpSamples.getHttpCodes()) {
+      if (result.length() > 0) {
+        result.append(',');
       }
+      result.append(httpCode);
     }
-    
-    return result;
+    return result.toString();
   }
 
   public long getMedian() {
-    long result = 0;
-    Collections.sort(httpSampleList);
-    if (httpSampleList.size() > 0) {
-      result = httpSampleList.get((int) (httpSampleList.size() * .5)).getDuration();
+    return getPercentile(50);
+  }
+
+  public LatencyHistogram getHistogram() {
+    return histogram;
+  }
+
+  public TimeBuckets getTimeBuckets() {
+    return timeBuckets;
+  }
+
+  public double[] getConfiguredPercentiles() {
+    if (performanceReport == null) {
+      return PerformancePublisher.parsePercentiles(PerformancePublisher.DEFAULT_PERCENTILES);
     }
-    return result;
+    return performanceReport.getConfiguredPercentiles();
+  }
+
+  /**
+   * Aggregates of the samples of this URI, computed while they were added.
+   */
+  public ReportSummary getSummary() {
+    ReportSummary frozen = summary;
+    if (frozen == null) {
+      frozen = accumulator.freeze();
+      summary = frozen;
+    }
+    return frozen;
   }
 
   public AbstractBuild<?, ?> getBuild() {
@@ -136,8 +260,24 @@ public class UriReport extends AbstractReport implements  Serializable, ModelObj
     return getUri();
   }
 
+  /**
+   * Read-only view of the samples of this URI. The {@link HttpSample}s are
+   * built on demand from {@link #getHttpSamples()}.
+   */
   public List<HttpSample> getHttpSampleList() {
-    return httpSampleList;
+    return httpSamples.asList(uri);
+  }
+
+  public HttpSampleStore getHttpSamples() {
+    return httpSamples;
+  }
+
+  /**
+   * The sample with the longest duration, or null if there is no sample.
+   */
+  public HttpSample getSlowestHttpSample() {
+    int index = httpSamples.indexOfSlowest();
+    return index < 0 ? null : httpSamples.get(index, uri);
   }
 
   public PerformanceReport getPerformanceReport() {
@@ -145,27 +285,15 @@ public class UriReport extends AbstractReport implements  Serializable, ModelObj
   }
 
   public long getMax() {
-    long max = Long.MIN_VALUE;
-    for (HttpSample currentSample : httpSampleList) {
-      max = Math.max(max, currentSample.getDuration());
-    }
-    return max;
+    return getSummary().getMax();
   }
   
   public double getTotalTrafficInKb(){ 
-	  double traffic = 0 ; 
-	  for (HttpSample currentSample : httpSampleList) {
-		  traffic += currentSample.getSizeInKb();
-	    }
-	    return roundTwoDecimals(traffic);
+    return roundTwoDecimals(getSummary().getTotalTrafficInKb());
   }
 
   public long getMin() {
-    long min = Long.MAX_VALUE;
-    for (HttpSample currentSample : httpSampleList) {
-      min = Math.min(min, currentSample.getDuration());
-    }
-    return min;
+    return getSummary().getMin();
   }
 
   public String getStaplerUri() {
@@ -192,7 +320,7 @@ public class UriReport extends AbstractReport implements  Serializable, ModelObj
   }
 
   public int size() {
-    return httpSampleList.size();
+    return getSummary().getCount();
   }
 
   public String encodeUriReport() throws UnsupportedEncodingException {
@@ -203,11 +331,19 @@ public class UriReport extends AbstractReport implements  Serializable, ModelObj
     return URLEncoder.encode(sb.toString(), "UTF-8");
   }
 
-  public void addLastBuildUriReport( UriReport lastBuildUriReport ) {
-      this.lastBuildUriReport = lastBuildUriReport;
+  /**
+   * Aggregates of this URI in the previous build, see
+   * {@link PerformanceReport#getLastBuildReport()}.
+   */
+  private TrendIndex.UriEntry getLastBuildUriReport() {
+      TrendIndex.ReportEntry lastBuildReport = performanceReport == null ? null
+          : performanceReport.getLastBuildReport();
+      return lastBuildReport == null ? null
+          : lastBuildReport.getUriEntryMap().get(staplerUri);
   }
-  
+
   public long getAverageDiff() {
+      TrendIndex.UriEntry lastBuildUriReport = getLastBuildUriReport();
       if ( lastBuildUriReport == null ) {
           return 0;
       }
@@ -215,6 +351,7 @@ public class UriReport extends AbstractReport implements  Serializable, ModelObj
   }
   
   public long getMedianDiff() {
+      TrendIndex.UriEntry lastBuildUriReport = getLastBuildUriReport();
       if ( lastBuildUriReport == null ) {
           return 0;
       }
@@ -222,6 +359,7 @@ public class UriReport extends AbstractReport implements  Serializable, ModelObj
   }
   
   public double getErrorPercentDiff() {
+      TrendIndex.UriEntry lastBuildUriReport = getLastBuildUriReport();
       if ( lastBuildUriReport == null ) {
           return 0;
       }
@@ -229,6 +367,7 @@ public class UriReport extends AbstractReport implements  Serializable, ModelObj
   }
   
   public String getLastBuildHttpCodeIfChanged() {
+      TrendIndex.UriEntry lastBuildUriReport = getLastBuildUriReport();
       if ( lastBuildUriReport == null ) {
           return "";
       }
@@ -241,6 +380,7 @@ public class UriReport extends AbstractReport implements  Serializable, ModelObj
   }
   
   public int getSizeDiff() {
+      TrendIndex.UriEntry lastBuildUriReport = getLastBuildUriReport();
       if ( lastBuildUriReport == null ) {
           return 0;
       }
@@ -249,32 +389,32 @@ public class UriReport extends AbstractReport implements  Serializable, ModelObj
 
   public long getSummarizerMax() {
     long max =  Long.MIN_VALUE;
-    for (HttpSample currentSample : httpSampleList) {
-        max = Math.max(max, currentSample.getSummarizerMax());
+    for (int i = 0; i < httpSamples.size(); i++) {
+        max = Math.max(max, httpSamples.getSummarizerMax(i));
     }
     return max;
   }
 
   public long getSummarizerMin() {
     long min = Long.MAX_VALUE;
-    for (HttpSample currentSample : httpSampleList) {
-        min = Math.min(min, currentSample.getSummarizerMin());
+    for (int i = 0; i < httpSamples.size(); i++) {
+        min = Math.min(min, httpSamples.getSummarizerMin(i));
     }
     return min;
   }
 
   public long getSummarizerSize() {
     long size=0;
-    for (HttpSample currentSample : httpSampleList) {
-        size+=currentSample.getSummarizerSamples();
+    for (int i = 0; i < httpSamples.size(); i++) {
+        size+=httpSamples.getSummarizerSamples(i);
     }
     return size;
   }
 
   public String getSummarizerErrors() {
     float nbError = 0;
-    for (HttpSample currentSample : httpSampleList) {
-        nbError+=currentSample.getSummarizerErrors();
+    for (int i = 0; i < httpSamples.size(); i++) {
+        nbError+=httpSamples.getSummarizerErrors(i);
     }
     return new DecimalFormat("#.##").format(nbError/getSummarizerSize()*100).replace(",", ".");     
   }
@@ -282,27 +422,126 @@ public class UriReport extends AbstractReport implements  Serializable, ModelObj
 
     public void doSummarizerTrendGraph(StaplerRequest request,
                                 StaplerResponse response) throws IOException{
+         AbstractBuild<?, ?> build = getBuild();
+         GraphCache.generateGraph(request, response, build.getProject(),
+             "summarizerTrendGraph|" + build.getNumber() + '|'
+                 + performanceReport.getReportFileName() + '|' + staplerUri,
+             new GraphCache.Renderer() {
+           public JFreeChart createChart() {
+             return createSummarizerTrendChart();
+           }
+         }, 400, 200);
+    }
+
+    /**
+     * This URI over the time of the test, see
+     * {@link PerformanceProjectAction#createOverTimeChart}. With
+     * {@code type=throughput}, the requests and errors per second, otherwise
+     * the response times.
+     */
+    public void doTimeGraph(StaplerRequest request, StaplerResponse response)
+        throws IOException {
+      AbstractBuild<?, ?> build = getBuild();
+      final boolean throughput = "throughput".equals(request.getParameter("type"));
+      GraphCache.generateGraph(request, response, build.getProject(),
+          "timeGraph|" + throughput + '|' + build.getNumber() + '|'
+              + performanceReport.getReportFileName() + '|' + staplerUri,
+          new GraphCache.Renderer() {
+        public JFreeChart createChart() {
+          return PerformanceProjectAction.createOverTimeChart(timeBuckets, throughput);
+        }
+      }, 600, 250);
+    }
 
+    private JFreeChart createSummarizerTrendChart() {
          ArrayList<XYDataset> dataset = new ArrayList<XYDataset> ();
          TimeSeriesCollection resp = new TimeSeriesCollection();
         // TimeSeriesCollection err  = new TimeSeriesCollection();
          TimeSeries responseTime = new TimeSeries("Response Time", FixedMillisecond.class);
         // TimeSeries errors = new TimeSeries("errors", Minute.class);
-         
-         for (int i=0; i<=this.httpSampleList.size()-1; i++) {
-             RegularTimePeriod current = new FixedMillisecond(this.httpSampleList.get(i).getDate());
-             responseTime.addOrUpdate(current,this.httpSampleList.get(i).getDuration());
+
+         if (this.httpSamples.size() <= MAX_GRAPH_POINTS) {
+           for (int i=0; i<=this.httpSamples.size()-1; i++) {
+             RegularTimePeriod current = new FixedMillisecond(this.httpSamples.getTimestamp(i));
+             responseTime.addOrUpdate(current,this.httpSamples.getDuration(i));
              //errors.addOrUpdate(current,report.getHttpSampleList().get(i).getSummarizerErrors());
+           }
+           resp.addSeries(responseTime);
+         } else {
+           // too many samples to draw: the mean, min and max of time buckets
+           SampleSeries series = getSampleSeries();
+           TimeSeries min = new TimeSeries("Min", FixedMillisecond.class);
+           TimeSeries max = new TimeSeries("Max", FixedMillisecond.class);
+           for (int i : series.downsample(MAX_GRAPH_POINTS)) {
+             RegularTimePeriod current = new FixedMillisecond(series.getStart(i));
+             responseTime.add(current, series.getMean(i));
+             min.add(current, series.getMin(i));
+             max.add(current, series.getMax(i));
+           }
+           resp.addSeries(responseTime);
+           resp.addSeries(min);
+           resp.addSeries(max);
          }
 
-       resp.addSeries(responseTime);
       // err.addSeries(errors);
        dataset.add(resp);
       // dataset.add(err);
 
-            ChartUtil.generateGraph(request, response,
-                                PerformanceProjectAction.createSummarizerTrend(dataset, uri),400, 200);
-     
+       return PerformanceProjectAction.createSummarizerTrend(dataset, uri);
+    }
+
+    /**
+     * The aggregates of this URI and its samples as JSON, see
+     * {@link JsonWriter}. Samples are written as {@code [timestamp, duration,
+     * successful]} and can be restricted to the {@code from} and {@code to}
+     * timestamps; above {@code maxPoints} of them, every n-th is written.
+     * The {@link #getSampleSeries() time buckets} starting within the same
+     * range are written as {@code [start, count, min, mean, max]}, at most
+     * {@code maxPoints} of them picked from that range. A {@code maxPoints}
+     * of 0 or less writes all the samples and buckets of the range.
+     */
+    public void doData(StaplerRequest request, StaplerResponse response)
+        throws IOException {
+      long from = JsonWriter.getParameter(request, "from", Long.MIN_VALUE);
+      long to = JsonWriter.getParameter(request, "to", Long.MAX_VALUE);
+      long maxPoints = JsonWriter.getParameter(request, "maxPoints", DEFAULT_MAX_POINTS);
+
+      JsonWriter json = JsonWriter.forResponse(request, response);
+      json.beginObject();
+      new TrendIndex.UriEntry(this).writeJson(json);
+      if (json.isSelected("samples")) {
+        int inRange = 0;
+        for (int i = 0; i < httpSamples.size(); i++) {
+          long timestamp = httpSamples.getTimestamp(i);
+          if (timestamp >= from && timestamp <= to) {
+            inRange++;
+          }
+        }
+        long step = maxPoints > 0 && inRange > maxPoints ? (inRange + maxPoints - 1) / maxPoints : 1;
+        json.name("samples").beginArray();
+        int n = 0;
+        for (int i = 0; i < httpSamples.size(); i++) {
+          long timestamp = httpSamples.getTimestamp(i);
+          if (timestamp < from || timestamp > to || n++ % step != 0) {
+            continue;
+          }
+          json.beginArray().value(timestamp).value(httpSamples.getDuration(i))
+              .value(httpSamples.isSuccessful(i)).endArray();
+        }
+        json.endArray();
+      }
+      if (json.isSelected("buckets")) {
+        SampleSeries series = getSampleSeries();
+        json.name("buckets").beginArray();
+        for (int i : series.downsample(from, to, (int) Math.min(maxPoints, Integer.MAX_VALUE))) {
+          json.beginArray().value(series.getStart(i)).value(series.getCount(i))
+              .value(series.getMin(i)).value(series.getMean(i))
+              .value(series.getMax(i)).endArray();
+        }
+        json.endArray();
+      }
+      json.endObject();
+      json.close();
     }
 
     private double roundTwoDecimals(double d) {
@@ -0,0 +1,104 @@
+package hudson.plugins.performance;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+public class ChangePointDetectorTest {
+
+	private ChangePointDetector detect(double[] values) {
+		ChangePointDetector detector = new ChangePointDetector();
+		for (double value : values) {
+			detector.add(value);
+		}
+		return detector;
+	}
+
+	private double[] noisy(int length, double mean, double deviation, long seed) {
+		Random random = new Random(seed);
+		double[] values = new double[length];
+		for (int i = 0; i < length; i++) {
+			values[i] = mean + random.nextGaussian() * deviation;
+		}
+		return values;
+	}
+
+	@Test
+	public void testNoShift() throws Exception {
+		ChangePointDetector detector = detect(noisy(200, 500, 20, 1));
+		assertEquals(200, detector.size());
+		assertEquals(0, detector.getChangePoints().length);
+	}
+
+	@Test
+	public void testShifts() throws Exception {
+		double[] values = noisy(60, 100, 5, 2);
+		for (int i = 20; i < 40; i++) {
+			values[i] += 50;
+		}
+		ChangePointDetector detector = detect(values);
+		assertArrayEquals(new int[] { 20, 40 }, detector.getChangePoints());
+		assertEquals(150, detector.getMean(20, 40), 3);
+	}
+
+	@Test
+	public void testRecentShift() throws Exception {
+		double[] values = noisy(40, 200, 10, 4);
+		ChangePointDetector detector = detect(values);
+		assertEquals(0, detector.getChangePoints().length);
+		detector.add(300);
+		detector.add(310);
+		detector.add(295);
+		assertArrayEquals(new int[] { 40 }, detector.getChangePoints());
+	}
+
+	private TrendIndex.ReportEntry createReport(String[] uris, long[] durations)
+			throws SAXException {
+		return new TrendIndex.ReportEntry(ReportFixtures.createReport("a.jtl", uris, durations));
+	}
+
+	@Test
+	public void testOutlierBuildIsNotAShift() throws Exception {
+		TrendChangePoints points = new TrendChangePoints();
+		double[] values = noisy(100, 100, 5, 5);
+		values[50] = 400;
+		values[70] = 10;
+		for (int build = 1; build <= values.length; build++) {
+			points.add(build, createReport(new String[] { "/home" },
+					new long[] { Math.round(values[build - 1]) }));
+		}
+		assertTrue(points.getShifts().isEmpty());
+	}
+
+	@Test
+	public void testTrendChangePoints() throws Exception {
+		TrendChangePoints points = new TrendChangePoints();
+		for (int build = 1; build <= 20; build++) {
+			long cart = build <= 12 ? 100 + build % 3 : 200 + build % 3;
+			if (build % 2 == 0) {
+				points.add(build, createReport(new String[] { "/home", "/cart" },
+						new long[] { 50 + build % 2, cart }));
+			} else {
+				points.add(build, createReport(new String[] { "/cart" },
+						new long[] { cart }));
+			}
+		}
+		assertEquals(20, points.getBuildNumbers().size());
+
+		List<TrendChangePoints.Shift> shifts = points.getShifts();
+		assertEquals(1, shifts.size());
+		TrendChangePoints.Shift shift = shifts.get(0);
+		assertEquals("_cart", shift.getStaplerUri());
+		assertEquals("/cart", shift.getUri());
+		assertEquals(13, shift.getBuildNumber());
+		assertEquals(101, shift.getBefore());
+		assertEquals(201, shift.getAfter());
+		assertTrue(shift.isRegression());
+	}
+}
@@ -0,0 +1,56 @@
+package hudson.plugins.performance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+public class CsvTokenizerTest {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	@Test
+	public void testQuotedFields() throws Exception {
+		CsvTokenizer tokenizer = new CsvTokenizer(new byte[] { ',' }, 10);
+		byte[] record = "1296846793179,\"a,\"\"b\"\"\nc\",,TRUE,-42".getBytes(UTF_8);
+		assertEquals(5, tokenizer.tokenize(record, 0, record.length));
+		assertEquals(1296846793179L, tokenizer.getLong(0, UTF_8));
+		assertEquals("a,\"b\"\nc", tokenizer.getString(1, UTF_8));
+		assertEquals("", tokenizer.getString(2, UTF_8));
+		assertTrue(tokenizer.isTrue(3));
+		assertFalse(tokenizer.isTrue(2));
+		assertEquals(-42, tokenizer.getLong(4, UTF_8));
+	}
+
+	@Test
+	public void testDelimiterAndFieldLimit() throws Exception {
+		CsvTokenizer tokenizer = new CsvTokenizer("::".getBytes(UTF_8), 2);
+		byte[] record = "x:y::\"p::q\"::ignored".getBytes(UTF_8);
+		assertEquals(2, tokenizer.tokenize(record, 0, record.length));
+		assertEquals("x:y", tokenizer.getString(0, UTF_8));
+		assertEquals("p::q", tokenizer.getString(1, UTF_8));
+
+		JtlReader.InternTable table = new JtlReader.InternTable();
+		String first = tokenizer.intern(0, table, UTF_8);
+		record = "x:y".getBytes(UTF_8);
+		assertEquals(1, tokenizer.tokenize(record, 0, record.length));
+		assertTrue(first == tokenizer.intern(0, table, UTF_8));
+	}
+
+	@Test
+	public void testInvalidNumber() throws Exception {
+		CsvTokenizer tokenizer = new CsvTokenizer(new byte[] { ';' }, 1);
+		byte[] record = "12a".getBytes(UTF_8);
+		tokenizer.tokenize(record, 0, record.length);
+		try {
+			tokenizer.getLong(0, UTF_8);
+			fail("12a is not a number");
+		} catch (NumberFormatException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package hudson.plugins.performance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import hudson.util.StreamTaskListener;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class JMeterCsvParserTest {
+
+	private static final String PATTERN = "timestamp,elapsed,responseCode,threadName,success,failureMessage,URL";
+
+	private File writeCsv(int lines) throws IOException {
+		File csv = File.createTempFile("results", ".csv");
+		csv.deleteOnExit();
+		StringBuilder content = new StringBuilder(PATTERN).append("\r\n");
+		for (int i = 0; i < lines; i++) {
+			String message = i % 3 == 0 ? "\"Timeout,\nretried \"\"twice\"\"\"" : "";
+			content.append(1296846793179L + i).append(',').append(i % 50)
+					.append(",200,Thread ").append(i).append(',')
+					.append(i % 3 != 0).append(',').append(message)
+					.append(",/page").append(i % 4).append("\r\n");
+		}
+		FileOutputStream out = new FileOutputStream(csv);
+		out.write(content.toString().getBytes("UTF-8"));
+		out.close();
+		return csv;
+	}
+
+	@Test
+	public void testChunkBoundariesSkipQuotedLineBreaks() throws Exception {
+		File csv = writeCsv(100);
+		long[] boundaries = JMeterCsvParser.findChunkBoundaries(csv, 7);
+		assertEquals(8, boundaries.length);
+		assertEquals(0, boundaries[0]);
+		assertEquals(csv.length(), boundaries[7]);
+
+		JMeterCsvParser parser = new JMeterCsvParser("", PATTERN, ",", true);
+		PerformanceReport chunked = new PerformanceReport();
+		for (int i = 0; i + 1 < boundaries.length; i++) {
+			PerformanceReport partial = new PerformanceReport();
+			parser.parseRange(csv, boundaries[i], boundaries[i + 1], i == 0, partial);
+			chunked.merge(partial);
+		}
+		PerformanceReport whole = parser.parseReport(null, csv,
+				new StreamTaskListener(System.out));
+
+		assertEquals(100, whole.size());
+		assertEquals(whole.size(), chunked.size());
+		assertEquals(whole.countErrors(), chunked.countErrors());
+		assertEquals(34, chunked.countErrors());
+		assertEquals(whole.getAverage(), chunked.getAverage());
+		assertEquals(whole.getMedian(), chunked.getMedian());
+		assertEquals(4, chunked.getUriReportMap().size());
+		for (String uri : whole.getUriReportMap().keySet()) {
+			UriReport expected = whole.getUriReportMap().get(uri);
+			UriReport actual = chunked.getUriReportMap().get(uri);
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); i++) {
+				assertEquals(expected.getHttpSampleList().get(i).getDate(),
+						actual.getHttpSampleList().get(i).getDate());
+			}
+		}
+	}
+
+	@Test
+	public void testConfiguredDelimiter() throws Exception {
+		File csv = File.createTempFile("results", ".csv");
+		csv.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(csv);
+		out.write(("1296846793179;120;\"/search;q=1\";true;200\n"
+				+ "1296846793180;80;\"/search;q=1\";false;\"5\"\"00\"\n").getBytes("UTF-8"));
+		out.close();
+
+		JMeterCsvParser parser = new JMeterCsvParser("",
+				"timestamp;elapsed;URL;success;responseCode", ";", false);
+		PerformanceReport report = parser.parseReport(null, csv,
+				new StreamTaskListener(System.out));
+		assertEquals(2, report.size());
+		assertEquals(1, report.countErrors());
+		UriReport uriReport = report.getUriReportMap().get("_search;q=1");
+		assertEquals(2, uriReport.size());
+		assertEquals(120, uriReport.getHttpSampleList().get(0).getDuration());
+		assertEquals("5\"00", uriReport.getHttpSampleList().get(1).getHttpCode());
+	}
+
+	@Test
+	public void testCacheKeyedOnPattern() throws Exception {
+		File csv = File.createTempFile("results", ".csv");
+		csv.deleteOnExit();
+		ReportCache.getCacheFile(csv).deleteOnExit();
+		FileOutputStream out = new FileOutputStream(csv);
+		out.write("1296846793179,120,200,true,/home\n".getBytes("UTF-8"));
+		out.close();
+		StreamTaskListener listener = new StreamTaskListener(System.out);
+
+		PerformanceReport first = new JMeterCsvParser("",
+				"timestamp,elapsed,responseCode,success,URL", ",", false)
+				.parse(null, Collections.singleton(csv), listener).iterator().next();
+		assertEquals(120, first.getAverage());
+		assertTrue(ReportCache.getCacheFile(csv).exists());
+
+		PerformanceReport swapped = new JMeterCsvParser("",
+				"timestamp,responseCode,elapsed,success,URL", ",", false)
+				.parse(null, Collections.singleton(csv), listener).iterator().next();
+		assertEquals(200, swapped.getAverage());
+
+		PerformanceReport again = new JMeterCsvParser("",
+				"timestamp,elapsed,responseCode,success,URL", ",", false)
+				.parse(null, Collections.singleton(csv), listener).iterator().next();
+		assertEquals(120, again.getAverage());
+	}
+}
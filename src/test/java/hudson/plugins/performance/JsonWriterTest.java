@@ -0,0 +1,45 @@
+package hudson.plugins.performance;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+public class JsonWriterTest {
+
+	@Test
+	public void testNestingAndEscaping() throws Exception {
+		StringWriter out = new StringWriter();
+		JsonWriter json = new JsonWriter(out, null);
+		json.beginObject();
+		json.name("uri").value("/a\"b\\c\n");
+		json.name("values").beginArray().value(1).value(2.5).value(Double.NaN)
+				.beginArray().value(true).endArray().endArray();
+		json.field("average", 12.0);
+		json.endObject();
+		json.close();
+		assertEquals("{\"uri\":\"/a\\\"b\\\\c\\n\",\"values\":[1,2.5,null,[true]],\"average\":12}",
+				out.toString());
+	}
+
+	@Test
+	public void testFieldSelection() throws Exception {
+		StringWriter out = new StringWriter();
+		JsonWriter json = new JsonWriter(out, new HashSet<String>(Arrays.asList("median")));
+		PerformanceReport report = new PerformanceReport();
+		report.setReportFileName("a.jtl");
+		for (int i = 0; i < 3; i++) {
+			report.addSample("/home", 1296846793179L + i, 10 * (i + 1), true, false, "200", 1);
+		}
+		json.beginObject();
+		json.name("report").value("a.jtl");
+		new TrendIndex.ReportEntry(report).writeJson(json, true);
+		json.endObject();
+		json.close();
+		assertEquals("{\"report\":\"a.jtl\",\"median\":20,\"uris\":[{\"uri\":\"/home\","
+				+ "\"staplerUri\":\"_home\",\"median\":20}]}", out.toString());
+	}
+}
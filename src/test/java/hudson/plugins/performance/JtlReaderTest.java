@@ -0,0 +1,83 @@
+package hudson.plugins.performance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Date;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+public class JtlReaderTest {
+
+	private PerformanceReport read(String xml) throws IOException, SAXException {
+		PerformanceReport report = new PerformanceReport();
+		new JtlReader(new ByteArrayInputStream(xml.getBytes("UTF-8"))).read(report);
+		return report;
+	}
+
+	@Test
+	public void testBothAttributeStyles() throws Exception {
+		PerformanceReport report = read("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+				+ "<testResults version=\"1.2\">\n"
+				+ "<httpSample t=\"120\" ts=\"1296846793179\" s=\"true\" lb=\"Home\" rc=\"200\" by=\"2048\"/>\n"
+				+ "<sample time=\"80\" timeStamp=\"1296846793200\" success=\"false\" label=\"Home\" rc=\"Non HTTP response code\"/>\n"
+				+ "</testResults>");
+		UriReport uriReport = report.getUriReportMap().get("Home");
+		assertEquals(2, uriReport.size());
+		HttpSample first = uriReport.getHttpSampleList().get(0);
+		assertEquals(120, first.getDuration());
+		assertEquals(new Date(1296846793179L), first.getDate());
+		assertTrue(first.isSuccessful());
+		assertEquals("200", first.getHttpCode());
+		assertEquals(2d, first.getSizeInKb(), 0);
+		HttpSample second = uriReport.getHttpSampleList().get(1);
+		assertEquals(80, second.getDuration());
+		assertEquals(new Date(1296846793200L), second.getDate());
+		assertFalse(second.isSuccessful());
+		assertEquals("0", second.getHttpCode());
+	}
+
+	@Test
+	public void testSkipsSubSamplesCommentsAndCdata() throws Exception {
+		PerformanceReport report = read("<testResults>\n"
+				+ "<!-- <httpSample t=\"1\" ts=\"1\" lb=\"comment\"/> -->\n"
+				+ "<httpSample t=\"300\" ts=\"10\" s=\"true\" lb=\"Parent &amp; &quot;child&quot;\" rc=\"200\">\n"
+				+ "  <httpSample t=\"100\" ts=\"10\" s=\"true\" lb=\"Sub\" rc=\"200\"/>\n"
+				+ "  <responseData><![CDATA[<sample t=\"5\" ts=\"5\" lb=\"cdata\"/> ]]]></responseData>\n"
+				+ "  <assertionResult><name>a > b</name></assertionResult>\n"
+				+ "</httpSample>\n"
+				+ "<sample t=\"7\" ts=\"11\" s=\"TRUE\" lb=\"a > b\"></sample>\n"
+				+ "</testResults>");
+		assertEquals(2, report.getUriReportMap().size());
+		UriReport parent = report.getUriReportMap().get("Parent & \"child\"");
+		assertNotNull(parent);
+		assertEquals(1, parent.size());
+		assertEquals(300, parent.getMax());
+		UriReport other = report.getUriReportMap().get("a > b");
+		assertNotNull(other);
+		assertTrue(other.getHttpSampleList().get(0).isSuccessful());
+	}
+
+	@Test
+	public void testMalformedFile() throws Exception {
+		String[] malformed = {
+				"<testResults><httpSample t=\"1\" ts=\"1\" lb=\"x\">",
+				"<testResults><httpSample t=\"1\" ts=\"1\" lb=\"x",
+				"<testResults><httpSample t=\"abc\" ts=\"1\" lb=\"x\"/></testResults>",
+				"<testResults><httpSample ts=\"1\" lb=\"x\"/></testResults>" };
+		for (String xml : malformed) {
+			try {
+				read(xml);
+				fail("Expected a SAXException for " + xml);
+			} catch (SAXException e) {
+				// expected
+			}
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package hudson.plugins.performance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void testSmallValuesAreExact() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		long[] values = { 890, 50, 6, 75, 8, 33, 17, 37, 1023 };
+		for (long value : values) {
+			histogram.recordValue(value);
+		}
+		long[] sorted = values.clone();
+		Arrays.sort(sorted);
+		assertEquals(sorted[(int) (sorted.length * .5)], histogram.getValueAtPercentile(50));
+		assertEquals(sorted[(int) (sorted.length * .9)], histogram.getValueAtPercentile(90));
+		assertEquals(6, histogram.getValueAtPercentile(0));
+		assertEquals(1023, histogram.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void testLargeValuesWithinRelativeError() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		Random random = new Random(42);
+		long[] values = new long[10000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = 1000 + random.nextInt(3000000);
+			histogram.recordValue(values[i]);
+		}
+		Arrays.sort(values);
+		for (double percentile : new double[] { 50, 90, 99, 99.9 }) {
+			long expected = values[(int) (values.length * percentile / 100)];
+			long actual = histogram.getValueAtPercentile(percentile);
+			assertTrue(percentile + ": " + expected + " vs " + actual,
+					Math.abs(expected - actual) <= expected / LatencyHistogram.HALF_SUB_BUCKET_COUNT);
+		}
+	}
+
+	@Test
+	public void testValuesAtPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1000; i > 0; i--) {
+			histogram.recordValue(i);
+		}
+		double[] percentiles = { 99.9, 50, 0, 90, 100, 99 };
+		long[] values = histogram.getValuesAtPercentiles(percentiles);
+		for (int i = 0; i < percentiles.length; i++) {
+			assertEquals(histogram.getValueAtPercentile(percentiles[i]), values[i]);
+		}
+		assertEquals(1000, values[0]);
+		assertEquals(501, values[1]);
+		assertEquals(1, values[2]);
+		assertEquals(991, values[5]);
+	}
+
+	@Test
+	public void testBucketsAreContiguous() {
+		for (int index = 0; index < 20000; index++) {
+			long lowest = LatencyHistogram.lowestValueAt(index);
+			assertEquals(index, LatencyHistogram.indexFor(lowest));
+			assertEquals(index + 1, LatencyHistogram.indexFor(lowest
+					+ LatencyHistogram.bucketWidthAt(index)));
+		}
+	}
+
+	@Test
+	public void testAdd() {
+		LatencyHistogram first = new LatencyHistogram();
+		LatencyHistogram second = new LatencyHistogram();
+		for (int i = 1; i <= 100; i++) {
+			(i % 2 == 0 ? first : second).recordValue(i);
+		}
+		first.add(second);
+		assertEquals(100, first.getTotalCount());
+		assertEquals(1, first.getMinValue());
+		assertEquals(100, first.getMaxValue());
+		assertEquals(51, first.getValueAtPercentile(50));
+	}
+}
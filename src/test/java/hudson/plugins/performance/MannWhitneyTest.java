@@ -0,0 +1,83 @@
+package hudson.plugins.performance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MannWhitneyTest {
+
+	private LatencyHistogram histogram(long first, long last) {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long value = first; value <= last; value++) {
+			histogram.recordValue(value);
+		}
+		return histogram;
+	}
+
+	@Test
+	public void testSeparatedSamples() throws Exception {
+		MannWhitney test = MannWhitney.compare(histogram(1, 5), histogram(6, 10));
+		assertEquals(25d, test.getU(), 0);
+		assertEquals(1d, test.getEffectSize(), 0);
+		// normal approximation with continuity correction: z = 12 / sqrt(275 / 12)
+		assertEquals(0.00609, test.getPValueSlower(), 1e-4);
+		assertTrue(test.getPValueFaster() > 0.99);
+		assertEquals(test.getPValueSlower(), test.getPValue(true), 0);
+
+		MannWhitney reverse = MannWhitney.compare(histogram(6, 10), histogram(1, 5));
+		assertEquals(0d, reverse.getEffectSize(), 0);
+		assertEquals(test.getPValueSlower(), reverse.getPValueFaster(), 1e-9);
+	}
+
+	@Test
+	public void testShiftedDistribution() throws Exception {
+		MannWhitney test = MannWhitney.compare(histogram(100, 199), histogram(150, 249));
+		assertEquals(100, test.getBaselineCount());
+		assertEquals(100, test.getCurrentCount());
+		assertEquals(0.875, test.getEffectSize(), 1e-9);
+		assertTrue(test.getPValueSlower() < 1e-10);
+		assertTrue(test.getPValueFaster() > 0.99);
+	}
+
+	@Test
+	public void testSameDistribution() throws Exception {
+		LatencyHistogram baseline = new LatencyHistogram();
+		LatencyHistogram current = new LatencyHistogram();
+		for (int i = 0; i < 1000; i++) {
+			baseline.recordValue(100 + i % 50);
+			current.recordValue(100 + (i * 7) % 50);
+		}
+		MannWhitney test = MannWhitney.compare(baseline, current);
+		assertEquals(0.5, test.getEffectSize(), 1e-9);
+		assertTrue(test.getPValueSlower() > 0.4);
+		assertTrue(test.getPValueFaster() > 0.4);
+	}
+
+	@Test
+	public void testTies() throws Exception {
+		MannWhitney test = MannWhitney.compare(histogram(7, 8), histogram(7, 8));
+		assertEquals(0.5, test.getEffectSize(), 0);
+
+		LatencyHistogram constant = new LatencyHistogram();
+		constant.recordValue(20);
+		constant.recordValue(20);
+		test = MannWhitney.compare(constant, constant);
+		assertEquals(1d, test.getPValueSlower(), 0);
+		assertEquals(1d, test.getPValueFaster(), 0);
+	}
+
+	@Test
+	public void testTooFewValues() throws Exception {
+		assertNull(MannWhitney.compare(histogram(1, 1), histogram(1, 10)));
+		assertNull(MannWhitney.compare(histogram(1, 10), new LatencyHistogram()));
+	}
+
+	@Test
+	public void testNormalCdf() throws Exception {
+		assertEquals(0.5, MannWhitney.normalCdf(0), 1e-7);
+		assertEquals(0.975, MannWhitney.normalCdf(1.959964), 1e-6);
+		assertEquals(0.025, MannWhitney.normalCdf(-1.959964), 1e-6);
+	}
+}
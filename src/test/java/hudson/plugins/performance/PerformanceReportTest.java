@@ -6,8 +6,11 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
@@ -191,4 +194,87 @@ public class PerformanceReportTest {
 		UriReport report = uriReportMap.get("Home");
 		assertNotNull(report);
 	}
+
+	@Test
+	public void testParallelParse() throws IOException {
+		File malformed = File.createTempFile("malformed", ".jtl");
+		malformed.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(malformed);
+		out.write("<testResults><httpSample t=\"1\"".getBytes("UTF-8"));
+		out.close();
+		List<File> files = Arrays.asList(
+				new File("src/test/resources/JMeterResultsMultiLevel.jtl"),
+				malformed,
+				new File("src/test/resources/JMeterResults.jtl"),
+				new File("src/test/resources/JMeterResultsMultiThread.jtl"));
+
+		List<PerformanceReport> reports = new ArrayList<PerformanceReport>(
+				new JMeterParser("").parse(null, files,
+						new StreamTaskListener(System.out), 4, 1024 * 1024));
+		assertEquals(3, reports.size());
+		assertEquals("JMeterResultsMultiLevel.jtl", reports.get(0).getReportFileName());
+		assertEquals("JMeterResults.jtl", reports.get(1).getReportFileName());
+		assertEquals("JMeterResultsMultiThread.jtl", reports.get(2).getReportFileName());
+		assertEquals(8, reports.get(1).size());
+	}
+
+	@Test
+	public void testSummaryReport() throws IOException {
+		File jtl = new File("src/test/resources/JMeterResults.jtl");
+		StreamTaskListener listener = new StreamTaskListener(System.out);
+		PerformanceReport full = new JMeterParser("").parse(null,
+				Collections.singleton(jtl), listener).iterator().next();
+		PerformanceReport summary = new JMeterParser("").parseSummary(jtl, listener);
+
+		File stored = File.createTempFile("JMeterResults", ".jtl"
+				+ PerformanceReportParser.SUMMARY_SUFFIX);
+		stored.deleteOnExit();
+		PerformanceReportParser.writeSummary(summary, stored);
+		PerformanceReport read = new JMeterParser("").parse(null,
+				Collections.singleton(stored), listener).iterator().next();
+
+		assertEquals("JMeterResults.jtl", read.getReportFileName());
+		assertEquals(full.size(), read.size());
+		assertEquals(full.countErrors(), read.countErrors());
+		assertEquals(full.getAverage(), read.getAverage());
+		assertEquals(full.getMedian(), read.getMedian());
+		assertEquals(full.get90Line(), read.get90Line());
+		assertEquals(full.getUriReportMap().keySet(), read.getUriReportMap().keySet());
+		UriReport uriReport = read.getUriReportMap().values().iterator().next();
+		assertEquals(1, uriReport.getHttpSampleList().size());
+		assertEquals(full.getUriReportMap().values().iterator().next().getHttpCode(),
+				uriReport.getHttpCode());
+
+		// the slowest sample is kept for the per test case graphs
+		for (UriReport fullUriReport : full.getUriReportMap().values()) {
+			TrendIndex.UriEntry expected = new TrendIndex.UriEntry(fullUriReport);
+			TrendIndex.UriEntry entry = new TrendIndex.UriEntry(
+					read.getUriReportMap().get(fullUriReport.getStaplerUri()));
+			assertTrue(entry.getSlowestDuration() >= 0);
+			assertEquals(expected.getSlowestDuration(), entry.getSlowestDuration());
+			assertEquals(expected.isSlowestFailed(), entry.isSlowestFailed());
+		}
+	}
+
+	@Test
+	public void testDiffsFromLastBuildEntry() throws SAXException {
+		PerformanceReport previous = new PerformanceReport();
+		previous.setReportFileName("results.jtl");
+		previous.addSample("/home", 1296846793179L, 100, true, false, "200", 0);
+		previous.addSample("/home", 1296846793189L, 300, false, false, "500", 0);
+		PerformanceReport current = new PerformanceReport();
+		current.setReportFileName("results.jtl");
+		current.addSample("/home", 1296846794179L, 120, true, false, "200", 0);
+		current.addSample("/search", 1296846794189L, 50, true, false, "200", 0);
+
+		current.setLastBuildReport(new TrendIndex.ReportEntry(previous));
+		assertEquals(-115, current.getAverageDiff());
+		assertEquals(0, current.getSizeDiff());
+		assertEquals(-50, current.getErrorPercentDiff(), 0);
+		UriReport home = current.getUriReportMap().get("_home");
+		assertEquals(-80, home.getAverageDiff());
+		assertEquals(-1, home.getSizeDiff());
+		assertEquals("200,500", home.getLastBuildHttpCodeIfChanged());
+		assertEquals(0, current.getUriReportMap().get("_search").getAverageDiff());
+	}
 }
@@ -0,0 +1,118 @@
+package hudson.plugins.performance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+public class ReportCacheTest {
+
+	private PerformanceReport createReport() throws SAXException {
+		PerformanceReport report = new PerformanceReport();
+		report.setReportFileName("results.jtl");
+		for (int i = 0; i < 2000; i++) {
+			report.addSample(i % 3 == 0 ? "/home" : "/search", 1296846793179L + i * 10,
+					i % 700, i % 11 != 0, i % 13 == 0, i % 11 == 0 ? "500" : "200",
+					i % 5);
+		}
+		HttpSample summarizer = new HttpSample();
+		summarizer.setUri("/summary");
+		summarizer.setDuration(42);
+		summarizer.setSuccessful(true);
+		summarizer.setSummarizerSamples(10);
+		summarizer.setSummarizerMin(3);
+		summarizer.setSummarizerMax(80);
+		summarizer.setSummarizerErrors(1.5f);
+		report.addSample(summarizer);
+		return report;
+	}
+
+	private File createCacheFile() throws IOException {
+		File file = File.createTempFile("results", ".jtl" + ReportCache.SUFFIX);
+		file.deleteOnExit();
+		return file;
+	}
+
+	private void assertSameAggregates(PerformanceReport expected, PerformanceReport actual) {
+		assertEquals(expected.getReportFileName(), actual.getReportFileName());
+		assertEquals(expected.getUriReportMap().keySet(), actual.getUriReportMap().keySet());
+		assertEquals(expected.size(), actual.size());
+		assertEquals(expected.countErrors(), actual.countErrors());
+		assertEquals(expected.getAverage(), actual.getAverage());
+		assertEquals(expected.getMin(), actual.getMin());
+		assertEquals(expected.getMax(), actual.getMax());
+		assertEquals(expected.getMedian(), actual.getMedian());
+		assertEquals(expected.get90Line(), actual.get90Line());
+		assertEquals(expected.getPercentile(99.9), actual.getPercentile(99.9));
+		assertEquals(expected.getTotalTrafficInKb(), actual.getTotalTrafficInKb(), 0);
+		for (UriReport uriReport : expected.getUriReportMap().values()) {
+			assertEquals(uriReport.getHttpCode(),
+					actual.getUriReportMap().get(uriReport.getStaplerUri()).getHttpCode());
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		PerformanceReport report = createReport();
+		for (boolean compress : new boolean[] { true, false }) {
+			File file = createCacheFile();
+			ReportCache.write(report, file, "results.jtl|1", compress);
+			PerformanceReport read = ReportCache.read(file, true, "results.jtl|1");
+			assertSameAggregates(report, read);
+			for (UriReport expected : report.getUriReportMap().values()) {
+				UriReport actual = read.getUriReportMap().get(expected.getStaplerUri());
+				assertEquals(expected.getHttpSampleList(), actual.getHttpSampleList());
+			}
+			assertEquals(80, read.getUriReportMap().get("_summary").getSummarizerMax());
+		}
+	}
+
+	@Test
+	public void testAggregatesOnly() throws Exception {
+		PerformanceReport report = createReport();
+		File file = createCacheFile();
+		ReportCache.write(report, file, "results.jtl|1", true);
+		PerformanceReport read = ReportCache.read(file, false, null);
+		assertSameAggregates(report, read);
+		assertTrue(read.getUriReportMap().get("_home").getHttpSampleList().isEmpty());
+		assertNull(ReportCache.read(file, false, "results.jtl|2"));
+	}
+
+	@Test
+	public void testLongUri() throws Exception {
+		StringBuilder uri = new StringBuilder("/search?q=");
+		while (uri.length() < 70000) {
+			uri.append("\u00e9t\u00e9");
+		}
+		PerformanceReport report = new PerformanceReport();
+		report.setReportFileName("results.jtl");
+		report.addSample(uri.toString(), 1296846793179L, 100, true, false, "200", 0);
+		File file = createCacheFile();
+		ReportCache.write(report, file, "results.jtl|1", true);
+		PerformanceReport read = ReportCache.read(file, true, "results.jtl|1");
+		assertSameAggregates(report, read);
+		assertEquals(uri.toString(), read.getUriReportMap().values().iterator().next().getUri());
+	}
+
+	@Test
+	public void testOtherVersion() throws Exception {
+		File file = createCacheFile();
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+		out.writeInt(0x50455246);
+		out.writeInt(ReportCache.VERSION + 1);
+		out.close();
+		assertNull(ReportCache.read(file, true, null));
+
+		out = new DataOutputStream(new FileOutputStream(file));
+		out.writeBytes("<testResults>");
+		out.close();
+		assertNull(ReportCache.read(file, true, null));
+	}
+}
@@ -0,0 +1,52 @@
+package hudson.plugins.performance;
+
+import java.util.Arrays;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Reports built from a few samples, for the tests.
+ */
+final class ReportFixtures {
+
+	private ReportFixtures() {
+	}
+
+	/**
+	 * A report with one successful sample per URI, a millisecond apart.
+	 */
+	static PerformanceReport createReport(String fileName, String[] uris,
+			long[] durations) throws SAXException {
+		PerformanceReport report = new PerformanceReport();
+		report.setReportFileName(fileName);
+		addSamples(report, uris, durations);
+		return report;
+	}
+
+	/**
+	 * A report with one sample per URI, a millisecond apart, failed ones
+	 * having a 500 status.
+	 */
+	static PerformanceReport createReport(String fileName, String[] uris,
+			long[] durations, boolean[] successes) throws SAXException {
+		PerformanceReport report = new PerformanceReport();
+		report.setReportFileName(fileName);
+		addSamples(report, uris, durations, successes);
+		return report;
+	}
+
+	static void addSamples(PerformanceReport report, String[] uris, long[] durations)
+			throws SAXException {
+		boolean[] successes = new boolean[uris.length];
+		Arrays.fill(successes, true);
+		addSamples(report, uris, durations, successes);
+	}
+
+	static void addSamples(PerformanceReport report, String[] uris, long[] durations,
+			boolean[] successes) throws SAXException {
+		for (int i = 0; i < uris.length; i++) {
+			report.addSample(uris[i], 1296846793179L + i, durations[i], successes[i],
+					!successes[i], successes[i] ? "200" : "500", 1);
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package hudson.plugins.performance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+public class RollingBaselineTest {
+
+	private Map<String, TrendIndex.ReportEntry> createReports(String fileName,
+			String[] uris, long[] durations) throws SAXException {
+		return Collections.singletonMap(fileName, new TrendIndex.ReportEntry(
+				ReportFixtures.createReport(fileName, uris, durations)));
+	}
+
+	@Test
+	public void testMedianOverTheWindow() throws Exception {
+		RollingBaseline baseline = new RollingBaseline(3, PerformancePublisher.ART);
+		baseline.add(1, createReports("a.jtl", new String[] { "/home", "/cart" },
+				new long[] { 100, 50 }));
+		baseline.add(2, createReports("a.jtl", new String[] { "/home" },
+				new long[] { 900 }));
+		baseline.add(3, createReports("a.jtl", new String[] { "/home", "/cart" },
+				new long[] { 120, 70 }));
+
+		Map<String, Long> values = baseline.getValues("a.jtl");
+		// the slow build 2 does not move the baseline
+		assertEquals(Long.valueOf(120), values.get("_home"));
+		// only in builds 1 and 3
+		assertEquals(Long.valueOf(60), values.get("_cart"));
+		assertNull(baseline.getValues("b.jtl"));
+	}
+
+	@Test
+	public void testSlidingWindow() throws Exception {
+		RollingBaseline baseline = new RollingBaseline(2, PerformancePublisher.ART);
+		baseline.add(1, createReports("a.jtl", new String[] { "/home", "/old" },
+				new long[] { 100, 10 }));
+		baseline.add(2, createReports("a.jtl", new String[] { "/home" },
+				new long[] { 200 }));
+		assertEquals(Long.valueOf(150), baseline.getValues("a.jtl").get("_home"));
+
+		baseline.add(3, createReports("a.jtl", new String[] { "/home" },
+				new long[] { 400 }));
+		assertEquals(Arrays.asList(2, 3), baseline.getBuildNumbers());
+		assertFalse(baseline.contains(1));
+		assertEquals(Long.valueOf(300), baseline.getValues("a.jtl").get("_home"));
+		assertFalse(baseline.getValues("a.jtl").containsKey("_old"));
+
+		baseline.remove(2);
+		baseline.remove(3);
+		assertTrue(baseline.getBuildNumbers().isEmpty());
+		assertNull(baseline.getValues("a.jtl"));
+	}
+
+	@Test
+	public void testComparisonWithTheBaseline() throws Exception {
+		RollingBaseline baseline = new RollingBaseline(3, PerformancePublisher.ART);
+		for (int build = 1; build <= 3; build++) {
+			baseline.add(build, createReports("a.jtl", new String[] { "/Home" },
+					new long[] { 100 * build }));
+		}
+		Map<String, TrendIndex.ReportEntry> current = createReports("a.jtl",
+				new String[] { "/home" }, new long[] { 300 });
+
+		List<UriComparison.Diff> diffs = UriComparison.compareWith(
+				baseline.getValues("a.jtl"), current.get("a.jtl").getUriEntryMap(),
+				PerformancePublisher.ART);
+		assertEquals(1, diffs.size());
+		assertEquals("_Home", diffs.get(0).getPreviousStaplerUri());
+		assertEquals(200, diffs.get(0).getPrevious());
+		assertEquals(50d, diffs.get(0).getPercent(), 0);
+	}
+
+	@Test
+	public void testMedian() throws Exception {
+		assertEquals(2, RollingBaseline.median(new long[] { 3, 1, 2 }, 3));
+		assertEquals(2, RollingBaseline.median(new long[] { 4, 1, 0 }, 2));
+	}
+}
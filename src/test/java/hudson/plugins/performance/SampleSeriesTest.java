@@ -0,0 +1,71 @@
+package hudson.plugins.performance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class SampleSeriesTest {
+
+	@Test
+	public void testBuckets() throws Exception {
+		HttpSampleStore samples = new HttpSampleStore();
+		for (int i = 0; i < 100; i++) {
+			samples.add(1000L + i, i, true, false, "200", 1);
+		}
+		samples.add(2099L, 500, true, false, "200", 1);
+
+		SampleSeries series = SampleSeries.of(samples, 10);
+		assertTrue(series.size() <= 10);
+		assertEquals(1000L, series.getStart(0));
+		assertEquals(0, series.getMin(0));
+		int count = 0;
+		for (int i = 0; i < series.size(); i++) {
+			count += series.getCount(i);
+		}
+		assertEquals(101, count);
+		int last = series.size() - 1;
+		assertEquals(1, series.getCount(last));
+		assertEquals(500, series.getMax(last));
+		assertEquals(500d, series.getMean(last), 0);
+	}
+
+	@Test
+	public void testLttbKeepsPeaks() throws Exception {
+		long[] x = new long[1000];
+		double[] y = new double[1000];
+		for (int i = 0; i < x.length; i++) {
+			x[i] = i;
+			y[i] = i == 437 ? 10000 : i % 7;
+		}
+		int[] kept = SampleSeries.lttb(x, y, x.length, 50);
+		assertEquals(50, kept.length);
+		assertEquals(0, kept[0]);
+		assertEquals(999, kept[49]);
+		assertTrue(Arrays.binarySearch(kept, 437) >= 0);
+		for (int i = 1; i < kept.length; i++) {
+			assertTrue(kept[i] > kept[i - 1]);
+		}
+		assertEquals(10, SampleSeries.lttb(x, y, 10, 50).length);
+	}
+
+	@Test
+	public void testDownsampleRange() throws Exception {
+		HttpSampleStore samples = new HttpSampleStore();
+		for (int i = 0; i < 1000; i++) {
+			samples.add(1000L + i, i % 13, true, false, "200", 1);
+		}
+		SampleSeries series = SampleSeries.of(samples, 1000);
+		assertEquals(1000, series.size());
+
+		int[] kept = series.downsample(1100L, 1199L, 20);
+		assertEquals(20, kept.length);
+		assertEquals(1100L, series.getStart(kept[0]));
+		assertEquals(1199L, series.getStart(kept[19]));
+		assertEquals(100, series.downsample(1100L, 1199L, 0).length);
+		assertEquals(1000, series.downsample(0).length);
+		assertEquals(0, series.downsample(5000L, 6000L, 20).length);
+	}
+}
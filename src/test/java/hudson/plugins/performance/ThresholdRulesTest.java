@@ -0,0 +1,117 @@
+package hudson.plugins.performance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import hudson.model.Result;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+public class ThresholdRulesTest {
+
+	private PerformanceReport createReport() throws SAXException {
+		return ReportFixtures.createReport("orders.jtl",
+				new String[] { "/api/orders/1", "/api/orders/2", "/search?q=a",
+						"/search?q=b", "/home" },
+				new long[] { 2000, 400, 100, 300, 50 },
+				new boolean[] { true, true, false, true, true });
+	}
+
+	@Test
+	public void testLegacyRules() throws Exception {
+		ThresholdRules rules = ThresholdRules.compile(
+				"orders.jtl:500\nother.jtl:10\norders.jtl:throughput:10\nnot a rule");
+		assertEquals(3, rules.getRules().size());
+		assertTrue(rules.getErrors().isEmpty());
+
+		List<ThresholdRules.Violation> violations = rules.check(createReport());
+		assertEquals(2, violations.size());
+		assertEquals("orders.jtl has exceeded the average threshold of [500] with [570]",
+				violations.get(0).getMessage());
+		assertNull(violations.get(0).getUri());
+		assertEquals(Result.UNSTABLE, violations.get(0).getResult());
+		assertTrue(violations.get(1).getMessage().startsWith(
+				"orders.jtl is below the throughput threshold of [10] with ["));
+	}
+
+	@Test
+	public void testUriRules() throws Exception {
+		ThresholdRules rules = ThresholdRules.compile("# per URI\n"
+				+ "\n"
+				+ "*.jtl | /api/orders/* | max > 1500 | FAILURE\r\n"
+				+ "orders.jtl | re:^/search.* | error% >= 50\n"
+				+ "orders.jtl | /home | p99 <= 50\n"
+				+ "other.jtl | * | min > 0\n");
+		assertEquals(4, rules.getRules().size());
+		assertTrue(rules.getErrors().isEmpty());
+
+		List<ThresholdRules.Violation> violations = rules.check(createReport());
+		assertEquals(3, violations.size());
+		int failures = 0;
+		for (ThresholdRules.Violation violation : violations) {
+			if (violation.getResult() == Result.FAILURE) {
+				failures++;
+				assertEquals("/api/orders/1", violation.getUri());
+				assertEquals("orders.jtl /api/orders/1 has exceeded the max threshold of [1500] with [2000]",
+						violation.getMessage());
+			} else if (violation.getUri().equals("/home")) {
+				assertEquals("orders.jtl /home is below the p99 threshold of [50] with [50]",
+						violation.getMessage());
+			} else {
+				assertEquals("/search?q=a", violation.getUri());
+				assertEquals(Result.UNSTABLE, violation.getResult());
+			}
+		}
+		assertEquals(1, failures);
+	}
+
+	@Test
+	public void testAllUris() throws Exception {
+		ThresholdRules rules = ThresholdRules.compile(
+				"| * | avg >= 300\n| | median < 0");
+		List<ThresholdRules.Violation> violations = rules.check(createReport());
+		assertEquals(3, violations.size());
+		for (ThresholdRules.Violation violation : violations) {
+			assertTrue(violation.getValue() >= 300);
+		}
+	}
+
+	@Test
+	public void testErrors() throws Exception {
+		ThresholdRules rules = ThresholdRules.compile("orders.jtl:abc\n"
+				+ "orders.jtl:p200:5\n"
+				+ "* | re:( | max > 1\n"
+				+ "*.csv | * | max = 1\n"
+				+ "*.csv | * | p200 > 1\n"
+				+ "* | * | max > 1 | ABORTED\n"
+				+ "* | * | max > 1\n");
+		// the legacy line naming no known metric is ignored
+		assertEquals(1, rules.getRules().size());
+		assertEquals(5, rules.getErrors().size());
+		assertEquals("Threshold set to a non-number [abc] in [orders.jtl:abc]",
+				rules.getErrors().get(0));
+		assertEquals("Unknown threshold metric [p200]", rules.getErrors().get(3));
+
+		// only the lines about a report fail it
+		assertEquals(3, rules.getErrors("orders.jtl").size());
+		assertEquals(4, rules.getErrors("orders.csv").size());
+		assertEquals(2, rules.getErrors("other.jtl").size());
+	}
+
+	@Test
+	public void testCompileEmpty() throws Exception {
+		assertTrue(ThresholdRules.compile(null).isEmpty());
+		assertEquals("", ThresholdRules.compile(null).getSource());
+		assertTrue(ThresholdRules.compile("").check(createReport()).isEmpty());
+	}
+
+	@Test
+	public void testGlob() throws Exception {
+		assertTrue(ThresholdRules.glob("/api/*/items?").matcher("/api/1/items2").matches());
+		assertTrue(ThresholdRules.glob("a.b+").matcher("a.b+").matches());
+		assertTrue(!ThresholdRules.glob("a.b").matcher("axb").matches());
+	}
+}
@@ -0,0 +1,114 @@
+package hudson.plugins.performance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import org.junit.Test;
+
+public class TimeBucketsTest {
+
+	private static final long START = 1296846793000L;
+
+	@Test
+	public void testSecondBuckets() throws Exception {
+		TimeBuckets buckets = new TimeBuckets();
+		for (int i = 0; i < 100; i++) {
+			buckets.add(START + 500 + i * 50, i % 2 == 0 ? 100 : 300, i % 10 != 0);
+		}
+		buckets.add(START - 1500, 40, true);
+		buckets.add(Long.MIN_VALUE, 40, true);
+
+		assertEquals(1000, buckets.getWidth());
+		assertEquals(8, buckets.size());
+		assertEquals(START - 2000, buckets.getStart(0));
+		assertEquals(1, buckets.getCount(0));
+		assertEquals(0, buckets.getCount(1));
+		assertEquals(10, buckets.getCount(2));
+		assertEquals(20, buckets.getCount(3));
+		assertEquals(20d, buckets.getThroughput(3), 0);
+		assertEquals(2, buckets.getErrors(3));
+		assertEquals(200, buckets.getAverage(3));
+		long median = buckets.getPercentile(3, 50);
+		long p90 = buckets.getPercentile(3, 90);
+		assertTrue(median >= 80 && median <= 120);
+		assertTrue(p90 >= 240 && p90 <= 360);
+	}
+
+	@Test
+	public void testWidthGrowsWithTestDuration() throws Exception {
+		TimeBuckets buckets = new TimeBuckets();
+		int samples = 3 * TimeBuckets.MAX_BUCKETS;
+		for (int i = 0; i < samples; i++) {
+			buckets.add(START + i * 1000L, 10, true);
+		}
+		assertEquals(4000, buckets.getWidth());
+		assertTrue(buckets.size() <= TimeBuckets.MAX_BUCKETS);
+		int count = 0;
+		for (int i = 0; i < buckets.size(); i++) {
+			count += buckets.getCount(i);
+		}
+		assertEquals(samples, count);
+	}
+
+	@Test
+	public void testUriBuckets() throws Exception {
+		TimeBuckets buckets = new TimeBuckets(TimeBuckets.MAX_URI_BUCKETS);
+		buckets.add(START, 10, true);
+		buckets.add(START + 3600 * 1000L, 1000, false);
+		assertEquals(16000, buckets.getWidth());
+		assertTrue(buckets.size() <= TimeBuckets.MAX_URI_BUCKETS);
+		assertEquals(1, buckets.getCount(0));
+		assertEquals(1, buckets.getErrors(buckets.size() - 1));
+		assertEquals(0, buckets.getPercentile(1, 50));
+
+		TimeBuckets report = new TimeBuckets();
+		report.add(START + 500, 20, true);
+		report.add(buckets);
+		assertEquals(16000, report.getWidth());
+		assertEquals(2, report.getCount(0));
+		long p99 = report.getPercentile(report.size() - 1, 99);
+		assertTrue(p99 >= 800 && p99 <= 1200);
+	}
+
+	@Test
+	public void testMergeAndRoundTrip() throws Exception {
+		TimeBuckets first = new TimeBuckets();
+		TimeBuckets second = new TimeBuckets();
+		for (int i = 0; i < 50; i++) {
+			first.add(START + i * 100, 20, true);
+			second.add(START + 3000 + i * 100, 2000, false);
+		}
+		first.add(second);
+		assertEquals(8, first.size());
+		assertEquals(10, first.getCount(7));
+		assertEquals(10, first.getErrors(7));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		first.writeTo(new DataOutputStream(bytes));
+		TimeBuckets read = TimeBuckets.readFrom(new DataInputStream(
+				new ByteArrayInputStream(bytes.toByteArray())),
+				TimeBuckets.MAX_BUCKETS);
+		assertEquals(first.size(), read.size());
+		for (int i = 0; i < first.size(); i++) {
+			assertEquals(first.getStart(i), read.getStart(i));
+			assertEquals(first.getCount(i), read.getCount(i));
+			assertEquals(first.getAverage(i), read.getAverage(i));
+			assertEquals(first.getPercentile(i, 99), read.getPercentile(i, 99));
+		}
+	}
+
+	@Test
+	public void testBins() {
+		assertEquals(0, TimeBuckets.binOf(0));
+		assertEquals(1, TimeBuckets.binOf(1));
+		assertEquals(3, TimeBuckets.binOf(2));
+		assertEquals(4, TimeBuckets.binOf(3));
+		assertEquals(21, TimeBuckets.binOf(1024));
+		assertEquals(TimeBuckets.BINS - 1, TimeBuckets.binOf(Long.MAX_VALUE));
+	}
+}
@@ -0,0 +1,147 @@
+package hudson.plugins.performance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+public class TrendIndexTest {
+
+	private PerformanceReport createReport(String name, long offset) throws SAXException {
+		PerformanceReport report = new PerformanceReport();
+		report.setReportFileName(name);
+		for (int i = 0; i < 1000; i++) {
+			report.addSample(i % 2 == 0 ? "/home" : "/search", 1296846793179L + i * 10,
+					offset + i % 300, i % 9 != 0, false, i % 9 == 0 ? "500" : "200", 2);
+		}
+		return report;
+	}
+
+	private File createIndexFile() throws IOException {
+		File file = File.createTempFile("performance", TrendIndex.FILE_NAME);
+		file.delete();
+		file.deleteOnExit();
+		return file;
+	}
+
+	@Test
+	public void testAppendAndReload() throws Exception {
+		File file = createIndexFile();
+		PerformanceReport first = createReport("a.jtl", 0);
+		PerformanceReport second = createReport("b.jtl", 100);
+		TrendIndex index = new TrendIndex(file);
+		index.append(1, Arrays.asList(first, second));
+		index.append(2, Collections.singleton(createReport("a.jtl", 50)));
+
+		TrendIndex reloaded = new TrendIndex(file);
+		assertNull(reloaded.getIndexedReports(3));
+		Map<String, TrendIndex.ReportEntry> reports = reloaded.getIndexedReports(1);
+		assertEquals(2, reports.size());
+		TrendIndex.ReportEntry entry = reports.get("b.jtl");
+		assertEquals(second.size(), entry.size());
+		assertEquals(second.countErrors(), entry.countErrors());
+		assertEquals(second.errorPercent(), entry.errorPercent(), 0);
+		assertEquals(second.getAverage(), entry.getAverage());
+		assertEquals(second.getMedian(), entry.getMedian());
+		assertEquals(second.get90Line(), entry.get90Line());
+		assertEquals(second.getMax(), entry.getMax());
+		assertEquals(second.getTotalTrafficInKb(), entry.getTotalTrafficInKb(), 0);
+		assertEquals(second.getExtraPercentileValues(), entry.getExtraPercentileValues());
+		assertEquals(1000 * 1000d / 10189, entry.getThroughput(), 1e-9);
+		assertEquals(second.getThroughput(), entry.getThroughput(), 0);
+		assertEquals(1000 * 2048 * 1000d / 10189, entry.getBytesPerSecond(), 1e-6);
+
+		TrendIndex.UriEntry uri = entry.getUriEntryMap().get("_search");
+		UriReport uriReport = second.getUriReportMap().get("_search");
+		assertEquals(uriReport.getAverage(), uri.getAverage());
+		assertEquals(uriReport.getSlowestHttpSample().getDuration(), uri.getSlowestDuration());
+		assertEquals(50, reloaded.getIndexedReports(2).get("a.jtl").getMin());
+	}
+
+	@Test
+	public void testUrisAreReadWhenAskedFor() throws Exception {
+		File file = createIndexFile();
+		TrendIndex index = new TrendIndex(file);
+		index.append(1, Arrays.asList(createReport("a.jtl", 0), createReport("b.jtl", 100)));
+		index.append(2, Collections.singleton(createReport("a.jtl", 50)));
+		assertEquals(2, index.getIndexedReports(2).get("a.jtl").getUriEntryMap().size());
+
+		TrendIndex reloaded = new TrendIndex(file);
+		TrendIndex.ReportEntry entry = reloaded.getIndexedReports(1).get("b.jtl");
+		Map<String, TrendIndex.UriEntry> uris = entry.getUriEntryMap();
+		assertEquals(2, uris.size());
+		assertEquals(100, uris.get("_home").getMin());
+		assertEquals(101, uris.get("_search").getMin());
+		// from the cache
+		assertSame(uris, entry.getUriEntryMap());
+		assertEquals(51, reloaded.getIndexedReports(2).get("a.jtl").getUriEntryMap()
+				.get("_search").getMin());
+	}
+
+	@Test
+	public void testLongUri() throws Exception {
+		StringBuilder uri = new StringBuilder("/search?q=");
+		while (uri.length() < 70000) {
+			uri.append("\u00e9t\u00e9");
+		}
+		PerformanceReport report = createReport("a.jtl", 0);
+		report.addSample(uri.toString(), 1296846793179L, 100, true, false, "200", 0);
+		File file = createIndexFile();
+		new TrendIndex(file).append(1, Collections.singleton(report));
+
+		Map<String, TrendIndex.UriEntry> uris = new TrendIndex(file).getIndexedReports(1)
+				.get("a.jtl").getUriEntryMap();
+		assertEquals(3, uris.size());
+		boolean found = false;
+		for (TrendIndex.UriEntry entry : uris.values()) {
+			found |= entry.getUri().equals(uri.toString());
+		}
+		assertTrue(found);
+	}
+
+	@Test
+	public void testIncompleteRecordIsOverwritten() throws Exception {
+		File file = createIndexFile();
+		TrendIndex index = new TrendIndex(file);
+		index.append(1, Collections.singleton(createReport("a.jtl", 0)));
+		long length = file.length();
+		index.append(2, Collections.singleton(createReport("a.jtl", 10)));
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(file.length() - 5);
+		raf.close();
+
+		TrendIndex reloaded = new TrendIndex(file);
+		assertEquals(1, reloaded.getIndexedReports(1).size());
+		assertNull(reloaded.getIndexedReports(2));
+		reloaded.append(3, Collections.singleton(createReport("a.jtl", 20)));
+		assertEquals(20, new TrendIndex(file).getIndexedReports(3).get("a.jtl").getMin());
+		assertNull(new TrendIndex(file).getIndexedReports(2));
+		assertEquals(2 * length - 8, file.length());
+	}
+
+	@Test
+	public void testChangePointsGoOnWithTheNextBuilds() throws Exception {
+		assertTrue(TrendIndex.isContinuedBy(Arrays.asList(1, 2, 3), Arrays.asList(1, 2, 3, 4)));
+		// the window slid by two builds
+		assertTrue(TrendIndex.isContinuedBy(Arrays.asList(1, 2, 3, 4), Arrays.asList(3, 4, 5, 6)));
+		// build 3 was deleted
+		assertFalse(TrendIndex.isContinuedBy(Arrays.asList(1, 2, 3, 4), Arrays.asList(2, 4, 5)));
+		// the window goes back further
+		assertFalse(TrendIndex.isContinuedBy(Arrays.asList(2, 3), Arrays.asList(1, 2, 3)));
+		// too many builds behind the window
+		assertFalse(TrendIndex.isContinuedBy(Arrays.asList(1, 2, 3, 4, 5), Arrays.asList(4, 5)));
+		assertTrue(TrendIndex.isContinuedBy(Collections.<Integer>emptyList(), Arrays.asList(1)));
+	}
+}
@@ -0,0 +1,50 @@
+package hudson.plugins.performance;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+public class UriComparisonTest {
+
+	private Map<String, TrendIndex.UriEntry> createEntries(String[] uris, long[] durations)
+			throws SAXException {
+		PerformanceReport report = ReportFixtures.createReport("a.jtl", uris, durations);
+		long[] slower = new long[durations.length];
+		for (int i = 0; i < durations.length; i++) {
+			slower[i] = durations[i] * 3;
+		}
+		ReportFixtures.addSamples(report, uris, slower);
+		return new TrendIndex.ReportEntry(report).getUriEntryMap();
+	}
+
+	@Test
+	public void testWorstRegressionsFirst() throws Exception {
+		Map<String, TrendIndex.UriEntry> previous = createEntries(
+				new String[] { "/home", "/Search", "/cart", "/gone" },
+				new long[] { 100, 100, 100, 100 });
+		Map<String, TrendIndex.UriEntry> current = createEntries(
+				new String[] { "/home", "/search", "/cart", "/new" },
+				new long[] { 110, 300, 50, 100 });
+
+		List<UriComparison.Diff> diffs = UriComparison.compare(previous, current,
+				PerformancePublisher.ART);
+		assertEquals(3, diffs.size());
+		assertEquals("_search", diffs.get(0).getStaplerUri());
+		assertEquals("_Search", diffs.get(0).getPreviousStaplerUri());
+		assertEquals(200, diffs.get(0).getPrevious());
+		assertEquals(600, diffs.get(0).getCurrent());
+		assertEquals(200d, diffs.get(0).getPercent(), 0);
+		assertEquals("_home", diffs.get(1).getStaplerUri());
+		assertEquals(10d, diffs.get(1).getPercent(), 0);
+		assertEquals("_cart", diffs.get(2).getStaplerUri());
+		assertEquals(-50d, diffs.get(2).getPercent(), 0);
+
+		diffs = UriComparison.compare(previous, current, PerformancePublisher.MRT);
+		assertEquals(previous.get("_Search").getMedian(), diffs.get(0).getPrevious());
+		assertEquals(current.get("_search").getMedian(), diffs.get(0).getCurrent());
+	}
+}
@@ -63,4 +63,67 @@ public class UriReportTest {
 		assertTrue(uriReport.isFailed());
 	}
 
+	@Test
+	public void testGetHttpSampleList() {
+		assertEquals(3, uriReport.getHttpSampleList().size());
+		HttpSample second = uriReport.getHttpSampleList().get(1);
+		assertEquals(AVERAGE, second.getDuration());
+		assertTrue(second.isSuccessful());
+		assertFalse(uriReport.getHttpSampleList().get(2).isSuccessful());
+		assertEquals(second, uriReport.getHttpSampleList().get(1));
+	}
+
+	@Test
+	public void testGetHttpCode() {
+		UriReport report = new UriReport(null, "uri", "uri");
+		String[] codes = { "200", "500", "200", "302" };
+		for (String code : codes) {
+			HttpSample sample = new HttpSample();
+			sample.setHttpCode(code);
+			report.addHttpSample(sample);
+		}
+		assertEquals("200,500,302", report.getHttpCode());
+		assertEquals("500", report.getHttpSampleList().get(1).getHttpCode());
+	}
+
+	@Test
+	public void testGetSummary() {
+		ReportSummary summary = uriReport.getSummary();
+		assertEquals(3, summary.getCount());
+		assertEquals(2, summary.getErrors());
+		assertEquals(MIN, summary.getMin());
+		assertEquals(MAX, summary.getMax());
+		assertSame(summary, uriReport.getSummary());
+
+		HttpSample httpSample = new HttpSample();
+		httpSample.setDuration(25);
+		httpSample.setSuccessful(true);
+		httpSample.setSizeInKb(2);
+		uriReport.addHttpSample(httpSample);
+		assertEquals(4, uriReport.size());
+		assertEquals(25, uriReport.getMax());
+		assertEquals(10, uriReport.getAverage());
+		assertEquals(2d, uriReport.getTotalTrafficInKb(), 0);
+		assertEquals(0.5d, uriReport.getAverageSizeInKb(), 0);
+	}
+
+	@Test
+	public void testThroughput() {
+		UriReport report = new UriReport(null, "_a", "/a");
+		report.addHttpSample(1000L, 200, true, false, "200", 1);
+		report.addHttpSample(1500L, 1500, true, false, "200", 1);
+		report.addHttpSample(2000L, 100, true, false, "200", 2);
+		// from the first start to the end of the slowest sample
+		assertEquals(1000L, report.getSummary().getStart());
+		assertEquals(3000L, report.getSummary().getEnd());
+		assertEquals(1.5d, report.getThroughput(), 1e-9);
+		assertEquals(2048d, report.getBytesPerSecond(), 1e-9);
+
+		UriReport other = new UriReport(null, "_a", "/a");
+		other.addHttpSample(4000L, 1000, true, false, "200", 0);
+		report.merge(other);
+		assertEquals(1d, report.getThroughput(), 1e-9);
+		assertEquals(0d, new UriReport(null, "_b", "/b").getThroughput(), 0);
+	}
+
 }